@@ -0,0 +1,53 @@
+package com.example.productsearchservice.controller;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.service.ProductFields;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+
+// Writes response bodies with only the selected fields of each product in them (?fields=). Unselected fields are
+// left out of the JSON, not written as null or 0; everything around the products is written as usual.
+@Component
+public class ProductFieldFilter {
+
+    static final String FILTER_ID = "productFields";
+
+    @JsonFilter(FILTER_ID)
+    private interface Filtered {
+    }
+
+    // A copy of the application's mapper where ProductResponse goes through the filter; the filter itself is
+    // supplied per response, so serializers are still built once.
+    private final ObjectMapper filteringMapper;
+
+    @Autowired
+    public ProductFieldFilter(ObjectMapper objectMapper) {
+        this.filteringMapper = objectMapper.copy().addMixIn(ProductResponse.class, Filtered.class);
+    }
+
+    // The entity to return: as is when every field is selected, otherwise written through the filter.
+    public Object select(Object entity, List<String> fields) {
+        if (ProductFields.isAll(fields)) {
+            return entity;
+        }
+        ObjectWriter writer = writer(fields);
+        return (StreamingOutput) output -> writer.writeValue(output, entity);
+    }
+
+    // For writing one product at a time, as the NDJSON stream does.
+    ObjectWriter writer(List<String> fields) {
+        return filteringMapper.writer(new SimpleFilterProvider()
+                        .addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(new HashSet<>(fields))))
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // Jersey owns the response stream
+    }
+}
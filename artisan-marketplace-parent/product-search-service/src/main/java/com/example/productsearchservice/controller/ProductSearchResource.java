@@ -1,18 +1,35 @@
 package com.example.productsearchservice.controller;
 
 import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.dto.ProductSearchPage;
+import com.example.productsearchservice.dto.ProductSearchRequest;
+import com.example.productsearchservice.dto.SuggestionResponse;
+import com.example.productsearchservice.service.ProductFields;
 import com.example.productsearchservice.service.ProductSearchService;
+import com.example.productsearchservice.service.SearchProjectionService;
+import com.example.productsearchservice.service.SimilarProductsService;
+import com.example.productsearchservice.service.SuggestionService;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.ws.rs.BeanParam;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @Component
 @Path("/search/products") // Base path for this resource, will be prefixed by /api from Jersey config
@@ -20,29 +37,122 @@ import java.util.List;
 @Consumes(MediaType.APPLICATION_JSON) // Though GET usually doesn't consume, good practice to specify
 public class ProductSearchResource {
 
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String DETAILS_PREFIX = "details.";
+    private static final int DEFAULT_SUGGESTION_LIMIT = 10;
+    private static final int MAX_SUGGESTION_LIMIT = 50;
+    private static final int DEFAULT_SIMILAR_LIMIT = 10;
+
     private final ProductSearchService productSearchService;
+    private final SuggestionService suggestionService;
+    private final SimilarProductsService similarProductsService;
+    private final SearchProjectionService searchProjectionService;
+    private final ProductFieldFilter productFieldFilter;
 
     @Autowired
-    public ProductSearchResource(ProductSearchService productSearchService) {
+    public ProductSearchResource(ProductSearchService productSearchService, SuggestionService suggestionService,
+                                 SimilarProductsService similarProductsService,
+                                 SearchProjectionService searchProjectionService, ProductFieldFilter productFieldFilter) {
         this.productSearchService = productSearchService;
+        this.suggestionService = suggestionService;
+        this.similarProductsService = similarProductsService;
+        this.searchProjectionService = searchProjectionService;
+        this.productFieldFilter = productFieldFilter;
     }
 
     @GET
-    public Response searchProducts(
-            @QueryParam("query") String query,
-            @QueryParam("category") String category,
-            @QueryParam("minPrice") Double minPrice,
-            @QueryParam("maxPrice") Double maxPrice) {
+    public Response searchProducts(@BeanParam ProductSearchRequest request, @Context UriInfo uriInfo) {
+        request.setDetails(detailFilters(uriInfo));
         try {
-            List<ProductResponse> products = productSearchService.searchProducts(query, category, minPrice, maxPrice);
-            if (products.isEmpty()) {
+            List<String> fields = ProductFields.parse(request.getFields());
+            ProductSearchPage page = productSearchService.searchProducts(request);
+            if (page.getItems().isEmpty() && request.getAfter() == null) {
                 return Response.status(Response.Status.NOT_FOUND).entity("No products found matching your criteria.").build();
             }
-            return Response.ok(products).build();
+            if (request.getAfter() == null) {
+                suggestionService.recordQuery(request.getQuery()); // feeds the popular queries offered by /suggest
+                searchProjectionService.recordImpressions(page.getItems()); // popularity in the search read model
+            }
+            return Response.ok(productFieldFilter.select(page, fields)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             // Log the exception e.g. e.printStackTrace(); or use a logger
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                            .entity("Error during product search: " + e.getMessage()).build();
         }
     }
+
+    // Same search, written as newline-delimited JSON while results are read (Accept: application/x-ndjson).
+    // Results are written as they are read: a MongoDB cursor batch or an index chunk at a time, never the whole
+    // result, so it is safe for queries matching the whole catalog.
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    public Response streamProducts(@BeanParam ProductSearchRequest request, @Context UriInfo uriInfo) {
+        request.setDetails(detailFilters(uriInfo));
+        Stream<ProductResponse> products;
+        ObjectWriter writer;
+        try {
+            writer = productFieldFilter.writer(ProductFields.parse(request.getFields()));
+            products = productSearchService.streamProducts(request);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+        }
+        StreamingOutput body = output -> {
+            try (Stream<ProductResponse> results = products) {
+                Iterator<ProductResponse> iterator = results.iterator();
+                while (iterator.hasNext()) {
+                    output.write(writer.writeValueAsBytes(iterator.next()));
+                    output.write('\n');
+                }
+            }
+        };
+        return Response.ok(body, APPLICATION_NDJSON).build();
+    }
+
+    // Typeahead: products, categories and popular searches with a word starting with the prefix, most popular first.
+    @GET
+    @Path("/suggest")
+    public Response suggest(@QueryParam("prefix") String prefix, @QueryParam("limit") Integer limit) {
+        if (prefix == null || prefix.isBlank()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("prefix is required").build();
+        }
+        if (limit != null && limit < 1) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("limit must be at least 1").build();
+        }
+        int resolvedLimit = limit == null ? DEFAULT_SUGGESTION_LIMIT : Math.min(limit, MAX_SUGGESTION_LIMIT);
+        List<SuggestionResponse> suggestions = suggestionService.suggest(prefix, resolvedLimit);
+        return Response.ok(suggestions).build();
+    }
+
+    // "More like this": products with the most similar name, description and category (TF-IDF cosine), best first.
+    @GET
+    @Path("/{id}/similar")
+    public Response similarProducts(@PathParam("id") String id, @QueryParam("limit") Integer limit,
+                                    @QueryParam("fields") String fields) {
+        try {
+            List<String> selected = ProductFields.parse(fields);
+            int resolvedLimit = limit == null ? DEFAULT_SIMILAR_LIMIT : Math.min(limit, SimilarProductsService.MAX_LIMIT);
+            List<ProductResponse> similar = similarProductsService.similar(id, resolvedLimit);
+            if (similar == null) {
+                return Response.status(Response.Status.NOT_FOUND).entity("Product not found: " + id).build();
+            }
+            return Response.ok(productFieldFilter.select(similar, selected)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).build();
+        }
+    }
+
+    // details.<key>=<value> parameters, grouped by key.
+    private static Map<String, List<String>> detailFilters(UriInfo uriInfo) {
+        Map<String, List<String>> details = new LinkedHashMap<>();
+        uriInfo.getQueryParameters().forEach((name, values) -> {
+            if (name.startsWith(DETAILS_PREFIX) && name.length() > DETAILS_PREFIX.length()) {
+                details.put(name.substring(DETAILS_PREFIX.length()), values);
+            }
+        });
+        return details.isEmpty() ? null : details;
+    }
 }
@@ -0,0 +1,14 @@
+package com.example.productsearchservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceBucket {
+    private double from; // Inclusive
+    private Double to; // Exclusive, null for the open-ended last bucket
+    private long count;
+}
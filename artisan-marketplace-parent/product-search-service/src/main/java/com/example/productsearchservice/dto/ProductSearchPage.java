@@ -0,0 +1,19 @@
+package com.example.productsearchservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import java.util.List;
+import java.util.Set;
+
+@Data
+public class ProductSearchPage {
+    private List<ProductResponse> items;
+    private String next; // Cursor for the following page, null on the last page
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private SearchFacets facets; // Only present when requested with facets=true
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean partial; // The search ran out of its time budget: items (and facets) cover what was found by then
+    @JsonIgnore
+    private Set<String> expandedTerms = Set.of(); // Query terms the index expanded to near spellings; see SearchResultCache
+}
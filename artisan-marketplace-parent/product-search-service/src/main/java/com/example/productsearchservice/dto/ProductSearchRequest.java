@@ -0,0 +1,37 @@
+package com.example.productsearchservice.dto;
+
+import jakarta.ws.rs.QueryParam;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+// Query parameters of /search/products, bound with @BeanParam.
+@Data
+public class ProductSearchRequest {
+    @QueryParam("query")
+    private String query;
+    @QueryParam("category")
+    private String category;
+    @QueryParam("minPrice")
+    private Double minPrice;
+    @QueryParam("maxPrice")
+    private Double maxPrice;
+    @QueryParam("sort")
+    private String sort; // relevance (default), price_asc, price_desc or newest
+    @QueryParam("limit")
+    private Integer limit; // Page size, capped by search.page.max-limit
+    @QueryParam("after")
+    private String after; // Opaque cursor taken from the "next" field of the previous page
+    @QueryParam("facets")
+    private boolean facets; // Also return category counts and a price histogram for the whole match set
+    @QueryParam("priceBuckets")
+    private String priceBuckets; // Ascending bucket boundaries, e.g. "0,25,50,100"; defaults to search.facets.price-buckets
+    @QueryParam("detailFacets")
+    private String detailFacets; // Comma-separated details keys whose value counts are returned with facets=true
+    @QueryParam("fields")
+    private String fields; // Comma-separated product fields to return, e.g. "name,price,images"; all when absent
+    // From details.<key>=<value> parameters (not bindable by name, so the resource fills it in). A key may repeat:
+    // its values are alternatives, while different keys must all match.
+    private Map<String, List<String>> details;
+}
@@ -0,0 +1,16 @@
+package com.example.productsearchservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import java.util.List;
+import java.util.Map;
+
+// Facet counts for a search. Each facet ignores its own filter and applies all the others, so a shopper who
+// picked a category still sees how many matches the other categories have (and likewise for price).
+@Data
+public class SearchFacets {
+    private Map<String, Long> categories;
+    private List<PriceBucket> prices;
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Map<String, Long>> details; // details key -> value -> count, for the keys in detailFacets
+}
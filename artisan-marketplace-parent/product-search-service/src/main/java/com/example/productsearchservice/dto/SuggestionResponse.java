@@ -0,0 +1,13 @@
+package com.example.productsearchservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SuggestionResponse {
+    private String text;
+    private String type; // "query", "product" or "category"
+}
@@ -0,0 +1,100 @@
+package com.example.productsearchservice.index;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bitmap index over Product.details: for every key and value, the compressed set of ordinals that have it.
+// Filters are evaluated as bitmap operations (OR across the values of a key, AND across keys) and attribute
+// facets are cardinalities of intersections, so neither touches the documents themselves.
+final class AttributeIndex {
+
+    private final Map<String, Map<String, RoaringBitmap>> bitmaps = new HashMap<>();
+
+    void add(int doc, Map<String, String> details) {
+        if (details == null) {
+            return;
+        }
+        details.forEach((key, value) -> {
+            if (key != null && value != null) {
+                bitmaps.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(value, v -> new RoaringBitmap()).add(doc);
+            }
+        });
+    }
+
+    void remove(int doc, Map<String, String> details) {
+        if (details == null) {
+            return;
+        }
+        details.forEach((key, value) -> {
+            Map<String, RoaringBitmap> values = bitmaps.get(key);
+            RoaringBitmap docs = values == null ? null : values.get(value);
+            if (docs != null) {
+                docs.remove(doc);
+                if (docs.isEmpty()) {
+                    values.remove(value);
+                    if (values.isEmpty()) {
+                        bitmaps.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    void clear() {
+        bitmaps.clear();
+    }
+
+    // Ordinals satisfying the filters of every key except exceptKey, or null when that leaves nothing to filter on.
+    RoaringBitmap matching(Map<String, List<String>> filters, String exceptKey) {
+        if (filters == null) {
+            return null;
+        }
+        RoaringBitmap result = null;
+        for (Map.Entry<String, List<String>> filter : filters.entrySet()) {
+            if (filter.getKey().equals(exceptKey)) {
+                continue;
+            }
+            RoaringBitmap anyValue = anyOf(filter.getKey(), filter.getValue());
+            if (result == null) {
+                result = anyValue;
+            } else {
+                result.and(anyValue);
+            }
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    // Counts, for every value of key, how many of the candidates have it.
+    void countValues(String key, RoaringBitmap candidates, FacetCounts facets) {
+        Map<String, RoaringBitmap> values = bitmaps.get(key);
+        if (values == null) {
+            return;
+        }
+        values.forEach((value, docs) -> {
+            long count = RoaringBitmap.andCardinality(candidates, docs);
+            if (count > 0) {
+                facets.countDetail(key, value, count);
+            }
+        });
+    }
+
+    private RoaringBitmap anyOf(String key, Collection<String> wanted) {
+        Map<String, RoaringBitmap> values = bitmaps.getOrDefault(key, Map.of());
+        List<RoaringBitmap> matching = new ArrayList<>(wanted.size());
+        for (String value : wanted) {
+            RoaringBitmap docs = values.get(value);
+            if (docs != null) {
+                matching.add(docs);
+            }
+        }
+        return RoaringBitmap.or(matching.iterator()); // always a fresh bitmap, safe to modify
+    }
+}
@@ -0,0 +1,595 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Columnar copy of the only fields a filter-only search reads: id, category and price.
+// Rows are sorted by product id, the default order of filter-only results, so a page is the next `limit` matching
+// rows after the cursor. Prices are held off-heap twice, per row and sorted (with the row of each sorted entry),
+// which turns a price range into two binary searches and serves the price sorts without sorting anything;
+// categories are dictionary-encoded with a BitSet of rows each.
+// Instances are immutable. A write masks the product's old row and records it in a small delta sorted by id;
+// once the delta grows past a fraction of the catalog it is folded into fresh columns by compact().
+// The columns can be written to a versioned snapshot file and later used straight from a memory-mapped copy of it.
+public final class ColumnarCatalog {
+
+    private static final int MIN_CHANGES_BEFORE_COMPACTION = 1024;
+    private static final int NO_CATEGORY = -1;
+
+    private final Columns columns;
+    private final BitSet masked;
+    private final TreeMap<String, Row> delta;
+    private final int changes;
+
+    private ColumnarCatalog(Columns columns, BitSet masked, TreeMap<String, Row> delta, int changes) {
+        this.columns = columns;
+        this.masked = masked;
+        this.delta = delta;
+        this.changes = changes;
+    }
+
+    public static ColumnarCatalog build(Stream<Product> products) {
+        List<Row> rows = new ArrayList<>();
+        products.forEach(product -> rows.add(Row.of(product)));
+        return new ColumnarCatalog(Columns.of(rows), new BitSet(), new TreeMap<>(), 0);
+    }
+
+    public static ColumnarCatalog empty() {
+        return build(Stream.empty());
+    }
+
+    // Opens a snapshot written by writeTo. The columns are used straight from the mapped file, nothing is copied
+    // onto the heap but the category dictionary.
+    public static ColumnarCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarCatalog(new Columns(data), new BitSet(), new TreeMap<>(), 0);
+        }
+    }
+
+    // Writes the catalog in the format open() maps. Pending writes are folded in first, so the file is self-contained.
+    public void writeTo(Path file) throws IOException {
+        ColumnarCatalog compacted = changes == 0 ? this : compact();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            compacted.columns.writeTo(channel);
+            channel.force(true);
+        }
+    }
+
+    public int size() {
+        return columns.rowCount - masked.cardinality() + delta.size();
+    }
+
+    public ColumnarCatalog withUpsert(Product product) {
+        BitSet newMasked = maskRow(product.getId());
+        TreeMap<String, Row> newDelta = new TreeMap<>(delta);
+        newDelta.put(product.getId(), Row.of(product));
+        return new ColumnarCatalog(columns, newMasked, newDelta, changes + 1);
+    }
+
+    public ColumnarCatalog withDelete(String productId) {
+        TreeMap<String, Row> newDelta = delta;
+        if (delta.containsKey(productId)) {
+            newDelta = new TreeMap<>(delta);
+            newDelta.remove(productId);
+        }
+        return new ColumnarCatalog(columns, maskRow(productId), newDelta, changes + 1);
+    }
+
+    public boolean needsCompaction() {
+        return changes > Math.max(MIN_CHANGES_BEFORE_COMPACTION, columns.rowCount / 8);
+    }
+
+    public ColumnarCatalog compact() {
+        List<Row> rows = new ArrayList<>(size());
+        for (int row = masked.nextClearBit(0); row < columns.rowCount; row = masked.nextClearBit(row + 1)) {
+            rows.add(columns.row(row));
+        }
+        rows.addAll(delta.values());
+        return new ColumnarCatalog(Columns.of(rows), new BitSet(), new TreeMap<>(), 0);
+    }
+
+    // Ids of the products passing the query's category and price filters, in the query's sort order, strictly after
+    // its cursor, at most limit of them. The query text is ignored, so RELEVANCE is id order. Facets, when requested,
+    // are counted over all matches.
+    public List<String> filter(IndexQuery query) {
+        BitSet priceRows = columns.priceRange(query.getMinPrice(), query.getMaxPrice());
+        BitSet categoryRows = columns.categoryRows(query.getCategory());
+        BitSet rows = intersect(priceRows, categoryRows);
+        if (query.getFacets() != null) {
+            countFacets(query, priceRows, categoryRows);
+        }
+
+        // Both stored orders serve as indexes: id order for RELEVANCE and NEWEST, price order for the price sorts.
+        // Descending sorts walk them backwards.
+        SortOrder sort = InvertedIndex.sortOf(query);
+        boolean byPrice = sort == SortOrder.PRICE_ASC || sort == SortOrder.PRICE_DESC;
+        int step = sort.isDescending() ? -1 : 1;
+        // A walk in price order never needs to leave the positions of the price range.
+        int from = byPrice && query.getMinPrice() != null ? columns.firstPriceAtLeast(query.getMinPrice()) : 0;
+        int to = byPrice && query.getMaxPrice() != null ? columns.firstPriceAbove(query.getMaxPrice()) : columns.rowCount;
+        Walk walk = new Walk(rows, byPrice, step, from, to);
+        int position = walk.next(startPosition(query, sort, byPrice));
+
+        List<Row> changed = new ArrayList<>();
+        for (Row row : delta.values()) {
+            if (row.matchesCategory(query) && row.matchesPrice(query) && (query.getAfterId() == null
+                    || sort.compare(query.getAfterValue(), query.getAfterId(), row.sortValue(byPrice), row.id) < 0)) {
+                changed.add(row);
+            }
+        }
+        changed.sort((left, right) -> sort.compare(left.sortValue(byPrice), left.id, right.sortValue(byPrice), right.id));
+
+        // Two-way merge of the base rows and the delta.
+        List<String> ids = new ArrayList<>(Math.min(query.getLimit(), 1024));
+        int next = 0;
+        while (ids.size() < query.getLimit() && (position >= 0 || next < changed.size())) {
+            if (next == changed.size()) {
+                ids.add(columns.id(columns.rowAt(position, byPrice)));
+                position = walk.next(position + step);
+                continue;
+            }
+            Row change = changed.get(next);
+            int row = position >= 0 ? columns.rowAt(position, byPrice) : -1;
+            String id = row >= 0 ? columns.id(row) : null;
+            if (id != null && sort.compare(columns.sortValue(row, byPrice), id, change.sortValue(byPrice), change.id) < 0) {
+                ids.add(id);
+                position = walk.next(position + step);
+            } else {
+                ids.add(change.id);
+                next++;
+            }
+        }
+        return ids;
+    }
+
+    // Position in the stored order where the walk starts: just past the cursor, or at the first entry in sort order.
+    private int startPosition(IndexQuery query, SortOrder sort, boolean byPrice) {
+        int rowCount = columns.rowCount;
+        if (query.getAfterId() == null) {
+            return sort.isDescending() ? rowCount - 1 : 0;
+        }
+        // Binary search for the boundary between positions sorting before or at the cursor and those after it.
+        // In stored order the "after" side is the upper part for ascending sorts and the lower part for descending ones.
+        int lo = 0;
+        int hi = rowCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int row = columns.rowAt(mid, byPrice);
+            boolean after = sort.compare(query.getAfterValue(), query.getAfterId(), columns.sortValue(row, byPrice), columns.id(row)) < 0;
+            if (after == sort.isDescending()) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return sort.isDescending() ? lo - 1 : lo;
+    }
+
+    // Walk over one of the stored orders, yielding the positions whose row is in rows (null means every row) and
+    // not masked. In id order the row bitset itself is walked, skipping non-matching rows a word at a time.
+    private final class Walk {
+
+        private final BitSet rows;
+        private final boolean byPrice;
+        private final int step;
+        private final int from;
+        private final int to;
+
+        private Walk(BitSet rows, boolean byPrice, int step, int from, int to) {
+            this.rows = rows;
+            this.byPrice = byPrice;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        // First matching position at or after position in walking direction, or -1 when there is none.
+        private int next(int position) {
+            int p = step > 0 ? Math.max(position, from) : Math.min(position, to - 1);
+            while (p >= from && p < to) {
+                if (!byPrice && rows != null) {
+                    p = step > 0 ? rows.nextSetBit(p) : rows.previousSetBit(p);
+                    if (p < from || p >= to) {
+                        return -1;
+                    }
+                }
+                int row = columns.rowAt(p, byPrice);
+                if ((rows == null || rows.get(row)) && !masked.get(row)) {
+                    return p;
+                }
+                p += step;
+            }
+            return -1;
+        }
+    }
+
+    // Each facet is counted with every filter applied except its own, as InvertedIndex does.
+    private void countFacets(IndexQuery query, BitSet priceRows, BitSet categoryRows) {
+        FacetCounts facets = query.getFacets();
+
+        long[] perCategory = new long[columns.dictionary.length];
+        if (priceRows == null) {
+            for (int code = 0; code < perCategory.length; code++) {
+                perCategory[code] = columns.rowsByCategory[code].cardinality();
+            }
+            for (int row = masked.nextSetBit(0); row >= 0; row = masked.nextSetBit(row + 1)) {
+                int code = columns.categoryCodes.get(row);
+                if (code != NO_CATEGORY) {
+                    perCategory[code]--;
+                }
+            }
+        } else {
+            for (int row = priceRows.nextSetBit(0); row >= 0; row = priceRows.nextSetBit(row + 1)) {
+                int code = columns.categoryCodes.get(row);
+                if (code != NO_CATEGORY && !masked.get(row)) {
+                    perCategory[code]++;
+                }
+            }
+        }
+        for (int code = 0; code < perCategory.length; code++) {
+            if (perCategory[code] > 0) {
+                facets.countCategory(columns.dictionary[code], perCategory[code]);
+            }
+        }
+
+        if (categoryRows == null) {
+            // Whole-catalog histogram straight off the sorted prices, then the masked rows taken back out.
+            double[] boundaries = facets.getBoundaries();
+            for (int i = 0; i < boundaries.length; i++) {
+                int from = columns.firstPriceAtLeast(boundaries[i]);
+                int to = i + 1 < boundaries.length ? columns.firstPriceAtLeast(boundaries[i + 1]) : columns.rowCount;
+                facets.countPrice(boundaries[i], to - from);
+            }
+            for (int row = masked.nextSetBit(0); row >= 0; row = masked.nextSetBit(row + 1)) {
+                facets.countPrice(columns.prices.get(row), -1);
+            }
+        } else {
+            for (int row = categoryRows.nextSetBit(0); row >= 0; row = categoryRows.nextSetBit(row + 1)) {
+                if (!masked.get(row)) {
+                    facets.countPrice(columns.prices.get(row), 1);
+                }
+            }
+        }
+
+        for (Row row : delta.values()) {
+            if (row.matchesPrice(query)) {
+                facets.countCategory(row.category, 1);
+            }
+            if (row.matchesCategory(query)) {
+                facets.countPrice(row.price, 1);
+            }
+        }
+    }
+
+    private static BitSet intersect(BitSet left, BitSet right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        BitSet both = (BitSet) left.clone();
+        both.and(right);
+        return both;
+    }
+
+    private BitSet maskRow(String productId) {
+        int row = columns.rowOf(productId);
+        if (row < 0 || masked.get(row)) {
+            return masked;
+        }
+        BitSet newMasked = (BitSet) masked.clone();
+        newMasked.set(row);
+        return newMasked;
+    }
+
+    // The immutable column store, shared by every catalog derived from the same build or compaction.
+    // All columns live in one buffer laid out exactly like the snapshot file (see writeTo), so a built catalog
+    // and one opened from a memory-mapped snapshot are the same thing. Little-endian, sections 8-byte aligned:
+    //   header   long magic, int format version, int rowCount, int dictionary size, int id bytes, long reserved
+    //   prices          double[rowCount]   per row
+    //   sortedPrices    double[rowCount]   ascending
+    //   priceOrder      int[rowCount]      row of each sortedPrices entry
+    //   categoryCodes   int[rowCount]      per row, -1 for none
+    //   idOffsets       int[rowCount + 1]  into idBytes
+    //   idBytes         UTF-8 ids, ascending
+    //   dictionary      (int length, UTF-8 bytes) per category
+    private static final class Columns {
+
+        private static final long MAGIC = 0x43524654434F4C53L; // "CRFTCOLS"
+        private static final int FORMAT_VERSION = 1;
+        private static final int HEADER_BYTES = 32;
+
+        private final ByteBuffer data;
+        private final int rowCount;
+        private final DoubleBuffer prices;
+        private final DoubleBuffer sortedPrices;
+        private final IntBuffer priceOrder;
+        private final IntBuffer categoryCodes;
+        private final IntBuffer idOffsets;
+        private final ByteBuffer idBytes;
+        private final String[] dictionary;
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final BitSet[] rowsByCategory;
+
+        private Columns(ByteBuffer data) {
+            this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.capacity() < HEADER_BYTES || data.getLong(0) != MAGIC) {
+                throw new IllegalArgumentException("Not a columnar catalog snapshot");
+            }
+            if (data.getInt(8) != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported columnar catalog format " + data.getInt(8));
+            }
+            rowCount = data.getInt(12);
+            int dictionarySize = data.getInt(16);
+            int idByteCount = data.getInt(20);
+            int offset = HEADER_BYTES;
+            prices = section(offset, rowCount * Double.BYTES).asDoubleBuffer();
+            offset = align(offset + rowCount * Double.BYTES);
+            sortedPrices = section(offset, rowCount * Double.BYTES).asDoubleBuffer();
+            offset = align(offset + rowCount * Double.BYTES);
+            priceOrder = section(offset, rowCount * Integer.BYTES).asIntBuffer();
+            offset = align(offset + rowCount * Integer.BYTES);
+            categoryCodes = section(offset, rowCount * Integer.BYTES).asIntBuffer();
+            offset = align(offset + rowCount * Integer.BYTES);
+            idOffsets = section(offset, (rowCount + 1) * Integer.BYTES).asIntBuffer();
+            offset = align(offset + (rowCount + 1) * Integer.BYTES);
+            idBytes = section(offset, idByteCount);
+            offset = align(offset + idByteCount);
+
+            dictionary = new String[dictionarySize];
+            for (int code = 0; code < dictionarySize; code++) {
+                int length = data.getInt(offset);
+                byte[] bytes = new byte[length];
+                data.get(offset + Integer.BYTES, bytes);
+                dictionary[code] = new String(bytes, StandardCharsets.UTF_8);
+                codes.put(dictionary[code], code);
+                offset += Integer.BYTES + length;
+            }
+            // The per-category bitsets are cheap to derive, so they are rebuilt rather than stored.
+            rowsByCategory = new BitSet[dictionarySize];
+            for (int code = 0; code < dictionarySize; code++) {
+                rowsByCategory[code] = new BitSet(rowCount);
+            }
+            for (int row = 0; row < rowCount; row++) {
+                int code = categoryCodes.get(row);
+                if (code != NO_CATEGORY) {
+                    rowsByCategory[code].set(row);
+                }
+            }
+        }
+
+        private static Columns of(List<Row> rows) {
+            rows.sort(Comparator.comparing((Row row) -> row.id));
+            int rowCount = rows.size();
+            Map<String, Integer> codes = new HashMap<>();
+            List<byte[]> categories = new ArrayList<>();
+            int[] rowCodes = new int[rowCount];
+            byte[][] ids = new byte[rowCount][];
+            int idByteCount = 0;
+            int dictionaryBytes = 0;
+            for (int row = 0; row < rowCount; row++) {
+                Row source = rows.get(row);
+                ids[row] = source.id.getBytes(StandardCharsets.UTF_8);
+                idByteCount += ids[row].length;
+                rowCodes[row] = NO_CATEGORY;
+                if (source.category != null) {
+                    Integer code = codes.get(source.category);
+                    if (code == null) {
+                        code = categories.size();
+                        codes.put(source.category, code);
+                        categories.add(source.category.getBytes(StandardCharsets.UTF_8));
+                        dictionaryBytes += Integer.BYTES + categories.get(code).length;
+                    }
+                    rowCodes[row] = code;
+                }
+            }
+            int[] order = sortedByPrice(rows);
+
+            int size = HEADER_BYTES + 2 * align(rowCount * Double.BYTES) + 2 * align(rowCount * Integer.BYTES)
+                    + align((rowCount + 1) * Integer.BYTES) + align(idByteCount) + dictionaryBytes;
+            ByteBuffer data = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            data.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(rowCount).putInt(categories.size()).putInt(idByteCount).putLong(0);
+            for (Row row : rows) {
+                data.putDouble(row.price);
+            }
+            data.position(align(data.position()));
+            for (int i = 0; i < rowCount; i++) {
+                data.putDouble(rows.get(order[i]).price);
+            }
+            data.position(align(data.position()));
+            for (int i = 0; i < rowCount; i++) {
+                data.putInt(order[i]);
+            }
+            data.position(align(data.position()));
+            for (int row = 0; row < rowCount; row++) {
+                data.putInt(rowCodes[row]);
+            }
+            data.position(align(data.position()));
+            int idOffset = 0;
+            for (int row = 0; row < rowCount; row++) {
+                data.putInt(idOffset);
+                idOffset += ids[row].length;
+            }
+            data.putInt(idOffset);
+            data.position(align(data.position()));
+            for (byte[] id : ids) {
+                data.put(id);
+            }
+            data.position(align(data.position()));
+            for (byte[] category : categories) {
+                data.putInt(category.length).put(category);
+            }
+            return new Columns(data.clear());
+        }
+
+        // Rows by ascending price, ties in row (i.e. id) order.
+        private static int[] sortedByPrice(List<Row> rows) {
+            Integer[] order = new Integer[rows.size()];
+            for (int row = 0; row < order.length; row++) {
+                order[row] = row;
+            }
+            Arrays.sort(order, Comparator.comparingDouble(row -> rows.get(row).price));
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = order[i];
+            }
+            return sorted;
+        }
+
+        private static int align(int offset) {
+            return (offset + 7) & ~7;
+        }
+
+        private ByteBuffer section(int offset, int length) {
+            return data.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void writeTo(FileChannel channel) throws IOException {
+            ByteBuffer source = data.duplicate().clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        private String id(int row) {
+            int start = idOffsets.get(row);
+            byte[] bytes = new byte[idOffsets.get(row + 1) - start];
+            idBytes.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int rowAt(int position, boolean byPrice) {
+            return byPrice ? priceOrder.get(position) : position;
+        }
+
+        private double sortValue(int row, boolean byPrice) {
+            return byPrice ? prices.get(row) : 0;
+        }
+
+        private Row row(int row) {
+            int code = categoryCodes.get(row);
+            return new Row(id(row), code == NO_CATEGORY ? null : dictionary[code], prices.get(row));
+        }
+
+        // Row of the id, or a negative value when it is not in the columns.
+        private int rowOf(String id) {
+            int lo = 0;
+            int hi = rowCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int comparison = id(mid).compareTo(id);
+                if (comparison < 0) {
+                    lo = mid + 1;
+                } else if (comparison > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        // Rows priced within [min, max], or null when the range is unbounded.
+        private BitSet priceRange(Double min, Double max) {
+            if (min == null && max == null) {
+                return null;
+            }
+            int from = min == null ? 0 : firstPriceAtLeast(min);
+            int to = max == null ? rowCount : firstPriceAbove(max);
+            BitSet rows = new BitSet(rowCount);
+            for (int i = from; i < to; i++) {
+                rows.set(priceOrder.get(i));
+            }
+            return rows;
+        }
+
+        // Rows in the category, or null when there is no category filter.
+        private BitSet categoryRows(String category) {
+            if (category == null) {
+                return null;
+            }
+            Integer code = codes.get(category);
+            return code == null ? new BitSet() : rowsByCategory[code];
+        }
+
+        private int firstPriceAtLeast(double price) {
+            int lo = 0;
+            int hi = rowCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortedPrices.get(mid) < price) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int firstPriceAbove(double price) {
+            int lo = 0;
+            int hi = rowCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortedPrices.get(mid) <= price) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static final class Row {
+
+        private final String id;
+        private final String category;
+        private final double price;
+
+        private Row(String id, String category, double price) {
+            this.id = id;
+            this.category = category;
+            this.price = price;
+        }
+
+        private static Row of(Product product) {
+            return new Row(product.getId(), product.getCategory(), product.getPrice());
+        }
+
+        private double sortValue(boolean byPrice) {
+            return byPrice ? price : 0;
+        }
+
+        private boolean matchesCategory(IndexQuery query) {
+            return query.getCategory() == null || query.getCategory().equals(category);
+        }
+
+        private boolean matchesPrice(IndexQuery query) {
+            return (query.getMinPrice() == null || price >= query.getMinPrice())
+                    && (query.getMaxPrice() == null || price <= query.getMaxPrice());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.productsearchservice.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Accumulates facet counts while InvertedIndex scans the matches of a query, so facets cost no extra pass.
+// Price buckets are [boundaries[i], boundaries[i + 1]) with the last one open-ended; prices below the first
+// boundary are not counted. Values of the requested details keys are counted as well.
+public class FacetCounts {
+
+    private final double[] boundaries;
+    private final long[] bucketCounts;
+    private final Map<String, long[]> categoryCounts = new HashMap<>();
+    private final Set<String> detailKeys;
+    private final Map<String, Map<String, Long>> detailCounts = new HashMap<>();
+
+    public FacetCounts(double[] boundaries) {
+        this(boundaries, List.of());
+    }
+
+    public FacetCounts(double[] boundaries, Collection<String> detailKeys) {
+        for (int i = 1; i < boundaries.length; i++) {
+            if (boundaries[i] <= boundaries[i - 1]) {
+                throw new IllegalArgumentException("Price bucket boundaries must be strictly ascending");
+            }
+        }
+        this.boundaries = boundaries.clone();
+        this.bucketCounts = new long[boundaries.length];
+        this.detailKeys = new LinkedHashSet<>(detailKeys);
+    }
+
+    public void countCategory(String category, long count) {
+        if (category != null) {
+            categoryCounts.computeIfAbsent(category, key -> new long[1])[0] += count;
+        }
+    }
+
+    public void countPrice(double price, long count) {
+        int position = Arrays.binarySearch(boundaries, price);
+        int bucket = position >= 0 ? position : -position - 2;
+        if (bucket >= 0) {
+            bucketCounts[bucket] += count;
+        }
+    }
+
+    public void countDetail(String key, String value, long count) {
+        if (detailKeys.contains(key) && value != null) {
+            detailCounts.computeIfAbsent(key, k -> new HashMap<>()).merge(value, count, Long::sum);
+        }
+    }
+
+    // A zeroed instance counting the same buckets and keys, for a part of the matches to be added back with addAll.
+    FacetCounts emptyCopy() {
+        return new FacetCounts(boundaries, detailKeys);
+    }
+
+    // Adds the counts of another instance with the same boundaries and keys.
+    void addAll(FacetCounts other) {
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] += other.bucketCounts[i];
+        }
+        other.categoryCounts.forEach((category, count) -> countCategory(category, count[0]));
+        other.detailCounts.forEach((key, values) -> values.forEach((value, count) -> countDetail(key, value, count)));
+    }
+
+    public Set<String> getDetailKeys() {
+        return detailKeys;
+    }
+
+    public Map<String, Long> getCategoryCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        categoryCounts.forEach((category, count) -> counts.put(category, count[0]));
+        return counts;
+    }
+
+    // Every requested key is present, with an empty map when no match has it.
+    public Map<String, Map<String, Long>> getDetailCounts() {
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        for (String key : detailKeys) {
+            counts.put(key, new HashMap<>(detailCounts.getOrDefault(key, Map.of())));
+        }
+        return counts;
+    }
+
+    public double[] getBoundaries() {
+        return boundaries.clone();
+    }
+
+    public long[] getBucketCounts() {
+        return bucketCounts.clone();
+    }
+}
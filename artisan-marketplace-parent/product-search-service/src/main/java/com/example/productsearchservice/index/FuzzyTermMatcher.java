@@ -0,0 +1,123 @@
+package com.example.productsearchservice.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finds dictionary terms within a small edit distance of a misspelled query term.
+// Terms are indexed by their character trigrams (padded with '$' so word edges count); candidates are the terms
+// sharing enough trigrams with the query term to possibly be within the distance (one edit changes at most three
+// trigrams), and only those are checked with a bounded edit distance. Work stops at the caller's deadline.
+final class FuzzyTermMatcher {
+
+    // Terms this short have too few trigrams to filter on and too many neighbours to be useful.
+    private static final int MIN_TERM_LENGTH = 4;
+    static final int MAX_EXPANSIONS = 4;
+
+    private final Map<String, List<String>> termsByTrigram = new HashMap<>();
+
+    void add(String term) {
+        if (term.length() < MIN_TERM_LENGTH - 1) {
+            return;
+        }
+        for (String trigram : trigrams(term)) {
+            termsByTrigram.computeIfAbsent(trigram, key -> new ArrayList<>()).add(term);
+        }
+    }
+
+    void clear() {
+        termsByTrigram.clear();
+    }
+
+    // Typos allowed for a term of this length: none below 4 characters, one up to 7, two beyond.
+    static int maxDistance(String term) {
+        if (term.length() < MIN_TERM_LENGTH) {
+            return 0;
+        }
+        return term.length() <= 7 ? 1 : 2;
+    }
+
+    // Up to MAX_EXPANSIONS terms within maxDistance(term), closest first. Returns what was found so far if the
+    // deadline (System.nanoTime based) passes.
+    List<Match> match(String term, long deadline) {
+        int maxDistance = maxDistance(term);
+        List<Match> matches = new ArrayList<>();
+        if (maxDistance == 0) {
+            return matches;
+        }
+        List<String> grams = trigrams(term);
+        Map<String, int[]> shared = new HashMap<>();
+        for (String trigram : grams) {
+            for (String candidate : termsByTrigram.getOrDefault(trigram, List.of())) {
+                if (Math.abs(candidate.length() - term.length()) <= maxDistance) {
+                    shared.computeIfAbsent(candidate, key -> new int[1])[0]++;
+                }
+            }
+            if (System.nanoTime() - deadline > 0) {
+                return matches;
+            }
+        }
+        int minShared = grams.size() - 3 * maxDistance;
+        int checked = 0;
+        for (Map.Entry<String, int[]> candidate : shared.entrySet()) {
+            if (candidate.getValue()[0] < minShared) {
+                continue;
+            }
+            int distance = distance(term, candidate.getKey(), maxDistance);
+            if (distance <= maxDistance) {
+                matches.add(new Match(candidate.getKey(), distance));
+            }
+            if (++checked % 64 == 0 && System.nanoTime() - deadline > 0) {
+                break;
+            }
+        }
+        matches.sort(Comparator.comparingInt(Match::distance).thenComparing(Match::term));
+        return matches.size() > MAX_EXPANSIONS ? new ArrayList<>(matches.subList(0, MAX_EXPANSIONS)) : matches;
+    }
+
+    private static List<String> trigrams(String term) {
+        String padded = "$" + term + "$";
+        List<String> grams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    // Optimal string alignment distance (adjacent transpositions count as one edit), giving up with
+    // maxDistance + 1 as soon as every alignment in a row exceeds the bound.
+    static int distance(String a, String b, int maxDistance) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], maxDistance + 1);
+    }
+
+    record Match(String term, int distance) {
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.productsearchservice.index;
+
+import lombok.Data;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// A search against InvertedIndex: text and filters, plus the keyset window (results strictly after
+// (afterValue, afterId) in sort order, at most limit of them).
+@Data
+public class IndexQuery {
+    private String text;
+    private String category;
+    private Double minPrice;
+    private Double maxPrice;
+    // details key -> accepted values; a product must have one of the values for every key.
+    private Map<String, List<String>> details;
+    // Expand terms that match nothing to near spellings, spending at most fuzzyBudgetNanos on finding them.
+    private boolean fuzzy;
+    private long fuzzyBudgetNanos;
+    // Set by the search to the query terms that matched nothing and were looked up as near spellings.
+    private Set<String> expandedTerms = new LinkedHashSet<>();
+    private SortOrder sort; // RELEVANCE when null
+    private int limit;
+    private Double afterValue; // the sort value of the last hit already returned, see SortOrder.valueOf
+    private long afterPopularity;
+    private String afterId;
+    // When set, filled with facet counts over all matches (not just the returned window).
+    private FacetCounts facets;
+    // System.nanoTime() after which the search stops scanning and returns the best hits found so far; 0 for none.
+    private long deadlineNanos;
+    // Set by the search when the deadline cut it short: hits and facets then only cover the documents scanned.
+    private boolean partial;
+}
@@ -0,0 +1,581 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over product name, description and category, ranked with BM25, plus a bitmap
+// index over details for attribute filters and facets. Query terms that match nothing can be expanded to
+// dictionary terms within a small edit distance (typo tolerance).
+// Every product gets an int ordinal; postings, document lengths and the document store are all addressed by it.
+// Updates never rewrite postings: the old ordinal is tombstoned and the product is appended under a new one.
+// Large searches are split into segments (ranges of ordinals) searched in parallel, see search().
+// The same postings serve "more like this" queries over TF-IDF vectors, see similar().
+public class InvertedIndex {
+
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+    // Name terms are counted twice, a cheap field boost so a match in the name outranks one in the description.
+    private static final int NAME_WEIGHT = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Once more than half of the ordinals are tombstones the index is rewritten from its live documents.
+    private static final int COMPACTION_MIN_DOCS = 4096;
+    // A product's strongest terms used to find similar ones; weaker terms only contribute to its vector norm.
+    static final int SIMILARITY_TERMS = 25;
+    // Cached vector norms are recomputed once the catalog size drifts this much from when they were computed.
+    private static final double NORM_DRIFT = 0.1;
+
+    private final ForkJoinPool searchPool; // null when every search runs on the calling thread
+    private final int segmentSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final FuzzyTermMatcher fuzzyTerms = new FuzzyTermMatcher();
+    private final AttributeIndex attributes = new AttributeIndex();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private Product[] documents = new Product[INITIAL_CAPACITY];
+    private int[] docLengths = new int[INITIAL_CAPACITY];
+    // TF-IDF vector norm per ordinal, computed on first use by similar(); NaN until then.
+    private float[] docNorms = newNorms(INITIAL_CAPACITY);
+    private int normsLiveDocs;
+    private int maxDoc;
+    private int liveDocs;
+    private long liveLength;
+
+    public InvertedIndex() {
+        this(null, Integer.MAX_VALUE);
+    }
+
+    // Searches over more than segmentSize postings (or documents, without query text) are split into ordinal ranges of
+    // that size, collected on searchPool with a bounded top-K each and merged; smaller ones stay on the calling thread.
+    public InvertedIndex(ForkJoinPool searchPool, int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.searchPool = searchPool;
+        this.segmentSize = segmentSize;
+    }
+
+    public void upsert(Product product) {
+        Objects.requireNonNull(product.getId(), "Product id is required for indexing");
+        lock.writeLock().lock();
+        try {
+            Integer existing = ordinals.get(product.getId());
+            if (existing != null) {
+                if (product.getPopularity() == 0) {
+                    // Changes arrive as read from products, which does not count popularity; keep the indexed count.
+                    product.setPopularity(documents[existing].getPopularity());
+                }
+                delete(existing);
+            }
+            insert(product);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = ordinals.remove(productId);
+            if (existing == null) {
+                return false;
+            }
+            delete(existing);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Product get(String productId) {
+        lock.readLock().lock();
+        try {
+            Integer doc = ordinals.get(productId);
+            return doc == null ? null : documents[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The current version of every indexed product, in ordinal order; used to snapshot the index.
+    public List<Product> liveDocuments() {
+        lock.readLock().lock();
+        try {
+            List<Product> live = new ArrayList<>(liveDocs);
+            for (int doc = deleted.nextClearBit(0); doc < maxDoc; doc = deleted.nextClearBit(doc + 1)) {
+                live.add(documents[doc]);
+            }
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Whether a fuzzy search for queryTerm, were it to match nothing, could be expanded to term.
+    public static boolean isNearSpelling(String queryTerm, String term) {
+        int maxDistance = FuzzyTermMatcher.maxDistance(queryTerm);
+        return maxDistance > 0 && FuzzyTermMatcher.distance(queryTerm, term, maxDistance) <= maxDistance;
+    }
+
+    // Any-term match, like TextCriteria.matchingAny, ordered by the query's SortOrder (by default descending BM25
+    // score, ties by product id). Without query text every product passing the filters matches with a score of 0.
+    // Only the page after the query's cursor is materialized, so memory is bounded by the limit, not the match count.
+    // A search still scanning at the query's deadline stops there and marks the query partial.
+    public List<SearchHit> search(IndexQuery query) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap attributeFilter = attributes.matching(query.getDetails(), null);
+            Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query.getText()));
+            if (terms.isEmpty()) {
+                // The attribute bitmaps only hold live documents, so they can stand in for the full scan
+                // unless attribute facets need every document passing the other filters.
+                boolean detailFacets = query.getFacets() != null && !query.getFacets().getDetailKeys().isEmpty();
+                if (attributeFilter != null && !detailFacets) {
+                    return searchSegments(query, attributeFilter, attributeFilter.getLongCardinality(),
+                            (collector, from, to) -> {
+                                PeekableIntIterator docs = attributeFilter.getIntIterator();
+                                docs.advanceIfNeeded(from);
+                                while (docs.hasNext() && docs.peekNext() < to && !collector.pastDeadline()) {
+                                    collector.offer(docs.next(), 0f);
+                                }
+                            });
+                }
+                return searchSegments(query, attributeFilter, liveDocs, (collector, from, to) -> {
+                    for (int doc = deleted.nextClearBit(from); doc < to && !collector.pastDeadline();
+                         doc = deleted.nextClearBit(doc + 1)) {
+                        collector.offer(doc, 0f);
+                    }
+                });
+            }
+
+            // Room for every term plus its fuzzy expansions.
+            int capacity = terms.size() * (1 + FuzzyTermMatcher.MAX_EXPANSIONS);
+            PostingList[] lists = new PostingList[capacity];
+            float[] idfs = new float[capacity];
+            int termCount = 0;
+            long deadline = System.nanoTime() + query.getFuzzyBudgetNanos();
+            if (query.getDeadlineNanos() != 0 && deadline - query.getDeadlineNanos() > 0) {
+                deadline = query.getDeadlineNanos();
+            }
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list != null && list.liveCount() > 0) {
+                    lists[termCount] = list;
+                    idfs[termCount] = idf(list.liveCount());
+                    termCount++;
+                } else if (query.isFuzzy()) {
+                    // Only terms matching nothing are expanded, and their expansions are down-weighted by distance,
+                    // so exact matches keep ranking first.
+                    query.getExpandedTerms().add(term);
+                    for (FuzzyTermMatcher.Match match : fuzzyTerms.match(term, deadline)) {
+                        PostingList expansion = postings.get(match.term());
+                        if (expansion.liveCount() > 0) {
+                            lists[termCount] = expansion;
+                            idfs[termCount] = idf(expansion.liveCount()) / (1 + match.distance());
+                            termCount++;
+                        }
+                    }
+                }
+            }
+            long postingCount = 0;
+            for (int t = 0; t < termCount; t++) {
+                postingCount += lists[t].size();
+            }
+            int matchedTerms = termCount;
+            float avgDocLength = liveDocs == 0 ? 1f : (float) liveLength / liveDocs;
+            return searchSegments(query, attributeFilter, postingCount,
+                    (collector, from, to) -> collect(lists, idfs, matchedTerms, avgDocLength, collector, from, to));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Runs a search over the ordinals in segments. Term statistics are global, so scores do not depend on the split.
+    // Below segmentSize units of work the whole range is one segment on the calling thread; otherwise all segments but
+    // the first go to the pool, the calling thread takes the first, and the per-segment top hits and facets are merged.
+    // The calling thread holds the read lock throughout, so the segments see a stable index.
+    private List<SearchHit> searchSegments(IndexQuery query, RoaringBitmap attributeFilter, long work, Segment segment) {
+        Collector result = new Collector(query, attributeFilter, query.getFacets());
+        if (searchPool == null || work <= segmentSize || maxDoc <= segmentSize) {
+            segment.collect(result, 0, maxDoc);
+            return result.finish();
+        }
+        List<ForkJoinTask<Collector>> forked = new ArrayList<>();
+        for (long from = segmentSize; from < maxDoc; from += segmentSize) {
+            int start = (int) from;
+            int end = (int) Math.min(maxDoc, from + segmentSize);
+            forked.add(searchPool.submit(() -> {
+                Collector part = new Collector(query, attributeFilter,
+                        query.getFacets() == null ? null : query.getFacets().emptyCopy());
+                segment.collect(part, start, end);
+                return part;
+            }));
+        }
+        try {
+            segment.collect(result, 0, segmentSize);
+            for (ForkJoinTask<Collector> part : forked) {
+                result.merge(part.join());
+            }
+        } catch (RuntimeException e) {
+            forked.forEach(ForkJoinTask::quietlyJoin); // never leave a segment running once the read lock is released
+            throw e;
+        }
+        return result.finish();
+    }
+
+    // Document-at-a-time merge of the posting lists over the ordinals [from, to): memory is proportional to the
+    // number of query terms, not to the catalog size, and each matching document is scored exactly once.
+    private void collect(PostingList[] lists, float[] idfs, int termCount, float avgDocLength,
+                         Collector collector, int from, int to) {
+        int[] cursors = new int[termCount];
+        for (int t = 0; t < termCount; t++) {
+            cursors[t] = lists[t].lowerBound(from);
+        }
+        while (!collector.pastDeadline()) {
+            int doc = to;
+            for (int t = 0; t < termCount; t++) {
+                if (cursors[t] < lists[t].size()) {
+                    doc = Math.min(doc, lists[t].doc(cursors[t]));
+                }
+            }
+            if (doc == to) {
+                return;
+            }
+            float score = 0f;
+            for (int t = 0; t < termCount; t++) {
+                PostingList list = lists[t];
+                if (cursors[t] < list.size() && list.doc(cursors[t]) == doc) {
+                    score += idfs[t] * termScore(list.freq(cursors[t]), docLengths[doc], avgDocLength);
+                    cursors[t]++;
+                }
+            }
+            if (!deleted.get(doc)) {
+                collector.offer(doc, score);
+            }
+        }
+    }
+
+    // "More like this": the products whose TF-IDF vectors, with weights (1 + ln tf) * idf over name (counted twice),
+    // description and category, have the highest cosine similarity with the given product's, best first, scored by
+    // that cosine. The product's strongest terms (at most SIMILARITY_TERMS; terms found in no other product or in
+    // more than half of the catalog are skipped) select the candidates through their posting lists, which are merged
+    // document-at-a-time like a search, so only products sharing one of those terms are scored.
+    // Returns null when the product is not indexed.
+    public List<SearchHit> similar(String productId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer source = ordinals.get(productId);
+            if (source == null) {
+                return null;
+            }
+            Map<String, Integer> frequencies = termFrequencies(documents[source]);
+            List<String> terms = new ArrayList<>(frequencies.size());
+            Map<String, Float> weights = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                int docFrequency = postings.get(entry.getKey()).liveCount();
+                weights.put(entry.getKey(), tfWeight(entry.getValue()) * idf(docFrequency));
+                if (docFrequency > 1 && docFrequency <= liveDocs / 2) {
+                    terms.add(entry.getKey());
+                }
+            }
+            terms.sort((left, right) -> Float.compare(weights.get(right), weights.get(left)));
+            int termCount = Math.min(terms.size(), SIMILARITY_TERMS);
+            PostingList[] lists = new PostingList[termCount];
+            // A candidate's weight for a term is tfWeight(freq) * idf, so each list carries the source weight * idf.
+            float[] factors = new float[termCount];
+            for (int t = 0; t < termCount; t++) {
+                lists[t] = postings.get(terms.get(t));
+                factors[t] = weights.get(terms.get(t)) * idf(lists[t].liveCount());
+            }
+            float sourceNorm = norm(source);
+            TopHits top = new TopHits(limit, SortOrder.RELEVANCE);
+            int[] cursors = new int[termCount];
+            while (true) {
+                int doc = Integer.MAX_VALUE;
+                for (int t = 0; t < termCount; t++) {
+                    if (cursors[t] < lists[t].size()) {
+                        doc = Math.min(doc, lists[t].doc(cursors[t]));
+                    }
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    break;
+                }
+                float dot = 0f;
+                for (int t = 0; t < termCount; t++) {
+                    PostingList list = lists[t];
+                    if (cursors[t] < list.size() && list.doc(cursors[t]) == doc) {
+                        dot += factors[t] * tfWeight(list.freq(cursors[t]));
+                        cursors[t]++;
+                    }
+                }
+                if (doc != source && !deleted.get(doc)) {
+                    top.offer(documents[doc], dot / (sourceNorm * norm(doc)));
+                }
+            }
+            return top.toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Concurrent readers may both compute a missing norm; they store the same value.
+    private float norm(int doc) {
+        float norm = docNorms[doc];
+        if (Float.isNaN(norm)) {
+            double sum = 0;
+            for (Map.Entry<String, Integer> entry : termFrequencies(documents[doc]).entrySet()) {
+                double weight = tfWeight(entry.getValue()) * idf(postings.get(entry.getKey()).liveCount());
+                sum += weight * weight;
+            }
+            norm = sum == 0 ? 1f : (float) Math.sqrt(sum);
+            docNorms[doc] = norm;
+        }
+        return norm;
+    }
+
+    private static float tfWeight(int freq) {
+        return 1f + (float) Math.log(freq);
+    }
+
+    // Norms depend on IDF, so they are dropped (under the write lock) once the catalog has grown or shrunk enough.
+    private void expireNormsIfDrifted() {
+        if (Math.abs(liveDocs - normsLiveDocs) > NORM_DRIFT * Math.max(normsLiveDocs, 1)) {
+            Arrays.fill(docNorms, 0, maxDoc, Float.NaN);
+            normsLiveDocs = liveDocs;
+        }
+    }
+
+    private static float[] newNorms(int capacity) {
+        float[] norms = new float[capacity];
+        Arrays.fill(norms, Float.NaN);
+        return norms;
+    }
+
+    private float idf(int docFrequency) {
+        return (float) Math.log(1 + (liveDocs - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+
+    private static float termScore(int freq, int docLength, float avgDocLength) {
+        return freq * (K1 + 1) / (freq + K1 * (1 - B + B * docLength / avgDocLength));
+    }
+
+    static SortOrder sortOf(IndexQuery query) {
+        return query.getSort() == null ? SortOrder.RELEVANCE : query.getSort();
+    }
+
+    private static boolean matchesCategory(Product product, IndexQuery query) {
+        return query.getCategory() == null || query.getCategory().equals(product.getCategory());
+    }
+
+    private static boolean matchesPrice(Product product, IndexQuery query) {
+        if (query.getMinPrice() != null && product.getPrice() < query.getMinPrice()) {
+            return false;
+        }
+        return query.getMaxPrice() == null || product.getPrice() <= query.getMaxPrice();
+    }
+
+    private void insert(Product product) {
+        Map<String, Integer> termFrequencies = termFrequencies(product);
+        int doc = maxDoc++;
+        ensureCapacity(maxDoc);
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+            PostingList list = postings.get(entry.getKey());
+            if (list == null) {
+                list = new PostingList();
+                postings.put(entry.getKey(), list);
+                fuzzyTerms.add(entry.getKey());
+            }
+            list.add(doc, entry.getValue());
+            length += entry.getValue();
+        }
+        documents[doc] = product;
+        docLengths[doc] = length;
+        docNorms[doc] = Float.NaN;
+        attributes.add(doc, product.getDetails());
+        ordinals.put(product.getId(), doc);
+        liveDocs++;
+        liveLength += length;
+        expireNormsIfDrifted();
+    }
+
+    private void compactIfNeeded() {
+        if (maxDoc >= COMPACTION_MIN_DOCS && maxDoc - liveDocs > liveDocs) {
+            compact();
+        }
+    }
+
+    // Reassigns dense ordinals so tombstoned entries stop costing memory and merge time.
+    // Relative order of live documents is preserved.
+    private void compact() {
+        List<Product> live = new ArrayList<>(liveDocs);
+        for (int doc = deleted.nextClearBit(0); doc < maxDoc; doc = deleted.nextClearBit(doc + 1)) {
+            live.add(documents[doc]);
+        }
+        postings.clear();
+        fuzzyTerms.clear();
+        attributes.clear();
+        ordinals.clear();
+        deleted.clear();
+        documents = new Product[Math.max(INITIAL_CAPACITY, live.size())];
+        docLengths = new int[documents.length];
+        docNorms = newNorms(documents.length);
+        maxDoc = 0;
+        liveDocs = 0;
+        liveLength = 0;
+        live.forEach(this::insert);
+    }
+
+    private void delete(int doc) {
+        for (String term : termFrequencies(documents[doc]).keySet()) {
+            postings.get(term).markDeleted();
+        }
+        attributes.remove(doc, documents[doc].getDetails());
+        deleted.set(doc);
+        liveDocs--;
+        liveLength -= docLengths[doc];
+        documents[doc] = null;
+        expireNormsIfDrifted();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > documents.length) {
+            int oldCapacity = documents.length;
+            int newCapacity = Math.max(capacity, oldCapacity * 2);
+            documents = Arrays.copyOf(documents, newCapacity);
+            docLengths = Arrays.copyOf(docLengths, newCapacity);
+            docNorms = Arrays.copyOf(docNorms, newCapacity);
+            Arrays.fill(docNorms, oldCapacity, newCapacity, Float.NaN);
+        }
+    }
+
+    private interface Segment {
+        void collect(Collector collector, int from, int to);
+    }
+
+    // Per-search (or per-segment) state: the page being selected, the attribute filter and the facet counts.
+    private final class Collector {
+
+        // The clock is read once per this many documents, keeping the deadline check off the per-document cost.
+        private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+        private final IndexQuery query;
+        private final SortOrder sort;
+        private final TopHits top;
+        private final FacetCounts facets;
+        private final RoaringBitmap attributeFilter;
+        // Matches of everything but the attribute filters, kept only when attribute facets are requested.
+        private final RoaringBitmap candidates;
+        private int untilDeadlineCheck = DEADLINE_CHECK_INTERVAL;
+        private boolean expired;
+
+        private Collector(IndexQuery query, RoaringBitmap attributeFilter, FacetCounts facets) {
+            this.query = query;
+            this.sort = sortOf(query);
+            this.top = new TopHits(query.getLimit(), sort);
+            this.facets = facets;
+            this.attributeFilter = attributeFilter;
+            this.candidates = facets != null && !facets.getDetailKeys().isEmpty() ? new RoaringBitmap() : null;
+        }
+
+        private void offer(int doc, float score) {
+            Product product = documents[doc];
+            boolean categoryMatches = matchesCategory(product, query);
+            boolean priceMatches = matchesPrice(product, query);
+            boolean attributesMatch = attributeFilter == null || attributeFilter.contains(doc);
+            if (facets != null) {
+                // Each facet is counted with every filter applied except its own.
+                if (priceMatches && attributesMatch) {
+                    facets.countCategory(product.getCategory(), 1);
+                }
+                if (categoryMatches && attributesMatch) {
+                    facets.countPrice(product.getPrice(), 1);
+                }
+                if (candidates != null && categoryMatches && priceMatches) {
+                    candidates.add(doc);
+                }
+            }
+            if (!categoryMatches || !priceMatches || !attributesMatch) {
+                return;
+            }
+            if (query.getAfterId() != null
+                    && sort.compare(query.getAfterValue(), query.getAfterPopularity(), query.getAfterId(),
+                    sort.valueOf(product, score), product.getPopularity(), product.getId()) >= 0) {
+                return;
+            }
+            top.offer(product, score);
+        }
+
+        private boolean pastDeadline() {
+            if (!expired && query.getDeadlineNanos() != 0 && --untilDeadlineCheck == 0) {
+                untilDeadlineCheck = DEADLINE_CHECK_INTERVAL;
+                expired = System.nanoTime() - query.getDeadlineNanos() > 0;
+            }
+            return expired;
+        }
+
+        private void merge(Collector segment) {
+            expired |= segment.expired;
+            top.offerAll(segment.top);
+            if (facets != null) {
+                facets.addAll(segment.facets);
+            }
+            if (candidates != null) {
+                candidates.or(segment.candidates);
+            }
+        }
+
+        private List<SearchHit> finish() {
+            if (candidates != null) {
+                for (String key : facets.getDetailKeys()) {
+                    RoaringBitmap others = attributes.matching(query.getDetails(), key);
+                    attributes.countValues(key, others == null ? candidates : RoaringBitmap.and(candidates, others), facets);
+                }
+            }
+            if (expired) {
+                query.setPartial(true);
+            }
+            return top.toSortedList();
+        }
+    }
+
+    static Map<String, Integer> termFrequencies(Product product) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : Tokenizer.tokenize(product.getName())) {
+            frequencies.merge(term, NAME_WEIGHT, Integer::sum);
+        }
+        for (String term : Tokenizer.tokenize(product.getDescription())) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        for (String term : Tokenizer.tokenize(product.getCategory())) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.productsearchservice.index;
+
+import java.util.Arrays;
+
+// Postings for a single term, kept in two parallel primitive arrays so a list costs
+// 8 bytes per entry instead of a boxed object per document.
+// Document ordinals are appended in increasing order, which lets queries merge lists without sorting.
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] docs = new int[INITIAL_CAPACITY];
+    private int[] freqs = new int[INITIAL_CAPACITY];
+    private int size;
+    // Number of entries whose document has not been deleted; this is the document frequency used for IDF.
+    private int liveCount;
+
+    void add(int doc, int freq) {
+        if (size == docs.length) {
+            int capacity = docs.length + (docs.length >> 1) + 1;
+            docs = Arrays.copyOf(docs, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+        }
+        docs[size] = doc;
+        freqs[size] = freq;
+        size++;
+        liveCount++;
+    }
+
+    void markDeleted() {
+        liveCount--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int liveCount() {
+        return liveCount;
+    }
+
+    // Position of the first entry whose document is at least doc (size() when there is none).
+    int lowerBound(int doc) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (docs[middle] < doc) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int doc(int index) {
+        return docs[index];
+    }
+
+    int freq(int index) {
+        return freqs[index];
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+
+public final class SearchHit {
+
+    private final Product product;
+    private final float score;
+
+    public SearchHit(Product product, float score) {
+        this.product = product;
+        this.score = score;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public float getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+
+import java.util.Locale;
+
+// Result orders of a search. Each is total: ties on the sort value are broken by product id (relevance ties between
+// scored hits by popularity first), so keyset cursors of the form (sort value, popularity, product id) are stable.
+// NEWEST relies on product ids being ObjectIds, whose hex form orders by creation time.
+public enum SortOrder {
+
+    RELEVANCE,  // BM25 score descending, then popularity descending, then id ascending (filter-only searches score 0
+                // and have no relevance to break ties in, i.e. id order)
+    PRICE_ASC,  // price ascending, then id ascending
+    PRICE_DESC, // price descending, then id descending: the exact reverse of PRICE_ASC
+    NEWEST;     // id descending
+
+    public static SortOrder parse(String sort) {
+        if (sort == null || sort.isBlank()) {
+            return RELEVANCE;
+        }
+        try {
+            return valueOf(sort.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("sort must be one of relevance, price_asc, price_desc, newest");
+        }
+    }
+
+    // The value this order sorts on, before the id tie-break.
+    public double valueOf(Product product, float score) {
+        return switch (this) {
+            case RELEVANCE -> score;
+            case PRICE_ASC, PRICE_DESC -> product.getPrice();
+            case NEWEST -> 0;
+        };
+    }
+
+    public boolean isDescending() {
+        return this == PRICE_DESC || this == NEWEST;
+    }
+
+    // Negative when (value, id) comes before (otherValue, otherId) in this order, for hits without a popularity.
+    public int compare(double value, String id, double otherValue, String otherId) {
+        return compare(value, 0, id, otherValue, 0, otherId);
+    }
+
+    // Negative when (value, popularity, id) comes before (otherValue, otherPopularity, otherId) in this order.
+    public int compare(double value, long popularity, String id, double otherValue, long otherPopularity, String otherId) {
+        return switch (this) {
+            case RELEVANCE -> {
+                int byScore = Double.compare(otherValue, value);
+                if (byScore == 0 && value != 0) {
+                    byScore = Long.compare(otherPopularity, popularity);
+                }
+                yield byScore != 0 ? byScore : id.compareTo(otherId);
+            }
+            case PRICE_ASC -> {
+                int byPrice = Double.compare(value, otherValue);
+                yield byPrice != 0 ? byPrice : id.compareTo(otherId);
+            }
+            case PRICE_DESC -> {
+                int byPrice = Double.compare(otherValue, value);
+                yield byPrice != 0 ? byPrice : otherId.compareTo(id);
+            }
+            case NEWEST -> otherId.compareTo(id);
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.productsearchservice.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Immutable prefix index for typeahead.
+// Every suggestion's normalized text is stored once in a shared char array; the sorted keys are word-start
+// offsets into it (a word-level suffix array), so "mu" finds "Handmade Ceramic Mug" as well as "Mug Rack".
+// The keys matching a prefix form one contiguous range, and a max segment tree over the suggestion weights
+// yields the k most popular ones in that range in O(k log n), however many suggestions share the prefix.
+public final class SuggestionIndex {
+
+    private final String[] texts;
+    private final String[] types;
+    private final long[] weights;
+    private final char[] chars;
+    private final int[] starts;
+    private final int[] keySuggestion;
+    private final int[] keyOffset;
+    private final int[] tree;
+    private final int leaves;
+
+    private SuggestionIndex(String[] texts, String[] types, long[] weights) {
+        this.texts = texts;
+        this.types = types;
+        this.weights = weights;
+
+        StringBuilder normalized = new StringBuilder();
+        starts = new int[texts.length + 1];
+        List<int[]> keys = new ArrayList<>();
+        for (int s = 0; s < texts.length; s++) {
+            starts[s] = normalized.length();
+            String text = normalize(texts[s]);
+            for (int i = 0; i < text.length(); i++) {
+                if (i == 0 || text.charAt(i - 1) == ' ') {
+                    keys.add(new int[]{s, i});
+                }
+            }
+            normalized.append(text);
+        }
+        starts[texts.length] = normalized.length();
+        chars = normalized.toString().toCharArray();
+
+        keys.sort(this::compareKeys);
+        keySuggestion = new int[keys.size()];
+        keyOffset = new int[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            keySuggestion[k] = keys.get(k)[0];
+            keyOffset[k] = keys.get(k)[1];
+        }
+
+        int size = 1;
+        while (size < Math.max(1, keySuggestion.length)) {
+            size <<= 1;
+        }
+        leaves = size;
+        tree = new int[2 * size];
+        Arrays.fill(tree, -1);
+        for (int k = 0; k < keySuggestion.length; k++) {
+            tree[size + k] = k;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static SuggestionIndex empty() {
+        return builder().build();
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    // Up to limit suggestions having a word that starts with prefix, most popular first.
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String normalizedPrefix = normalize(prefix);
+        List<Suggestion> results = new ArrayList<>();
+        if (normalizedPrefix.isEmpty() || limit <= 0 || keySuggestion.length == 0) {
+            return results;
+        }
+        int from = lowerBound(normalizedPrefix);
+        int to = upperBound(normalizedPrefix, from);
+        if (from >= to) {
+            return results;
+        }
+
+        // Best-first over key ranges: pop the range whose heaviest key is largest, emit it, split around it.
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                Comparator.comparingLong((int[] range) -> weightOfKey(range[2])).reversed());
+        ranges.add(new int[]{from, to - 1, heaviestIn(from, to - 1)});
+        Set<Integer> emitted = new HashSet<>();
+        while (!ranges.isEmpty() && results.size() < limit) {
+            int[] range = ranges.poll();
+            int key = range[2];
+            int suggestion = keySuggestion[key];
+            // A suggestion has one key per word, so it can turn up more than once in the range.
+            if (emitted.add(suggestion)) {
+                results.add(new Suggestion(texts[suggestion], types[suggestion], weights[suggestion]));
+            }
+            if (range[0] < key) {
+                ranges.add(new int[]{range[0], key - 1, heaviestIn(range[0], key - 1)});
+            }
+            if (key < range[1]) {
+                ranges.add(new int[]{key + 1, range[1], heaviestIn(key + 1, range[1])});
+            }
+        }
+        return results;
+    }
+
+    private int heaviestIn(int from, int to) {
+        int best = -1;
+        for (int lo = from + leaves, hi = to + leaves + 1; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                best = heavier(best, tree[lo++]);
+            }
+            if ((hi & 1) == 1) {
+                best = heavier(best, tree[--hi]);
+            }
+        }
+        return best;
+    }
+
+    private int heavier(int leftKey, int rightKey) {
+        if (leftKey < 0) {
+            return rightKey;
+        }
+        if (rightKey < 0) {
+            return leftKey;
+        }
+        return weightOfKey(rightKey) > weightOfKey(leftKey) ? rightKey : leftKey;
+    }
+
+    private long weightOfKey(int key) {
+        return weights[keySuggestion[key]];
+    }
+
+    // First key not ordered before the prefix.
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = keySuggestion.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToPrefix(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First key at or after from that does not start with the prefix.
+    private int upperBound(String prefix, int from) {
+        int lo = from;
+        int hi = keySuggestion.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToPrefix(mid, prefix) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Compares the key with the prefix, treating a key that starts with the prefix as equal to it.
+    private int compareToPrefix(int key, String prefix) {
+        int position = starts[keySuggestion[key]] + keyOffset[key];
+        int end = starts[keySuggestion[key] + 1];
+        for (int i = 0; i < prefix.length(); i++, position++) {
+            if (position == end) {
+                return -1;
+            }
+            int diff = chars[position] - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int compareKeys(int[] left, int[] right) {
+        int l = starts[left[0]] + left[1];
+        int lEnd = starts[left[0] + 1];
+        int r = starts[right[0]] + right[1];
+        int rEnd = starts[right[0] + 1];
+        while (l < lEnd && r < rEnd) {
+            int diff = chars[l++] - chars[r++];
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (lEnd - l) - (rEnd - r);
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return String.join(" ", text.toLowerCase(Locale.ROOT).trim().split("\\s+"));
+    }
+
+    // Collects suggestions; texts that normalize to the same string are merged and their weights summed.
+    public static final class Builder {
+
+        private final Map<String, Candidate> candidates = new LinkedHashMap<>();
+
+        public Builder add(String text, String type, long weight) {
+            String key = normalize(text);
+            if (!key.isEmpty()) {
+                candidates.computeIfAbsent(key, k -> new Candidate(text.trim(), type)).weight += weight;
+            }
+            return this;
+        }
+
+        public SuggestionIndex build() {
+            int count = candidates.size();
+            String[] texts = new String[count];
+            String[] types = new String[count];
+            long[] weights = new long[count];
+            int s = 0;
+            for (Candidate candidate : candidates.values()) {
+                texts[s] = candidate.text;
+                types[s] = candidate.type;
+                weights[s] = candidate.weight;
+                s++;
+            }
+            return new SuggestionIndex(texts, types, weights);
+        }
+
+        private static final class Candidate {
+
+            private final String text;
+            private final String type;
+            private long weight;
+
+            private Candidate(String text, String type) {
+                this.text = text;
+                this.type = type;
+            }
+        }
+    }
+
+    public static final class Suggestion {
+
+        private final String text;
+        private final String type;
+        private final long weight;
+
+        Suggestion(String text, String type, long weight) {
+            this.text = text;
+            this.type = type;
+            this.weight = weight;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+    }
+}
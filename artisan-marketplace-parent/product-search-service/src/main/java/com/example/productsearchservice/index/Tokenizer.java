@@ -0,0 +1,65 @@
+package com.example.productsearchservice.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Splits product text into lower-cased index terms.
+// Kept deliberately close to what MongoDB's default text index does for English:
+// split on anything that is not a letter or digit, drop stop words and strip simple plurals,
+// so that switching from $text to the in-memory index does not change what matches.
+public final class Tokenizer {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is",
+            "it", "of", "on", "or", "the", "to", "with");
+
+    private Tokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addToken(tokens, text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static void addToken(List<String> tokens, String raw) {
+        String token = raw.toLowerCase(Locale.ROOT);
+        if (STOP_WORDS.contains(token)) {
+            return;
+        }
+        tokens.add(stem(token));
+    }
+
+    // "S-stemmer": only folds plurals, which covers most of the mismatches seen in product names (mug/mugs, vase/vases).
+    static String stem(String token) {
+        int length = token.length();
+        if (length <= 3 || !Character.isLetter(token.charAt(length - 1))) {
+            return token;
+        }
+        if (token.endsWith("ies") && !token.endsWith("eies") && !token.endsWith("aies")) {
+            return token.substring(0, length - 3) + "y";
+        }
+        if (token.endsWith("es") && !token.endsWith("aes") && !token.endsWith("ees") && !token.endsWith("oes")) {
+            return token.substring(0, length - 1);
+        }
+        if (token.endsWith("s") && !token.endsWith("us") && !token.endsWith("ss")) {
+            return token.substring(0, length - 1);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Bounded collector for the best hits of a query: a min-heap of at most capacity entries with the
+// worst retained hit at its head, so a page costs O(matches * log(capacity)) and no full sort.
+// Hits are ranked by the query's SortOrder, whose popularity and id tie-breaks keep keyset cursors stable.
+final class TopHits {
+
+    private final int capacity;
+    private final SortOrder sort;
+    private final Comparator<SearchHit> ranking;
+    private final PriorityQueue<SearchHit> heap;
+
+    TopHits(int capacity, SortOrder sort) {
+        this.capacity = capacity;
+        this.sort = sort;
+        this.ranking = (left, right) -> compare(left.getProduct(), left.getScore(), right.getProduct(), right.getScore());
+        this.heap = new PriorityQueue<>(Math.min(capacity, 1024) + 1, ranking.reversed());
+    }
+
+    void offer(Product product, float score) {
+        if (capacity <= 0) {
+            return;
+        }
+        if (heap.size() == capacity) {
+            SearchHit worst = heap.peek();
+            if (compare(product, score, worst.getProduct(), worst.getScore()) >= 0) {
+                return;
+            }
+            heap.poll();
+        }
+        heap.add(new SearchHit(product, score));
+    }
+
+    private int compare(Product product, float score, Product other, float otherScore) {
+        return sort.compare(sort.valueOf(product, score), product.getPopularity(), product.getId(),
+                sort.valueOf(other, otherScore), other.getPopularity(), other.getId());
+    }
+
+    // Folds in the hits another collector selected for the same query, e.g. from a different segment.
+    void offerAll(TopHits other) {
+        for (SearchHit hit : other.heap) {
+            offer(hit.getProduct(), hit.getScore());
+        }
+    }
+
+    List<SearchHit> toSortedList() {
+        List<SearchHit> hits = new ArrayList<>(heap);
+        hits.sort(ranking);
+        return hits;
+    }
+}
@@ -29,4 +29,12 @@ public class Product {
     private List<String> images;
     private int stockQuantity;
     private Map<String, String> details;
+    // Only stored in the search read model (see SearchProjectionService); 0 when read from products.
+    private long popularity;
+
+    // A product as product-service writes it, without a popularity.
+    public Product(String id, String artisanId, String name, String description, double price, String category,
+                   List<String> images, int stockQuantity, Map<String, String> details) {
+        this(id, artisanId, name, description, price, category, images, stockQuantity, details, 0);
+    }
 }
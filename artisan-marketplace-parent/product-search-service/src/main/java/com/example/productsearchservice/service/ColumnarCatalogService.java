@@ -0,0 +1,151 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.index.ColumnarCatalog;
+import com.example.productsearchservice.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+// Owns the columnar catalog used for searches without query text.
+// It is loaded with a projection of id, category and price only, so neither the load nor a filter-only search
+// touches details or images, and is kept current by the ProductChangeFeed like the inverted index.
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE) // apply changes before caches derived from the catalog are invalidated
+public class ColumnarCatalogService implements ProductChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnarCatalogService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final SearchProjectionService projection;
+    private final boolean enabled;
+    private volatile ColumnarCatalog catalog;
+    // Set when the change feed cannot run; a catalog that no write would ever reach again is not served.
+    private volatile boolean unfollowed;
+    // Changes received while a rebuild is scanning the collection; replayed onto the new catalog before it is swapped in.
+    private List<UnaryOperator<ColumnarCatalog>> pendingChanges;
+
+    @Autowired
+    public ColumnarCatalogService(MongoTemplate mongoTemplate, SearchProjectionService projection, ProductChangeFeed changeFeed,
+                                  @Value("${search.columnar.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.projection = projection;
+        this.enabled = enabled;
+        if (enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (enabled && catalog == null) {
+            startRebuild();
+        }
+    }
+
+    // Makes a previously persisted catalog current, unless one has been built already.
+    public synchronized void install(ColumnarCatalog restored) {
+        if (catalog == null && !unfollowed) {
+            catalog = restored;
+        }
+    }
+
+    public void rebuild() {
+        synchronized (this) {
+            if (pendingChanges != null) {
+                return; // a rebuild is already in progress
+            }
+            if (unfollowed) {
+                return;
+            }
+            pendingChanges = new ArrayList<>();
+        }
+        try {
+            long start = System.nanoTime();
+            Query query = new Query();
+            query.fields().include("category").include("price");
+            ColumnarCatalog fresh;
+            try (Stream<Product> products = mongoTemplate.stream(query, Product.class, projection.readCollection())) {
+                fresh = ColumnarCatalog.build(products);
+            }
+            synchronized (this) {
+                if (unfollowed) {
+                    return;
+                }
+                for (UnaryOperator<ColumnarCatalog> change : pendingChanges) {
+                    fresh = change.apply(fresh);
+                }
+                catalog = fresh.needsCompaction() ? fresh.compact() : fresh;
+            }
+            log.info("Columnar catalog built with {} products in {} ms", fresh.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Failed to build columnar catalog, filter-only searches will not use it", e);
+        } finally {
+            synchronized (this) {
+                pendingChanges = null;
+            }
+        }
+    }
+
+    @Override
+    public void onProductUpserted(Product product) {
+        apply(current -> current.withUpsert(product));
+    }
+
+    @Override
+    public void onProductDeleted(String productId) {
+        apply(current -> current.withDelete(productId));
+    }
+
+    @Override
+    public void onResync() {
+        startRebuild();
+    }
+
+    @Override
+    public synchronized void onFeedUnavailable() {
+        unfollowed = true;
+        catalog = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return catalog != null;
+    }
+
+    public ColumnarCatalog getCatalog() {
+        return catalog;
+    }
+
+    // Runs on the change feed thread; folding the delta into fresh columns happens here too, off the request path.
+    private synchronized void apply(UnaryOperator<ColumnarCatalog> change) {
+        if (pendingChanges != null) {
+            pendingChanges.add(change);
+        }
+        if (catalog != null) {
+            ColumnarCatalog updated = change.apply(catalog);
+            catalog = updated.needsCompaction() ? updated.compact() : updated;
+        }
+    }
+
+    private void startRebuild() {
+        Thread loader = new Thread(this::rebuild, "columnar-catalog-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+}
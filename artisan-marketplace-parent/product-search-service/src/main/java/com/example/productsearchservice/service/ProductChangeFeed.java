@@ -0,0 +1,264 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.model.Product;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Tails the products collection through a MongoDB change stream and fans inserts, updates, replaces
+// and deletes out to every registered ProductChangeListener.
+// The resume token is checkpointed to Mongo so a reconnect or restart picks up where it left off instead of
+// forcing listeners to reload the whole catalog. Change streams need a replica set (a single node is enough).
+@Service
+public class ProductChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductChangeFeed.class);
+
+    static final String CHECKPOINT_COLLECTION = "search_checkpoints";
+    static final String CHECKPOINT_ID = "products-change-stream";
+    // ChangeStreamHistoryLost, ChangeStreamFatalError, InvalidResumeToken (pre 4.2 servers report it as 40585)
+    private static final Set<Integer> UNRESUMABLE_ERROR_CODES = Set.of(286, 280, 260, 40585);
+    // "$changeStream stage is only supported on replica sets": retrying cannot help on a standalone server.
+    private static final int NOT_A_REPLICA_SET_ERROR_CODE = 40573;
+    private static final long RETRY_BACKOFF_MS = 5_000;
+    private static final long MAX_RETRY_BACKOFF_MS = 300_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long checkpointIntervalMs;
+    private final List<ProductChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    // Where a restored snapshot left off; used instead of the stored checkpoint until a newer one is saved.
+    private volatile String snapshotResumeToken;
+    // When the write behind the event being dispatched happened (epoch millis), for listeners measuring their lag.
+    private volatile long eventTimeMillis;
+    private Thread worker;
+    // Failures since the stream was last opened; the retry delay doubles with each one.
+    private int consecutiveFailures;
+
+    @Autowired
+    public ProductChangeFeed(MongoTemplate mongoTemplate,
+                             @Value("${search.change-stream.enabled:true}") boolean enabled,
+                             @Value("${search.change-stream.checkpoint-interval-ms:1000}") long checkpointIntervalMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    // Listeners are notified in @Order order, so structures that others derive from (the index) are updated
+    // before the caches built on top of them are invalidated.
+    public synchronized void addListener(ProductChangeListener listener) {
+        listeners.add(listener);
+        AnnotationAwareOrderComparator.sort(listeners);
+    }
+
+    // Makes the feed start from an older position than its own checkpoint, so structures restored from a snapshot
+    // taken at that position catch up. Listeners must tolerate seeing changes they have already applied.
+    public void resumeFrom(String resumeToken) {
+        this.snapshotResumeToken = resumeToken;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "product-change-feed");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                tail();
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == NOT_A_REPLICA_SET_ERROR_CODE) {
+                    log.warn("Products change stream disabled: the MongoDB server is not a replica set, so searches "
+                            + "are served from the products collection until the service is restarted against one");
+                    running = false;
+                    listeners.forEach(ProductChangeListener::onFeedUnavailable);
+                } else if (UNRESUMABLE_ERROR_CODES.contains(e.getErrorCode())) {
+                    log.warn("Products change stream cannot be resumed ({}), listeners will resync", e.getErrorMessage());
+                    snapshotResumeToken = null;
+                    clearCheckpoint();
+                    listeners.forEach(ProductChangeListener::onResync);
+                } else {
+                    retryAfter(e);
+                }
+            } catch (RuntimeException e) {
+                if (running) {
+                    retryAfter(e);
+                }
+            }
+        }
+    }
+
+    private void tail() {
+        var stream = mongoTemplate.getCollection("products")
+                .watch(List.of(Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete",
+                        "drop", "invalidate"))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        BsonDocument checkpoint = snapshotResumeToken != null
+                ? new BsonDocument("_data", new BsonString(snapshotResumeToken))
+                : loadCheckpoint();
+        if (checkpoint != null) {
+            stream = stream.resumeAfter(checkpoint);
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            consecutiveFailures = 0;
+            long lastCheckpoint = System.currentTimeMillis();
+            BsonDocument pendingToken = null;
+            while (running) {
+                ChangeStreamDocument<Document> event = cursor.tryNext();
+                if (event != null) {
+                    if (!dispatch(event)) {
+                        snapshotResumeToken = null;
+                        clearCheckpoint();
+                        listeners.forEach(ProductChangeListener::onResync);
+                        return;
+                    }
+                }
+                // The cursor's token also advances on empty batches (post-batch resume token), which keeps it
+                // inside the oplog window even when the catalog is idle.
+                BsonDocument token = cursor.getResumeToken();
+                if (token != null) {
+                    pendingToken = token;
+                }
+                long now = System.currentTimeMillis();
+                if (pendingToken != null && now - lastCheckpoint >= checkpointIntervalMs) {
+                    saveCheckpoint(pendingToken);
+                    pendingToken = null;
+                    lastCheckpoint = now;
+                }
+            }
+            if (pendingToken != null) {
+                saveCheckpoint(pendingToken);
+            }
+        }
+    }
+
+    // Time of the write that produced the event currently being dispatched; valid inside listener callbacks.
+    public long currentEventTimeMillis() {
+        return eventTimeMillis;
+    }
+
+    // Returns false when the stream has been invalidated (collection dropped or renamed).
+    private boolean dispatch(ChangeStreamDocument<Document> event) {
+        OperationType type = event.getOperationType();
+        // wallTime needs MongoDB 6.0; the cluster time has second precision but is always there.
+        if (event.getWallTime() != null) {
+            eventTimeMillis = event.getWallTime().getValue();
+        } else if (event.getClusterTime() != null) {
+            eventTimeMillis = event.getClusterTime().getTime() * 1000L;
+        } else {
+            eventTimeMillis = System.currentTimeMillis();
+        }
+        switch (type) {
+            case INSERT, UPDATE, REPLACE -> {
+                // With updateLookup the document can be null if it was deleted before the lookup ran;
+                // the delete event that follows takes care of it.
+                if (event.getFullDocument() != null) {
+                    Product product = mongoTemplate.getConverter().read(Product.class, event.getFullDocument());
+                    listeners.forEach(listener -> listener.onProductUpserted(product));
+                }
+                return true;
+            }
+            case DELETE -> {
+                String productId = idAsString(event.getDocumentKey().get("_id"));
+                listeners.forEach(listener -> listener.onProductDeleted(productId));
+                return true;
+            }
+            default -> {
+                log.warn("Products change stream ended with a {} event", type);
+                return false;
+            }
+        }
+    }
+
+    // product-service stores ids generated by Spring Data as ObjectIds; the search model exposes them as hex strings.
+    private static String idAsString(BsonValue id) {
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    private BsonDocument loadCheckpoint() {
+        Document checkpoint = mongoTemplate.findById(CHECKPOINT_ID, Document.class, CHECKPOINT_COLLECTION);
+        if (checkpoint == null || checkpoint.getString("resumeToken") == null) {
+            return null;
+        }
+        return new BsonDocument("_data", new BsonString(checkpoint.getString("resumeToken")));
+    }
+
+    // Every change up to the token has been dispatched by now, which listeners are told about after it is stored.
+    private void saveCheckpoint(BsonDocument token) {
+        String resumeToken = token.getString("_data").getValue();
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(CHECKPOINT_ID)),
+                Update.update("resumeToken", resumeToken).set("updatedAt", new Date()),
+                CHECKPOINT_COLLECTION);
+        snapshotResumeToken = null;
+        listeners.forEach(listener -> listener.onCheckpoint(resumeToken));
+    }
+
+    private void clearCheckpoint() {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(CHECKPOINT_ID)), CHECKPOINT_COLLECTION);
+    }
+
+    // Exponential backoff up to MAX_RETRY_BACKOFF_MS. The stack trace is logged for the first failure of a run only,
+    // so an outage that lasts does not flood the log.
+    private void retryAfter(RuntimeException failure) {
+        long backoff = Math.min(MAX_RETRY_BACKOFF_MS, RETRY_BACKOFF_MS << Math.min(consecutiveFailures, 10));
+        if (consecutiveFailures == 0) {
+            log.warn("Products change stream failed, retrying in {} ms", backoff, failure);
+        } else {
+            log.warn("Products change stream failed again ({}), retrying in {} ms", failure.getMessage(), backoff);
+        }
+        consecutiveFailures++;
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.model.Product;
+
+// Receives changes to the products collection from ProductChangeFeed.
+// Events can be delivered more than once (after a resume), so implementations must be idempotent.
+public interface ProductChangeListener {
+
+    void onProductUpserted(Product product);
+
+    void onProductDeleted(String productId);
+
+    // The change stream could not be resumed and events may have been missed; derived state should be rebuilt.
+    default void onResync() {
+    }
+
+    // The change stream cannot run against this server (it is not a replica set), so no change will be delivered.
+    // Derived state that is only correct while it follows the feed must stop being served.
+    default void onFeedUnavailable() {
+    }
+
+    // Every change up to resumeToken has been delivered to all listeners. Called on the change feed thread.
+    default void onCheckpoint(String resumeToken) {
+    }
+}
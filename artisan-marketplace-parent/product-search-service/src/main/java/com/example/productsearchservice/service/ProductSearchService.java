@@ -1,63 +1,652 @@
 package com.example.productsearchservice.service;
 
+import com.example.productsearchservice.dto.PriceBucket;
 import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.dto.ProductSearchPage;
+import com.example.productsearchservice.dto.ProductSearchRequest;
+import com.example.productsearchservice.dto.SearchFacets;
+import com.example.productsearchservice.index.FacetCounts;
+import com.example.productsearchservice.index.IndexQuery;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.index.SearchHit;
+import com.example.productsearchservice.index.SortOrder;
+import com.example.productsearchservice.index.Tokenizer;
 import com.example.productsearchservice.model.Product;
+import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.CriteriaDefinition;
 import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 public class ProductSearchService {
 
+    // details keys end up in MongoDB field paths, so only plain names are accepted.
+    private static final Pattern DETAIL_KEY = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final double CENT_TOLERANCE = 1e-6;
+
     private final MongoTemplate mongoTemplate;
+    private final SearchIndexService searchIndexService;
+    private final ColumnarCatalogService columnarCatalogService;
+    private final SearchProjectionService projection;
+    private final SearchResultCache searchResultCache;
+    private final SearchCoalescer searchCoalescer;
+    private final MeterRegistry meterRegistry;
+    private final int defaultLimit;
+    private final int maxLimit;
+    private final double[] defaultPriceBuckets;
+    private final boolean fuzzy;
+    private final long fuzzyBudgetNanos;
+    private final long budgetNanos;
+    private final int streamChunkSize;
 
     @Autowired
-    public ProductSearchService(MongoTemplate mongoTemplate) {
+    public ProductSearchService(MongoTemplate mongoTemplate, SearchIndexService searchIndexService,
+                                ColumnarCatalogService columnarCatalogService, SearchProjectionService projection,
+                                SearchResultCache searchResultCache,
+                                SearchCoalescer searchCoalescer, MeterRegistry meterRegistry,
+                                @Value("${search.page.default-limit:50}") int defaultLimit,
+                                @Value("${search.page.max-limit:500}") int maxLimit,
+                                @Value("${search.facets.price-buckets:0,25,50,100,250,500}") double[] defaultPriceBuckets,
+                                @Value("${search.fuzzy.enabled:true}") boolean fuzzy,
+                                @Value("${search.fuzzy.budget-micros:2000}") long fuzzyBudgetMicros,
+                                @Value("${search.budget-ms:250}") long budgetMs,
+                                @Value("${search.stream.index-chunk-size:10000}") int streamChunkSize) {
         this.mongoTemplate = mongoTemplate;
+        this.searchIndexService = searchIndexService;
+        this.columnarCatalogService = columnarCatalogService;
+        this.projection = projection;
+        this.searchResultCache = searchResultCache;
+        this.searchCoalescer = searchCoalescer;
+        this.meterRegistry = meterRegistry;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+        this.defaultPriceBuckets = defaultPriceBuckets;
+        this.fuzzy = fuzzy;
+        this.fuzzyBudgetNanos = TimeUnit.MICROSECONDS.toNanos(fuzzyBudgetMicros);
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    // Returns one page of results plus the cursor of the next one, and facet counts when requested.
+    // Pages are served from SearchResultCache when possible; it is invalidated by the product change feed.
+    // Concurrent misses for the same normalized request share a single search through SearchCoalescer.
+    public ProductSearchPage searchProducts(ProductSearchRequest request) {
+        if (searchResultCache.isEnabled()) {
+            ProductSearchPage cached = searchResultCache.get(request);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return searchCoalescer.execute(SearchResultCache.keyOf(request), () -> executeAndCache(request));
+    }
+
+    private ProductSearchPage executeAndCache(ProductSearchRequest request) {
+        if (!searchResultCache.isEnabled()) {
+            return executeSearch(request);
+        }
+        long generation = searchResultCache.generation();
+        ProductSearchPage page = executeSearch(request);
+        if (!page.isPartial()) {
+            searchResultCache.put(request, page, generation);
+        }
+        return page;
+    }
+
+    // At most limit + 1 products are read (the extra one only tells whether another page exists).
+    // A search that runs out of its time budget returns the best hits found by then, marked partial.
+    private ProductSearchPage executeSearch(ProductSearchRequest request) {
+        int limit = resolveLimit(request.getLimit());
+        ProductFields.parse(request.getFields()); // rejects unknown fields whichever path serves the page
+        SortOrder sort = SortOrder.parse(request.getSort());
+        SearchCursor after = decodeCursor(request, sort);
+        FacetCounts facets = request.isFacets()
+                ? new FacetCounts(resolvePriceBuckets(request.getPriceBuckets()), resolveDetailFacets(request.getDetailFacets()))
+                : null;
+
+        SearchBudget budget = new SearchBudget(budgetNanos);
+        List<SearchHit> hits = fetchPage(request, sort, after, limit + 1, facets, budget);
+        boolean hasMore = hits.size() > limit;
+        List<SearchHit> pageHits = hasMore ? hits.subList(0, limit) : hits;
+
+        ProductSearchPage page = new ProductSearchPage();
+        page.setItems(pageHits.stream()
+                .map(hit -> mapToProductResponse(hit.getProduct()))
+                .collect(Collectors.toList()));
+        if (hasMore) {
+            SearchHit last = pageHits.get(pageHits.size() - 1);
+            page.setNext(cursorAfter(sort, last).encode());
+        }
+        if (facets != null) {
+            page.setFacets(mapToSearchFacets(facets));
+        }
+        page.setExpandedTerms(budget.expandedTerms);
+        if (budget.exceededIn != null) {
+            page.setPartial(true);
+            countTimeout(request, sort, facets, budget.exceededIn);
+        }
+        return page;
+    }
+
+    // Lazily produces every match (or the first limit of them) in the same order as searchProducts.
+    // From MongoDB the products are read from a cursor as the caller consumes the stream. From the index they are
+    // selected a keyset chunk at a time (search.stream.index-chunk-size), each chunk one walk of the postings, so
+    // at most one chunk of hits is held however many products match. The stream must be closed.
+    public Stream<ProductResponse> streamProducts(ProductSearchRequest request) {
+        SortOrder sort = SortOrder.parse(request.getSort());
+        SearchCursor after = decodeCursor(request, sort);
+        long limit = request.getLimit() == null ? Long.MAX_VALUE : Math.max(request.getLimit(), 0);
+        ProductFields.parse(request.getFields());
+
+        Stream<Product> products;
+        if (searchIndexService.isReady()) {
+            IndexChunks chunks = new IndexChunks(searchIndexService.getIndex(), request, sort, after, limit);
+            products = StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                    .flatMap(List::stream)
+                    .map(SearchHit::getProduct);
+        } else {
+            String collection = projection.readCollection();
+            Query query = selectFields(buildMongoQuery(request, sort, after, collection), request, sort);
+            if (limit < Integer.MAX_VALUE) {
+                query.limit((int) limit);
+            }
+            products = mongoTemplate.stream(query, Product.class, collection);
+        }
+        return products.limit(limit).map(this::mapToProductResponse);
+    }
+
+    private List<SearchHit> fetchPage(ProductSearchRequest request, SortOrder sort, SearchCursor after, int size,
+                                      FacetCounts facets, SearchBudget budget) {
+        boolean usesDetails = !detailFilters(request).isEmpty() || (facets != null && !facets.getDetailKeys().isEmpty());
+        if (!StringUtils.hasText(request.getQuery()) && !usesDetails && columnarCatalogService.isReady()) {
+            // Filter-only: the page's ids are picked from the columnar catalog and only those products are loaded.
+            IndexQuery query = toIndexQuery(request, sort, after, size);
+            query.setFacets(facets);
+            return toHits(loadProducts(columnarCatalogService.getCatalog().filter(query), request, sort, budget));
+        }
+        if (searchIndexService.isReady()) {
+            // Served from the in-memory index: BM25-ranked, no database round trip.
+            // Facets are counted during the same scan that selects the page; details filters and facets are
+            // bitmap operations on the index's attribute bitmaps.
+            IndexQuery query = toIndexQuery(request, sort, after, size);
+            query.setFacets(facets);
+            query.setDeadlineNanos(budget.deadline);
+            List<SearchHit> hits = searchIndexService.getIndex().search(query);
+            if (query.isPartial()) {
+                budget.exceededIn = "index";
+            }
+            budget.expandedTerms = query.getExpandedTerms();
+            return hits;
+        }
+        try {
+            if (facets != null) {
+                return fetchPageWithMongoFacets(request, sort, after, size, facets, budget);
+            }
+            String collection = projection.readCollection();
+            Query query = selectFields(buildMongoQuery(request, sort, after, collection), request, sort).limit(size);
+            if (budget.deadline != 0) {
+                query.maxTime(budget.remaining());
+            }
+            return toHits(mongoTemplate.find(query, Product.class, collection));
+        } catch (RuntimeException e) {
+            // MongoDB stops the query at maxTimeMS and returns nothing, so the partial page is empty.
+            if (!isServerTimeout(e)) {
+                throw e;
+            }
+            budget.exceededIn = "mongo";
+            return new ArrayList<>();
+        }
+    }
+
+    // MongoDB fallback for faceted searches: a single $facet aggregation returns the page and both facets,
+    // sharing the text match stage.
+    private List<SearchHit> fetchPageWithMongoFacets(ProductSearchRequest request, SortOrder sort, SearchCursor after,
+                                                     int size, FacetCounts facets, SearchBudget budget) {
+        String collection = projection.readCollection();
+        Criteria category = categoryCriteria(request);
+        Criteria price = priceCriteria(request, collection);
+        Map<String, Criteria> details = detailCriteria(request, collection);
+
+        List<Criteria> resultFilters = new ArrayList<>();
+        if (category != null) {
+            resultFilters.add(category);
+        }
+        if (price != null) {
+            resultFilters.add(price);
+        }
+        resultFilters.addAll(details.values());
+        if (after != null) {
+            resultFilters.add(keysetCriteria(sort, after));
+        }
+        List<AggregationOperation> results = new ArrayList<>();
+        if (!resultFilters.isEmpty()) {
+            results.add(Aggregation.match(new Criteria().andOperator(resultFilters.toArray(new Criteria[0]))));
+        }
+        results.add(Aggregation.sort(mongoSort(sort)));
+        results.add(Aggregation.limit(size));
+        List<String> fields = readFields(request, sort);
+        if (fields != null) {
+            results.add(Aggregation.project(fields.toArray(new String[0])));
+        }
+
+        List<AggregationOperation> categories = new ArrayList<>(matchAll(price, details.values()));
+        categories.add(Aggregation.sortByCount("category"));
+
+        // $bucket needs a closed upper bound and a default for values outside the boundaries.
+        double[] boundaries = facets.getBoundaries();
+        Object[] bucketBoundaries = new Object[boundaries.length + 1];
+        for (int i = 0; i < boundaries.length; i++) {
+            bucketBoundaries[i] = boundaries[i];
+        }
+        bucketBoundaries[boundaries.length] = Double.MAX_VALUE;
+        List<AggregationOperation> prices = new ArrayList<>(matchAll(category, details.values()));
+        prices.add(Aggregation.bucket("price").withBoundaries(bucketBoundaries).withDefaultBucket("other")
+                .andOutputCount().as("count"));
+
+        FacetOperation facet = Aggregation.facet(results.toArray(new AggregationOperation[0])).as("results")
+                .and(categories.toArray(new AggregationOperation[0])).as("categories")
+                .and(prices.toArray(new AggregationOperation[0])).as("prices");
+        List<String> detailKeys = new ArrayList<>(facets.getDetailKeys());
+        for (int i = 0; i < detailKeys.size(); i++) {
+            String key = detailKeys.get(i);
+            Map<String, Criteria> others = new LinkedHashMap<>(details);
+            others.remove(key);
+            List<Criteria> filters = new ArrayList<>(others.values());
+            if (price != null) {
+                filters.add(price);
+            }
+            List<AggregationOperation> values = new ArrayList<>(matchAll(category, filters));
+            values.add(Aggregation.sortByCount("details." + key));
+            facet = facet.and(values.toArray(new AggregationOperation[0])).as("details" + i);
+        }
+        List<AggregationOperation> pipeline = new ArrayList<>();
+        CriteriaDefinition text = textCriteria(request, collection);
+        if (text != null) {
+            pipeline.add(Aggregation.match(text));
+        }
+        pipeline.add(facet);
+
+        TypedAggregation<Product> aggregation = Aggregation.newAggregation(Product.class, pipeline);
+        if (budget.deadline != 0) {
+            aggregation = aggregation.withOptions(AggregationOptions.builder().maxTime(budget.remaining()).build());
+        }
+        Document output = mongoTemplate.aggregate(aggregation, collection, Document.class).getUniqueMappedResult();
+        if (output == null) {
+            return new ArrayList<>();
+        }
+        for (Document bucket : output.getList("categories", Document.class)) {
+            Object key = bucket.get("_id");
+            if (key != null) {
+                facets.countCategory(key.toString(), ((Number) bucket.get("count")).longValue());
+            }
+        }
+        for (Document bucket : output.getList("prices", Document.class)) {
+            if (bucket.get("_id") instanceof Number lowerBound) {
+                facets.countPrice(lowerBound.doubleValue(), ((Number) bucket.get("count")).longValue());
+            }
+        }
+        for (int i = 0; i < detailKeys.size(); i++) {
+            for (Document bucket : output.getList("details" + i, Document.class)) {
+                Object value = bucket.get("_id");
+                if (value != null) {
+                    facets.countDetail(detailKeys.get(i), value.toString(), ((Number) bucket.get("count")).longValue());
+                }
+            }
+        }
+        List<Product> products = new ArrayList<>();
+        for (Document document : output.getList("results", Document.class)) {
+            products.add(mongoTemplate.getConverter().read(Product.class, document));
+        }
+        return toHits(products);
     }
 
-    public List<ProductResponse> searchProducts(String queryText, String category, Double minPrice, Double maxPrice) {
+    // Full documents for the given ids, in the same order; ids deleted in the meantime are skipped.
+    private List<Product> loadProducts(List<String> ids, ProductSearchRequest request, SortOrder sort, SearchBudget budget) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (searchIndexService.isReady()) {
+            InvertedIndex index = searchIndexService.getIndex();
+            List<Product> products = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                Product product = index.get(id);
+                if (product != null) {
+                    products.add(product);
+                }
+            }
+            return products;
+        }
+        Query query = selectFields(Query.query(Criteria.where("id").in(ids)), request, sort);
+        if (budget.deadline != 0) {
+            query.maxTime(budget.remaining());
+        }
+        Map<String, Product> byId = new HashMap<>();
+        try {
+            for (Product product : mongoTemplate.find(query, Product.class, projection.readCollection())) {
+                byId.put(product.getId(), product);
+            }
+        } catch (RuntimeException e) {
+            if (!isServerTimeout(e)) {
+                throw e;
+            }
+            budget.exceededIn = "mongo";
+            return new ArrayList<>();
+        }
+        List<Product> products = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Product product = byId.get(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    // Timeouts are counted per query shape (text or filter-only, with details filters and/or facets) and sort, so the
+    // kinds of searches that run out of budget stand out without a tag per distinct query.
+    private void countTimeout(ProductSearchRequest request, SortOrder sort, FacetCounts facets, String backend) {
+        String shape = (StringUtils.hasText(request.getQuery()) ? "text" : "filter")
+                + (detailFilters(request).isEmpty() ? "" : "+details")
+                + (facets == null ? "" : "+facets");
+        meterRegistry.counter("search.timeouts", "backend", backend, "shape", shape,
+                "sort", sort.name().toLowerCase(Locale.ROOT)).increment();
+    }
+
+    // maxTimeMS exceeded on the server, however Spring translated it.
+    private static boolean isServerTimeout(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoExecutionTimeoutException
+                    || (cause instanceof MongoException mongoException && mongoException.getCode() == 50)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<SearchHit> toHits(List<Product> products) {
+        List<SearchHit> hits = new ArrayList<>(products.size());
+        for (Product product : products) {
+            hits.add(new SearchHit(product, 0f));
+        }
+        return hits;
+    }
+
+    // The MongoDB fallback pages by _id (or price then _id): the keyset condition and the limit are pushed into the
+    // query, so each page is an index range scan rather than a skip over everything before it.
+    private static Query buildMongoQuery(ProductSearchRequest request, SortOrder sort, SearchCursor after, String collection) {
         Query query = new Query();
         List<Criteria> criteriaList = new ArrayList<>();
 
-        if (StringUtils.hasText(queryText)) {
-            // Using TextCriteria for full-text search.
-            // Requires a text index on the fields you want to search (e.g., name, description, category).
-            // Example: db.products.createIndex({ name: "text", description: "text", category: "text" })
-            TextCriteria textCriteria = TextCriteria.forDefaultLanguage().matchingAny(queryText);
-            query.addCriteria(textCriteria);
+        CriteriaDefinition text = textCriteria(request, collection);
+        if (text != null) {
+            query.addCriteria(text);
         }
 
-        if (StringUtils.hasText(category)) {
-            criteriaList.add(Criteria.where("category").is(category));
+        Criteria category = categoryCriteria(request);
+        if (category != null) {
+            criteriaList.add(category);
         }
 
-        if (minPrice != null && maxPrice != null) {
-            criteriaList.add(Criteria.where("price").gte(minPrice).lte(maxPrice));
-        } else if (minPrice != null) {
-            criteriaList.add(Criteria.where("price").gte(minPrice));
-        } else if (maxPrice != null) {
-            criteriaList.add(Criteria.where("price").lte(maxPrice));
+        Criteria price = priceCriteria(request, collection);
+        if (price != null) {
+            criteriaList.add(price);
+        }
+
+        criteriaList.addAll(detailCriteria(request, collection).values());
+
+        if (after != null) {
+            criteriaList.add(keysetCriteria(sort, after));
         }
 
         if (!criteriaList.isEmpty()) {
             query.addCriteria(new Criteria().andOperator(criteriaList.toArray(new Criteria[0])));
         }
+        return query.with(mongoSort(sort));
+    }
 
-        List<Product> products = mongoTemplate.find(query, Product.class, "products");
+    // Reads only the fields selected with ?fields= (all of them by default), plus the price a price-sorted page's
+    // cursor is built from. Products served from the in-memory index are whole; the resource trims what is written.
+    private static Query selectFields(Query query, ProductSearchRequest request, SortOrder sort) {
+        List<String> fields = readFields(request, sort);
+        if (fields != null) {
+            fields.forEach(field -> query.fields().include(field));
+        }
+        return query;
+    }
 
-        return products.stream()
-                .map(this::mapToProductResponse)
-                .collect(Collectors.toList());
+    // The fields to read from MongoDB, or null for whole documents.
+    private static List<String> readFields(ProductSearchRequest request, SortOrder sort) {
+        List<String> fields = ProductFields.parse(request.getFields());
+        if (ProductFields.isAll(fields)) {
+            return null;
+        }
+        if ((sort == SortOrder.PRICE_ASC || sort == SortOrder.PRICE_DESC) && !fields.contains("price")) {
+            fields = new ArrayList<>(fields);
+            fields.add("price");
+        }
+        return fields;
+    }
+
+    // MongoDB has no BM25 scores, so RELEVANCE falls back to id order there; NEWEST is _id descending (ObjectIds
+    // start with their creation time). Price sorts use a { price: 1, _id: 1 } index when there is one.
+    private static Sort mongoSort(SortOrder sort) {
+        return switch (sort) {
+            case RELEVANCE -> Sort.by(Sort.Direction.ASC, "id");
+            case NEWEST -> Sort.by(Sort.Direction.DESC, "id");
+            case PRICE_ASC -> Sort.by(Sort.Direction.ASC, "price", "id");
+            case PRICE_DESC -> Sort.by(Sort.Direction.DESC, "price", "id");
+        };
+    }
+
+    // Matches what comes strictly after the cursor in mongoSort(sort) order.
+    private static Criteria keysetCriteria(SortOrder sort, SearchCursor after) {
+        String id = after.getProductId();
+        return switch (sort) {
+            case RELEVANCE -> Criteria.where("id").gt(id);
+            case NEWEST -> Criteria.where("id").lt(id);
+            case PRICE_ASC -> new Criteria().orOperator(Criteria.where("price").gt(after.getValue()),
+                    new Criteria().andOperator(Criteria.where("price").is(after.getValue()), Criteria.where("id").gt(id)));
+            case PRICE_DESC -> new Criteria().orOperator(Criteria.where("price").lt(after.getValue()),
+                    new Criteria().andOperator(Criteria.where("price").is(after.getValue()), Criteria.where("id").lt(id)));
+        };
+    }
+
+    private static SearchCursor decodeCursor(ProductSearchRequest request, SortOrder sort) {
+        if (request.getAfter() == null) {
+            return null;
+        }
+        SearchCursor after = SearchCursor.decode(request.getAfter());
+        if (after.getSort() != sort) {
+            throw new IllegalArgumentException("The after cursor was issued for a different sort");
+        }
+        return after;
+    }
+
+    private static SearchCursor cursorAfter(SortOrder sort, SearchHit last) {
+        Product product = last.getProduct();
+        return new SearchCursor(sort, sort.valueOf(product, last.getScore()), product.getPopularity(), product.getId());
+    }
+
+    private static Criteria categoryCriteria(ProductSearchRequest request) {
+        return StringUtils.hasText(request.getCategory()) ? Criteria.where("category").is(request.getCategory()) : null;
+    }
+
+    // Any-term match. On the read model the terms are looked up in its precomputed tokens, which hold the same terms
+    // as the in-memory index; on products (before the read model is built) they go through its $text index, e.g.
+    // db.products.createIndex({ name: "text", description: "text", category: "text" })
+    private static CriteriaDefinition textCriteria(ProductSearchRequest request, String collection) {
+        if (!StringUtils.hasText(request.getQuery())) {
+            return null;
+        }
+        if (isReadModel(collection)) {
+            List<String> terms = Tokenizer.tokenize(request.getQuery());
+            return terms.isEmpty() ? null : Criteria.where("tokens").in(terms);
+        }
+        return TextCriteria.forDefaultLanguage().matchingAny(request.getQuery());
+    }
+
+    // One criteria per details key. On the read model it is a lookup in the indexed "key=value" facets; products
+    // has no index for these, the in-memory index answers them when ready.
+    private static Map<String, Criteria> detailCriteria(ProductSearchRequest request, String collection) {
+        Map<String, Criteria> criteria = new LinkedHashMap<>();
+        detailFilters(request).forEach((key, values) -> criteria.put(key, isReadModel(collection)
+                ? Criteria.where("facets").in(values.stream().map(value -> key + "=" + value).toList())
+                : Criteria.where("details." + key).in(values)));
+        return criteria;
+    }
+
+    private static boolean isReadModel(String collection) {
+        return !SearchProjectionService.SOURCE_COLLECTION.equals(collection);
+    }
+
+    private static List<AggregationOperation> matchAll(Criteria first, Collection<Criteria> rest) {
+        List<Criteria> filters = new ArrayList<>();
+        if (first != null) {
+            filters.add(first);
+        }
+        filters.addAll(rest);
+        if (filters.isEmpty()) {
+            return List.of();
+        }
+        return List.of(Aggregation.match(new Criteria().andOperator(filters.toArray(new Criteria[0]))));
+    }
+
+    private static Map<String, List<String>> detailFilters(ProductSearchRequest request) {
+        Map<String, List<String>> details = request.getDetails() == null ? Map.of() : request.getDetails();
+        details.keySet().forEach(ProductSearchService::checkDetailKey);
+        return details;
+    }
+
+    private static Collection<String> resolveDetailFacets(String requested) {
+        if (!StringUtils.hasText(requested)) {
+            return List.of();
+        }
+        List<String> keys = Arrays.stream(requested.split(",")).map(String::trim).filter(StringUtils::hasText).toList();
+        keys.forEach(ProductSearchService::checkDetailKey);
+        return keys;
+    }
+
+    private static void checkDetailKey(String key) {
+        if (!DETAIL_KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid details key: " + key);
+        }
+    }
+
+    // On the read model the bounds are compared with its whole-cent prices, so they go through the indexed integer
+    // priceCents. A bound is turned into cents with a tolerance, since 19.99 * 100 is 1998.9999999999998 as a double.
+    private static Criteria priceCriteria(ProductSearchRequest request, String collection) {
+        Double minPrice = request.getMinPrice();
+        Double maxPrice = request.getMaxPrice();
+        if (minPrice == null && maxPrice == null) {
+            return null;
+        }
+        if (isReadModel(collection)) {
+            Criteria cents = Criteria.where("priceCents");
+            if (minPrice != null) {
+                cents.gte((long) Math.ceil(minPrice * 100 - CENT_TOLERANCE));
+            }
+            if (maxPrice != null) {
+                cents.lte((long) Math.floor(maxPrice * 100 + CENT_TOLERANCE));
+            }
+            return cents;
+        }
+        if (minPrice != null && maxPrice != null) {
+            return Criteria.where("price").gte(minPrice).lte(maxPrice);
+        } else if (minPrice != null) {
+            return Criteria.where("price").gte(minPrice);
+        }
+        return Criteria.where("price").lte(maxPrice);
+    }
+
+    private IndexQuery toIndexQuery(ProductSearchRequest request, SortOrder sort, SearchCursor after, int size) {
+        IndexQuery query = new IndexQuery();
+        query.setText(request.getQuery());
+        query.setCategory(StringUtils.hasText(request.getCategory()) ? request.getCategory() : null);
+        query.setMinPrice(request.getMinPrice());
+        query.setMaxPrice(request.getMaxPrice());
+        Map<String, List<String>> details = detailFilters(request);
+        query.setDetails(details.isEmpty() ? null : details);
+        query.setSort(sort);
+        query.setLimit(size);
+        query.setFuzzy(fuzzy);
+        query.setFuzzyBudgetNanos(fuzzyBudgetNanos);
+        if (after != null) {
+            query.setAfterValue(after.getValue());
+            query.setAfterPopularity(after.getPopularity());
+            query.setAfterId(after.getProductId());
+        }
+        return query;
+    }
+
+    private int resolveLimit(Integer requested) {
+        if (requested == null) {
+            return defaultLimit;
+        }
+        if (requested < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        return Math.min(requested, maxLimit);
+    }
+
+    private double[] resolvePriceBuckets(String requested) {
+        if (!StringUtils.hasText(requested)) {
+            return defaultPriceBuckets;
+        }
+        try {
+            return Arrays.stream(requested.split(",")).map(String::trim).mapToDouble(Double::parseDouble).toArray();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("priceBuckets must be a comma-separated list of numbers");
+        }
+    }
+
+    private static SearchFacets mapToSearchFacets(FacetCounts counts) {
+        double[] boundaries = counts.getBoundaries();
+        long[] bucketCounts = counts.getBucketCounts();
+        List<PriceBucket> prices = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            Double to = i + 1 < boundaries.length ? boundaries[i + 1] : null;
+            prices.add(new PriceBucket(boundaries[i], to, bucketCounts[i]));
+        }
+        SearchFacets facets = new SearchFacets();
+        facets.setCategories(counts.getCategoryCounts());
+        facets.setPrices(prices);
+        facets.setDetails(counts.getDetailCounts());
+        return facets;
     }
 
     private ProductResponse mapToProductResponse(Product product) {
@@ -65,4 +654,65 @@ public class ProductSearchService {
         BeanUtils.copyProperties(product, response);
         return response;
     }
+
+    // Keyset chunks of an index search, the next one searched once the previous one has been consumed. A chunk is
+    // large enough that a walk of the postings is shared by many hits; the last chunk stops at the limit.
+    private final class IndexChunks implements Iterator<List<SearchHit>> {
+
+        private final InvertedIndex index;
+        private final ProductSearchRequest request;
+        private final SortOrder sort;
+        private SearchCursor after;
+        private long remaining;
+        private List<SearchHit> next;
+
+        private IndexChunks(InvertedIndex index, ProductSearchRequest request, SortOrder sort, SearchCursor after, long limit) {
+            this.index = index;
+            this.request = request;
+            this.sort = sort;
+            this.after = after;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && remaining > 0) {
+                int size = (int) Math.min(remaining, streamChunkSize);
+                next = index.search(toIndexQuery(request, sort, after, size));
+                remaining = next.size() < size ? 0 : remaining - size;
+                if (!next.isEmpty()) {
+                    SearchHit last = next.get(next.size() - 1);
+                    after = cursorAfter(sort, last);
+                }
+            }
+            return next != null && !next.isEmpty();
+        }
+
+        @Override
+        public List<SearchHit> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<SearchHit> chunk = next;
+            next = null;
+            return chunk;
+        }
+    }
+
+    // The time one search may take (search.budget-ms, 0 for no limit) and where it ran out, if it did.
+    private static final class SearchBudget {
+
+        private final long deadline; // System.nanoTime() based, 0 when unlimited
+        private String exceededIn; // "index" or "mongo"
+        private Set<String> expandedTerms = Set.of(); // by the index, so the result cache can tell what the page depends on
+
+        private SearchBudget(long budgetNanos) {
+            this.deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : 0;
+        }
+
+        // What is left for a MongoDB maxTimeMS; at least a millisecond, so an exhausted budget still fails fast.
+        private Duration remaining() {
+            return Duration.ofMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+    }
 }
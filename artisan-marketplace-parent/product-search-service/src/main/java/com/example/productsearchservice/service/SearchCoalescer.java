@@ -0,0 +1,80 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductSearchPage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Single-flight execution of identical searches: while a search for a normalized request key is running, callers
+// with the same key wait for it and share its page (or its exception) instead of running their own.
+// Only in-flight searches are shared; a caller arriving after one completed runs a new search (or hits the cache).
+@Service
+public class SearchCoalescer {
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, CompletableFuture<ProductSearchPage>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter shared;
+
+    @Autowired
+    public SearchCoalescer(MeterRegistry meterRegistry,
+                           @Value("${search.coalescing.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        this.executed = meterRegistry.counter("search.coalescing.requests", "result", "executed");
+        this.shared = meterRegistry.counter("search.coalescing.requests", "result", "shared");
+        Gauge.builder("search.coalescing.ratio", this, SearchCoalescer::coalescingRatio).register(meterRegistry);
+        Gauge.builder("search.coalescing.in-flight", inFlight, ConcurrentHashMap::size).register(meterRegistry);
+    }
+
+    public ProductSearchPage execute(String key, Supplier<ProductSearchPage> search) {
+        if (!enabled) {
+            return search.get();
+        }
+        CompletableFuture<ProductSearchPage> flight = new CompletableFuture<>();
+        CompletableFuture<ProductSearchPage> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            shared.increment();
+            return await(running);
+        }
+        executed.increment();
+        try {
+            ProductSearchPage page = search.get();
+            flight.complete(page);
+            return page;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // Share of requests answered by another request's search since startup.
+    public double coalescingRatio() {
+        double total = executed.count() + shared.count();
+        return total == 0 ? 0 : shared.count() / total;
+    }
+
+    private static ProductSearchPage await(CompletableFuture<ProductSearchPage> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            // Followers fail like the leader did, e.g. with the IllegalArgumentException of a malformed cursor.
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.index.SortOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Opaque keyset cursor handed to clients as the "next" token of a search page.
+// It records the sort it was issued for and the position of the last returned hit, (sort value, popularity,
+// product id), and nothing else, so resuming a search never needs server-side state.
+final class SearchCursor {
+
+    private static final String VERSION = "3";
+
+    private final SortOrder sort;
+    private final double value;
+    private final long popularity;
+    private final String productId;
+
+    SearchCursor(SortOrder sort, double value, long popularity, String productId) {
+        this.sort = sort;
+        this.value = value;
+        this.popularity = popularity;
+        this.productId = productId;
+    }
+
+    SortOrder getSort() {
+        return sort;
+    }
+
+    double getValue() {
+        return value;
+    }
+
+    long getPopularity() {
+        return popularity;
+    }
+
+    String getProductId() {
+        return productId;
+    }
+
+    String encode() {
+        String raw = VERSION + ":" + sort.name() + ":" + Long.toHexString(Double.doubleToLongBits(value)) + ":"
+                + popularity + ":" + productId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static SearchCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 5);
+            if (parts.length == 5 && VERSION.equals(parts[0]) && !parts[4].isEmpty()) {
+                return new SearchCursor(SortOrder.valueOf(parts[1]), Double.longBitsToDouble(Long.parseUnsignedLong(parts[2], 16)),
+                        Long.parseLong(parts[3]), parts[4]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid search cursor: " + token, e);
+        }
+        throw new IllegalArgumentException("Invalid search cursor: " + token);
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Owns the in-memory search index for the products collection.
+// The index is built off the request path once the application is up and then kept current by the
+// ProductChangeFeed; until it is ready, ProductSearchService keeps answering from MongoDB.
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE) // apply changes to the index before caches derived from it are invalidated
+public class SearchIndexService implements ProductChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchIndexService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final SearchProjectionService projection;
+    private final boolean enabled;
+    // Dedicated to searching index segments, so a large search never competes with the common pool.
+    private final ForkJoinPool searchPool;
+    private final int segmentSize;
+    private volatile InvertedIndex index;
+    // Set when the change feed cannot run; an index that no write would ever reach again is not served.
+    private volatile boolean unfollowed;
+    // Changes received while a rebuild is scanning the collection; replayed onto the new index before it is swapped in.
+    private List<Consumer<InvertedIndex>> pendingChanges;
+
+    @Autowired
+    public SearchIndexService(MongoTemplate mongoTemplate, SearchProjectionService projection, ProductChangeFeed changeFeed,
+                              @Value("${search.index.enabled:true}") boolean enabled,
+                              @Value("${search.parallel.parallelism:0}") int parallelism,
+                              @Value("${search.parallel.segment-size:65536}") int segmentSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.projection = projection;
+        this.enabled = enabled;
+        this.segmentSize = segmentSize;
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.searchPool = enabled && threads > 1 ? new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("search-segment-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false) : null;
+        if (enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!enabled) {
+            log.info("In-memory search index disabled, searches will be served by MongoDB");
+            return;
+        }
+        if (index != null) {
+            return; // restored from a snapshot, the change feed catches it up
+        }
+        startRebuild();
+    }
+
+    // Makes a previously persisted index current, unless one has been built already.
+    public synchronized void install(InvertedIndex restored) {
+        if (index == null && !unfollowed) {
+            index = restored;
+        }
+    }
+
+    // Builds a fresh index from a cursor over the collection and swaps it in; searches keep using the
+    // previous index (or MongoDB) while this runs.
+    public void rebuild() {
+        synchronized (this) {
+            if (pendingChanges != null) {
+                return; // a rebuild is already in progress
+            }
+            if (unfollowed) {
+                return;
+            }
+            pendingChanges = new ArrayList<>();
+        }
+        try {
+            long start = System.nanoTime();
+            InvertedIndex fresh = newIndex();
+            try (Stream<Product> products = mongoTemplate.stream(new Query(), Product.class, projection.readCollection())) {
+                products.forEach(fresh::upsert);
+            }
+            synchronized (this) {
+                if (unfollowed) {
+                    return;
+                }
+                pendingChanges.forEach(change -> change.accept(fresh));
+                index = fresh;
+            }
+            log.info("Search index built with {} products in {} ms", fresh.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Failed to build search index, searches will keep using MongoDB", e);
+        } finally {
+            synchronized (this) {
+                pendingChanges = null;
+            }
+        }
+    }
+
+    @Override
+    public void onProductUpserted(Product product) {
+        apply(index -> index.upsert(product));
+    }
+
+    @Override
+    public void onProductDeleted(String productId) {
+        apply(index -> index.remove(productId));
+    }
+
+    @Override
+    public void onResync() {
+        startRebuild();
+    }
+
+    @Override
+    public synchronized void onFeedUnavailable() {
+        unfollowed = true;
+        index = null;
+    }
+
+    // An empty index searching in parallel as configured.
+    public InvertedIndex newIndex() {
+        return new InvertedIndex(searchPool, segmentSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return index != null;
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (searchPool != null) {
+            searchPool.shutdownNow();
+        }
+    }
+
+    private synchronized void apply(Consumer<InvertedIndex> change) {
+        if (pendingChanges != null) {
+            pendingChanges.add(change);
+        }
+        if (index != null) {
+            change.accept(index);
+        }
+    }
+
+    private void startRebuild() {
+        Thread loader = new Thread(this::rebuild, "search-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+}
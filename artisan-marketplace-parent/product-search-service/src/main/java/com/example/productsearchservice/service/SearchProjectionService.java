@@ -0,0 +1,341 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.index.Tokenizer;
+import com.example.productsearchservice.model.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Maintains the search read model: a collection of its own, derived from the products collection that
+// product-service writes, which search reads instead of it. Each document carries the product fields plus what
+// search needs precomputed: its index terms (the in-memory index's tokens) and "key=value" facet values, which the
+// MongoDB fallback matches on, the price in whole cents its price filters compare, and a popularity count (how often
+// the product was shown on a first page of results) that ranks suggestions and breaks relevance ties.
+// Search-specific indexes live only on this collection.
+// The worker applies the products change feed and rebuilds the collection from products when it is first created
+// or when the feed has to resync. Until the first build completes, reads keep going to products.
+@Service
+public class SearchProjectionService implements ProductChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchProjectionService.class);
+
+    static final String SOURCE_COLLECTION = "products";
+    static final String MARKER_ID = "search-read-model";
+    private static final int BATCH_SIZE = 500;
+    private static final long REBUILD_RETRY_SECONDS = 30;
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductChangeFeed changeFeed;
+    private final boolean enabled;
+    private final String collection;
+    private final long popularityFlushSeconds;
+    private volatile boolean ready;
+    // Set when the change feed cannot run: the read model would stop following products, so products is read instead.
+    private volatile boolean unfollowed;
+    // Stamped on every projected document; a rebuild removes the documents it did not stamp.
+    private volatile String run = UUID.randomUUID().toString();
+    // Changes received while a rebuild is scanning products; replayed onto the read model once the scan is done.
+    private List<Consumer<String>> pendingChanges;
+    private final Map<String, LongAdder> impressions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    private final Timer lag;
+    private final Counter upserts;
+    private final Counter deletes;
+
+    @Autowired
+    public SearchProjectionService(MongoTemplate mongoTemplate, ProductChangeFeed changeFeed, MeterRegistry meterRegistry,
+                                   @Value("${search.read-model.enabled:true}") boolean enabled,
+                                   @Value("${search.change-stream.enabled:true}") boolean changeStreamEnabled,
+                                   @Value("${search.read-model.collection:search_products}") String collection,
+                                   @Value("${search.read-model.popularity-flush-seconds:30}") long popularityFlushSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeFeed = changeFeed;
+        // Without the change feed the read model could not be kept current.
+        this.enabled = enabled && changeStreamEnabled;
+        this.collection = collection;
+        this.popularityFlushSeconds = popularityFlushSeconds;
+        this.lag = Timer.builder("search.projection.lag")
+                .description("Time from a write to products until it is in the search read model")
+                .register(meterRegistry);
+        this.upserts = meterRegistry.counter("search.projection.writes", "operation", "upsert");
+        this.deletes = meterRegistry.counter("search.projection.writes", "operation", "delete");
+        Gauge.builder("search.projection.pending", this, SearchProjectionService::pendingCount).register(meterRegistry);
+        if (this.enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    // Runs before the in-memory structures load, so they read from the read model when it is complete.
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public synchronized void start() {
+        if (!enabled || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-projection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A built read model is only current if the feed resumes where it left off; without a checkpoint it is rebuilt.
+        Document marker = mongoTemplate.findById(MARKER_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION);
+        boolean resumable = mongoTemplate.findById(ProductChangeFeed.CHECKPOINT_ID, Document.class,
+                ProductChangeFeed.CHECKPOINT_COLLECTION) != null;
+        if (unfollowed) {
+            return;
+        }
+        if (resumable && marker != null && collection.equals(marker.getString("collection")) && marker.getString("run") != null) {
+            run = marker.getString("run");
+            ready = true;
+        } else {
+            scheduler.execute(this::rebuild);
+        }
+        scheduler.execute(this::ensureIndexes);
+        scheduler.scheduleWithFixedDelay(this::flushPopularity, popularityFlushSeconds, popularityFlushSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            flushPopularity();
+        }
+    }
+
+    // Where search reads products from: the read model once it has been built, the products collection until then.
+    public String readCollection() {
+        return ready ? collection : SOURCE_COLLECTION;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Counts a first page of results towards the popularity of its products; written in batches.
+    public void recordImpressions(List<ProductResponse> items) {
+        if (!enabled || unfollowed) {
+            return;
+        }
+        for (ProductResponse item : items) {
+            impressions.computeIfAbsent(item.getId(), id -> new LongAdder()).increment();
+        }
+    }
+
+    // Copies every product into the read model under a new run stamp, then drops what the copy did not stamp.
+    public void rebuild() {
+        synchronized (this) {
+            if (pendingChanges != null) {
+                return; // a rebuild is already in progress
+            }
+            if (unfollowed) {
+                return;
+            }
+            pendingChanges = new ArrayList<>();
+        }
+        try {
+            long start = System.nanoTime();
+            String rebuildRun = UUID.randomUUID().toString();
+            long count = 0;
+            BulkOperations batch = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class, collection);
+            int batched = 0;
+            try (Stream<Product> products = mongoTemplate.stream(new Query(), Product.class, SOURCE_COLLECTION)) {
+                for (Product product : (Iterable<Product>) products::iterator) {
+                    batch.upsert(byId(product.getId()), projection(product, rebuildRun));
+                    count++;
+                    if (++batched == BATCH_SIZE) {
+                        batch.execute();
+                        batch = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class, collection);
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                batch.execute();
+            }
+            synchronized (this) {
+                run = rebuildRun;
+                pendingChanges.forEach(change -> change.accept(rebuildRun));
+                pendingChanges = null;
+            }
+            mongoTemplate.remove(Query.query(Criteria.where("projectionRun").ne(rebuildRun)), Product.class, collection);
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(MARKER_ID)),
+                    Update.update("collection", collection).set("run", rebuildRun).set("builtAt", new Date()),
+                    ProductChangeFeed.CHECKPOINT_COLLECTION);
+            ready = !unfollowed;
+            log.info("Search read model {} built with {} products in {} ms", collection, count,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Failed to build search read model {}, retrying in {} s", collection, REBUILD_RETRY_SECONDS, e);
+            replayPendingChanges();
+            scheduleRebuild();
+        }
+    }
+
+    // Changes queued during a failed rebuild are applied to the read model as it was (under the current run stamp),
+    // so a model that is already serving keeps following writes until the retried rebuild replaces it.
+    private synchronized void replayPendingChanges() {
+        List<Consumer<String>> changes = pendingChanges;
+        pendingChanges = null;
+        if (changes == null) {
+            return; // the failure came after the rebuild had already applied them
+        }
+        try {
+            changes.forEach(change -> change.accept(run));
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply product changes queued during the read model rebuild; the retry copies them", e);
+        }
+    }
+
+    private synchronized void scheduleRebuild() {
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.schedule(this::rebuild, REBUILD_RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void onProductUpserted(Product product) {
+        apply(currentRun -> mongoTemplate.upsert(byId(product.getId()), projection(product, currentRun), Product.class, collection));
+        upserts.increment();
+        recordLag();
+    }
+
+    @Override
+    public void onProductDeleted(String productId) {
+        apply(currentRun -> mongoTemplate.remove(byId(productId), Product.class, collection));
+        deletes.increment();
+        recordLag();
+    }
+
+    @Override
+    public void onResync() {
+        if (scheduler != null) {
+            scheduler.execute(this::rebuild);
+        }
+    }
+
+    @Override
+    public void onFeedUnavailable() {
+        unfollowed = true;
+        ready = false;
+    }
+
+    private synchronized void apply(Consumer<String> change) {
+        if (pendingChanges != null) {
+            pendingChanges.add(change);
+        } else {
+            change.accept(run);
+        }
+    }
+
+    private void recordLag() {
+        lag.record(Math.max(0, System.currentTimeMillis() - changeFeed.currentEventTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized int pendingCount() {
+        return pendingChanges == null ? 0 : pendingChanges.size();
+    }
+
+    // Popularity is only ever incremented here, so projections (which $set everything else) never reset it.
+    private void flushPopularity() {
+        if (impressions.isEmpty()) {
+            return;
+        }
+        try {
+            BulkOperations batch = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class, collection);
+            for (String productId : new ArrayList<>(impressions.keySet())) {
+                long count = impressions.remove(productId).sum();
+                batch.updateOne(byId(productId), new Update().inc("popularity", count));
+            }
+            batch.execute();
+        } catch (RuntimeException e) {
+            log.warn("Failed to write search popularity counts", e);
+        }
+    }
+
+    private void ensureIndexes() {
+        try {
+            IndexOperations indexes = mongoTemplate.indexOps(collection);
+            indexes.ensureIndex(new Index().on("price", Sort.Direction.ASC).on("_id", Sort.Direction.ASC));
+            indexes.ensureIndex(new Index().on("category", Sort.Direction.ASC).on("priceCents", Sort.Direction.ASC));
+            indexes.ensureIndex(new Index().on("tokens", Sort.Direction.ASC));
+            indexes.ensureIndex(new Index().on("facets", Sort.Direction.ASC));
+            indexes.ensureIndex(new Index().on("popularity", Sort.Direction.DESC));
+        } catch (RuntimeException e) {
+            log.warn("Could not create the indexes of search read model {}", collection, e);
+        }
+    }
+
+    private static Query byId(String productId) {
+        return Query.query(Criteria.where("id").is(productId));
+    }
+
+    // Prices are stored in whole cents, so the read model's price filters compare exact integers.
+    static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    // The product's fields are $set (and popularity only initialized), so a projection never loses counted popularity.
+    static Update projection(Product product, String run) {
+        TreeSet<String> tokens = new TreeSet<>(Tokenizer.tokenize(product.getName()));
+        tokens.addAll(Tokenizer.tokenize(product.getDescription()));
+        tokens.addAll(Tokenizer.tokenize(product.getCategory()));
+        List<String> facets = new ArrayList<>();
+        if (product.getCategory() != null) {
+            facets.add("category=" + product.getCategory());
+        }
+        if (product.getDetails() != null) {
+            new TreeSet<>(product.getDetails().keySet()).forEach(key -> facets.add(key + "=" + product.getDetails().get(key)));
+        }
+        return new Update()
+                .set("artisanId", product.getArtisanId())
+                .set("name", product.getName())
+                .set("description", product.getDescription())
+                .set("price", product.getPrice())
+                .set("category", product.getCategory())
+                .set("images", product.getImages())
+                .set("stockQuantity", product.getStockQuantity())
+                .set("details", product.getDetails())
+                .set("tokens", new ArrayList<>(tokens))
+                .set("priceCents", toCents(product.getPrice()))
+                .set("facets", facets)
+                .set("projectionRun", run)
+                .set("projectedAt", new Date())
+                .setOnInsert("popularity", 0L);
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.dto.ProductSearchPage;
+import com.example.productsearchservice.dto.ProductSearchRequest;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.index.Tokenizer;
+import com.example.productsearchservice.model.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Bounded LRU cache of search pages keyed on the normalized request, with a TTL on every entry.
+// Entries are dropped as soon as the change feed reports a write to a product they contain, or an upsert of a
+// product that now matches their query; the TTL only bounds what that cannot see (e.g. facet counts shifting
+// after a delete of a product that was not on the cached page).
+@Service
+public class SearchResultCache implements ProductChangeListener {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByProductId = new HashMap<>();
+    // Bumped on every invalidation so a page computed before a write can never be stored after it.
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expirations;
+    private final Counter invalidations;
+
+    @Autowired
+    public SearchResultCache(ProductChangeFeed changeFeed, MeterRegistry meterRegistry,
+                             @Value("${search.cache.enabled:true}") boolean enabled,
+                             @Value("${search.cache.max-entries:1000}") int maxEntries,
+                             @Value("${search.cache.ttl-seconds:60}") long ttlSeconds) {
+        this(changeFeed, meterRegistry, enabled, maxEntries, ttlSeconds, System::nanoTime);
+    }
+
+    SearchResultCache(ProductChangeFeed changeFeed, MeterRegistry meterRegistry, boolean enabled, int maxEntries,
+                      long ttlSeconds, LongSupplier clock) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.clock = clock;
+        this.hits = meterRegistry.counter("search.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("search.cache.requests", "result", "miss");
+        this.sizeEvictions = meterRegistry.counter("search.cache.evictions", "cause", "size");
+        this.expirations = meterRegistry.counter("search.cache.evictions", "cause", "expired");
+        this.invalidations = meterRegistry.counter("search.cache.evictions", "cause", "invalidated");
+        Gauge.builder("search.cache.size", this, SearchResultCache::size).register(meterRegistry);
+        if (enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized ProductSearchPage get(ProductSearchRequest request) {
+        String key = keyOf(request);
+        Entry entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.createdAt > ttlNanos) {
+            remove(key);
+            expirations.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.page;
+    }
+
+    // Token to pass back to put(); identifies the cache state the page is about to be computed against.
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void put(ProductSearchRequest request, ProductSearchPage page, long computedAtGeneration) {
+        if (!enabled || computedAtGeneration != generation) {
+            return;
+        }
+        String key = keyOf(request);
+        remove(key);
+        Entry entry = new Entry(request, page, clock.getAsLong());
+        entries.put(key, entry);
+        for (String productId : entry.productIds) {
+            keysByProductId.computeIfAbsent(productId, id -> new HashSet<>()).add(key);
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            sizeEvictions.increment();
+        }
+    }
+
+    @Override
+    public synchronized void onProductUpserted(Product product) {
+        generation++;
+        invalidateContaining(product.getId());
+        if (entries.isEmpty()) {
+            return;
+        }
+        Set<String> productTerms = termsOf(product);
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> candidate = iterator.next();
+            if (candidate.getValue().matches(product, productTerms)) {
+                unlinkProducts(candidate.getKey(), candidate.getValue());
+                iterator.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onProductDeleted(String productId) {
+        generation++;
+        invalidateContaining(productId);
+    }
+
+    @Override
+    public synchronized void onResync() {
+        generation++;
+        invalidations.increment(entries.size());
+        entries.clear();
+        keysByProductId.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void invalidateContaining(String productId) {
+        Set<String> keys = keysByProductId.remove(productId);
+        if (keys != null) {
+            for (String key : new HashSet<>(keys)) {
+                if (remove(key)) {
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    private boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unlinkProducts(key, entry);
+        return true;
+    }
+
+    private void unlinkProducts(String key, Entry entry) {
+        for (String productId : entry.productIds) {
+            Set<String> keys = keysByProductId.get(productId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByProductId.remove(productId);
+                }
+            }
+        }
+    }
+
+    // Query text is reduced to its sorted, distinct index terms, so "Ceramic MUGS" and "mug ceramic" share an entry.
+    static String keyOf(ProductSearchRequest request) {
+        StringBuilder key = new StringBuilder();
+        key.append(normalizedText(request.getQuery())).append('|')
+                .append(StringUtils.hasText(request.getCategory()) ? request.getCategory() : "").append('|')
+                .append(request.getMinPrice() == null ? "" : request.getMinPrice()).append('|')
+                .append(request.getMaxPrice() == null ? "" : request.getMaxPrice()).append('|')
+                .append(request.getSort() == null ? "" : request.getSort().trim().toLowerCase(Locale.ROOT)).append('|')
+                .append(request.getLimit() == null ? "" : request.getLimit()).append('|')
+                .append(request.getAfter() == null ? "" : request.getAfter()).append('|');
+        if (request.getDetails() != null) {
+            new TreeMap<>(request.getDetails()).forEach((detail, values) ->
+                    key.append(detail).append('=').append(new TreeSet<>(values)).append(';'));
+        }
+        key.append('|');
+        if (request.isFacets()) {
+            key.append("facets:").append(request.getPriceBuckets() == null ? "" : request.getPriceBuckets().replace(" ", ""))
+                    .append(':').append(request.getDetailFacets() == null ? "" : request.getDetailFacets().replace(" ", ""));
+        }
+        if (StringUtils.hasText(request.getFields())) {
+            // Pages read from MongoDB hold only the selected fields, so they are not interchangeable.
+            key.append("|fields:").append(String.join(",", ProductFields.parse(request.getFields())));
+        }
+        return key.toString();
+    }
+
+    // Tokenized once per change rather than once per cached entry it is checked against.
+    private static Set<String> termsOf(Product product) {
+        Set<String> terms = new HashSet<>();
+        for (String field : new String[]{product.getName(), product.getDescription(), product.getCategory()}) {
+            terms.addAll(Tokenizer.tokenize(field));
+        }
+        return terms;
+    }
+
+    private static String normalizedText(String text) {
+        if (!StringUtils.hasText(text)) {
+            return "";
+        }
+        Set<String> terms = new TreeSet<>(Tokenizer.tokenize(text));
+        return terms.isEmpty() ? text.trim().toLowerCase(Locale.ROOT) : String.join(" ", terms);
+    }
+
+    private static final class Entry {
+
+        private final ProductSearchPage page;
+        private final long createdAt;
+        private final Set<String> productIds = new HashSet<>();
+        private final Set<String> terms;
+        private final Set<String> expandedTerms;
+        private final String category;
+        private final Double minPrice;
+        private final Double maxPrice;
+        private final Map<String, List<String>> details;
+
+        private Entry(ProductSearchRequest request, ProductSearchPage page, long createdAt) {
+            this.page = page;
+            this.createdAt = createdAt;
+            for (ProductResponse item : page.getItems()) {
+                productIds.add(item.getId());
+            }
+            this.terms = new HashSet<>(Tokenizer.tokenize(request.getQuery()));
+            this.expandedTerms = page.getExpandedTerms() == null ? Set.of() : Set.copyOf(page.getExpandedTerms());
+            this.category = StringUtils.hasText(request.getCategory()) ? request.getCategory() : null;
+            this.minPrice = request.getMinPrice();
+            this.maxPrice = request.getMaxPrice();
+            this.details = request.getDetails() == null ? Map.of() : request.getDetails();
+        }
+
+        // Whether the product, as written, would be a hit for this entry's query.
+        private boolean matches(Product product, Set<String> productTerms) {
+            if (category != null && !category.equals(product.getCategory())) {
+                return false;
+            }
+            if ((minPrice != null && product.getPrice() < minPrice) || (maxPrice != null && product.getPrice() > maxPrice)) {
+                return false;
+            }
+            for (Map.Entry<String, List<String>> detail : details.entrySet()) {
+                String value = product.getDetails() == null ? null : product.getDetails().get(detail.getKey());
+                if (!detail.getValue().contains(value)) {
+                    return false;
+                }
+            }
+            if (terms.isEmpty()) {
+                return true;
+            }
+            for (String term : terms) {
+                if (productTerms.contains(term)) {
+                    return true;
+                }
+            }
+            // A term that matched nothing was searched as its near spellings, so a product gaining or changing
+            // any of them can change the page ("ceramc" served from the "ceramic" products).
+            for (String term : expandedTerms) {
+                for (String productTerm : productTerms) {
+                    if (InvertedIndex.isNearSpelling(term, productTerm)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.index.ColumnarCatalog;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Persists the in-memory search structures so a restart does not have to rescan the products collection.
+// A snapshot is taken at a change feed checkpoint, when every change up to its resume token has been applied, and
+// is committed by atomically replacing the manifest naming its files and that token. On startup the snapshot is
+// loaded before the structures would otherwise be built and the change feed resumes from its token to catch up;
+// if MongoDB no longer has that history, the feed asks for a resync and everything is rebuilt from the collection.
+// Only the columnar catalog is used straight from its mapped file. The inverted index is not persisted in a
+// searchable form: its snapshot is the live documents, which are re-tokenized into a new index on restore, so a
+// restore saves the collection scan but still pays for indexing every product.
+@Service
+public class SearchSnapshotService implements ProductChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchSnapshotService.class);
+
+    static final String MANIFEST = "manifest.properties";
+    private static final int FORMAT_VERSION = 1;
+    private static final long DOCUMENTS_MAGIC = 0x43524654444F4353L; // "CRFTDOCS"
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductChangeFeed changeFeed;
+    private final SearchIndexService searchIndexService;
+    private final ColumnarCatalogService columnarCatalogService;
+    private final boolean enabled;
+    private final Path directory;
+    private final long intervalMillis;
+    private final ExecutorService writer;
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile long lastSnapshotMillis;
+    private long sequence;
+
+    @Autowired
+    public SearchSnapshotService(MongoTemplate mongoTemplate, ProductChangeFeed changeFeed,
+                                 SearchIndexService searchIndexService, ColumnarCatalogService columnarCatalogService,
+                                 @Value("${search.snapshot.enabled:true}") boolean enabled,
+                                 @Value("${search.change-stream.enabled:true}") boolean changeStreamEnabled,
+                                 @Value("${search.snapshot.directory:${java.io.tmpdir}/product-search-snapshots}") String directory,
+                                 @Value("${search.snapshot.interval-seconds:600}") long intervalSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeFeed = changeFeed;
+        this.searchIndexService = searchIndexService;
+        this.columnarCatalogService = columnarCatalogService;
+        // Without the change feed there is no way to catch a snapshot up with later writes.
+        this.enabled = enabled && changeStreamEnabled;
+        this.directory = Paths.get(directory);
+        this.intervalMillis = intervalSeconds * 1000;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (this.enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    // Runs before the services build their structures and before the change feed starts.
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void restore() {
+        if (!enabled || !Files.exists(directory.resolve(MANIFEST))) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Properties manifest = new Properties();
+            try (InputStream in = Files.newInputStream(directory.resolve(MANIFEST))) {
+                manifest.load(in);
+            }
+            if (Integer.parseInt(manifest.getProperty("format", "0")) != FORMAT_VERSION) {
+                log.info("Ignoring search snapshot in an unsupported format");
+                return;
+            }
+            String resumeToken = manifest.getProperty("resumeToken");
+            String catalogFile = manifest.getProperty("catalog");
+            String documentsFile = manifest.getProperty("documents");
+            ColumnarCatalog catalog = null;
+            InvertedIndex index = null;
+            if (columnarCatalogService.isEnabled() && catalogFile != null) {
+                catalog = ColumnarCatalog.open(directory.resolve(catalogFile));
+            }
+            if (searchIndexService.isEnabled() && documentsFile != null) {
+                index = searchIndexService.newIndex();
+                readDocuments(directory.resolve(documentsFile)).forEach(index::upsert);
+            }
+            if (catalog != null) {
+                columnarCatalogService.install(catalog);
+            }
+            if (index != null) {
+                searchIndexService.install(index);
+            }
+            sequence = Long.parseLong(manifest.getProperty("sequence", "0"));
+            lastSnapshotMillis = System.currentTimeMillis();
+            changeFeed.resumeFrom(resumeToken);
+            log.info("Search snapshot {} from {} restored in {} ms", sequence, manifest.getProperty("createdAt"),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not restore search snapshot from {}, rebuilding from MongoDB", directory, e);
+        }
+    }
+
+    @Override
+    public void onProductUpserted(Product product) {
+    }
+
+    @Override
+    public void onProductDeleted(String productId) {
+    }
+
+    // On the change feed thread, so the structures are captured exactly as of the token; writing happens elsewhere.
+    @Override
+    public void onCheckpoint(String resumeToken) {
+        if (System.currentTimeMillis() - lastSnapshotMillis < intervalMillis) {
+            return;
+        }
+        InvertedIndex index = searchIndexService.getIndex();
+        ColumnarCatalog catalog = columnarCatalogService.getCatalog();
+        if ((searchIndexService.isEnabled() && index == null) || (columnarCatalogService.isEnabled() && catalog == null)
+                || (index == null && catalog == null)) {
+            return; // still building
+        }
+        if (!writing.compareAndSet(false, true)) {
+            return;
+        }
+        lastSnapshotMillis = System.currentTimeMillis();
+        List<Product> documents = index == null ? null : index.liveDocuments();
+        writer.execute(() -> {
+            try {
+                write(resumeToken, documents, catalog);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to write search snapshot to {}", directory, e);
+            } finally {
+                writing.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        writer.shutdownNow();
+    }
+
+    private void write(String resumeToken, List<Product> documents, ColumnarCatalog catalog) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        long next = sequence + 1;
+        Properties manifest = new Properties();
+        manifest.setProperty("format", Integer.toString(FORMAT_VERSION));
+        manifest.setProperty("sequence", Long.toString(next));
+        manifest.setProperty("resumeToken", resumeToken);
+        manifest.setProperty("createdAt", Instant.now().toString());
+        if (catalog != null) {
+            String name = "catalog-" + next + ".bin";
+            catalog.writeTo(directory.resolve(name));
+            manifest.setProperty("catalog", name);
+        }
+        if (documents != null) {
+            String name = "documents-" + next + ".bin";
+            writeDocuments(directory.resolve(name), documents);
+            manifest.setProperty("documents", name);
+        }
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            manifest.store(out, "Search snapshot");
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sequence = next;
+        deleteOlderThan(next);
+        log.info("Search snapshot {} written in {} ms", next, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Length-prefixed BSON documents, as the products collection stores them. Read back through a mapping only to
+    // avoid copying the file; every document is still decoded.
+    private void writeDocuments(Path file, List<Product> documents) throws IOException {
+        DocumentCodec codec = new DocumentCodec();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeLong(DOCUMENTS_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(documents.size());
+            for (Product product : documents) {
+                Document document = new Document();
+                mongoTemplate.getConverter().write(product, document);
+                BasicOutputBuffer buffer = new BasicOutputBuffer();
+                codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+                out.writeInt(buffer.getPosition());
+                buffer.pipe(out);
+            }
+        }
+    }
+
+    private List<Product> readDocuments(Path file) throws IOException {
+        DocumentCodec codec = new DocumentCodec();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getLong() != DOCUMENTS_MAGIC || mapped.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a search snapshot documents file: " + file);
+            }
+            int count = mapped.getInt();
+            Product[] products = new Product[count];
+            for (int i = 0; i < count; i++) {
+                int length = mapped.getInt();
+                ByteBuffer bson = mapped.slice(mapped.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+                mapped.position(mapped.position() + length);
+                Document document = codec.decode(new BsonBinaryReader(bson), DecoderContext.builder().build());
+                products[i] = mongoTemplate.getConverter().read(Product.class, document);
+            }
+            return List.of(products);
+        }
+    }
+
+    private void deleteOlderThan(long current) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{catalog,documents}-*.bin")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long fileSequence = Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - 4));
+                if (fileSequence < current) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
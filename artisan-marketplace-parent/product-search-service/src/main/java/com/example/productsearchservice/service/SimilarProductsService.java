@@ -0,0 +1,180 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.index.SearchHit;
+import com.example.productsearchservice.index.Tokenizer;
+import com.example.productsearchservice.model.Product;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// "More like this" recommendations from the in-memory index, cached per product.
+// A cached list is dropped when its product changes, when a product on it changes or is deleted, and when an
+// upserted product shares a term with it (and so may now belong on it); it is recomputed on the next request.
+@Service
+public class SimilarProductsService implements ProductChangeListener {
+
+    // Lists are computed and cached at this size and cut down to what a request asks for.
+    public static final int MAX_LIMIT = 50;
+
+    private final SearchIndexService searchIndexService;
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> sourcesByListedId = new HashMap<>();
+    // Bumped on every invalidation so a list computed before a write can never be stored after it.
+    private long generation;
+
+    @Autowired
+    public SimilarProductsService(SearchIndexService searchIndexService, ProductChangeFeed changeFeed,
+                                  @Value("${search.similar.cache.max-entries:1000}") int maxEntries) {
+        this.searchIndexService = searchIndexService;
+        this.maxEntries = maxEntries;
+        changeFeed.addListener(this);
+    }
+
+    // The products most similar to productId, best first; null when it is not in the index.
+    // Throws IllegalStateException while the index is not ready, as recommendations are only computed from it.
+    public List<ProductResponse> similar(String productId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        List<ProductResponse> items = cached(productId);
+        if (items == null) {
+            if (!searchIndexService.isReady()) {
+                throw new IllegalStateException("Similar products are available once the search index is built");
+            }
+            long computedAt = generation();
+            InvertedIndex index = searchIndexService.getIndex();
+            Product source = index.get(productId);
+            List<SearchHit> hits = source == null ? null : index.similar(productId, MAX_LIMIT);
+            if (hits == null) {
+                return null;
+            }
+            items = new ArrayList<>(hits.size());
+            for (SearchHit hit : hits) {
+                items.add(mapToProductResponse(hit.getProduct()));
+            }
+            put(source, items, computedAt);
+        }
+        return items.size() > limit ? items.subList(0, limit) : items;
+    }
+
+    @Override
+    public synchronized void onProductUpserted(Product product) {
+        generation++;
+        invalidateListing(product.getId());
+        remove(product.getId());
+        Set<String> terms = termsOf(product);
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> candidate = iterator.next();
+            if (!Collections.disjoint(candidate.getValue().terms, terms)) {
+                unlink(candidate.getKey(), candidate.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onProductDeleted(String productId) {
+        generation++;
+        invalidateListing(productId);
+        remove(productId);
+    }
+
+    @Override
+    public synchronized void onResync() {
+        generation++;
+        entries.clear();
+        sourcesByListedId.clear();
+    }
+
+    // The index is dropped as well, so nothing is computed or cached from here on.
+    @Override
+    public void onFeedUnavailable() {
+        onResync();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized List<ProductResponse> cached(String productId) {
+        Entry entry = entries.get(productId);
+        return entry == null ? null : entry.items;
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized void put(Product source, List<ProductResponse> items, long computedAt) {
+        if (computedAt != generation) {
+            return;
+        }
+        remove(source.getId());
+        Entry entry = new Entry(List.copyOf(items), termsOf(source));
+        entries.put(source.getId(), entry);
+        for (ProductResponse item : entry.items) {
+            sourcesByListedId.computeIfAbsent(item.getId(), id -> new HashSet<>()).add(source.getId());
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    private void invalidateListing(String productId) {
+        Set<String> sources = sourcesByListedId.remove(productId);
+        if (sources != null) {
+            new ArrayList<>(sources).forEach(this::remove);
+        }
+    }
+
+    private void remove(String sourceId) {
+        Entry entry = entries.remove(sourceId);
+        if (entry != null) {
+            unlink(sourceId, entry);
+        }
+    }
+
+    private void unlink(String sourceId, Entry entry) {
+        for (ProductResponse item : entry.items) {
+            Set<String> sources = sourcesByListedId.get(item.getId());
+            if (sources != null) {
+                sources.remove(sourceId);
+                if (sources.isEmpty()) {
+                    sourcesByListedId.remove(item.getId());
+                }
+            }
+        }
+    }
+
+    private static Set<String> termsOf(Product product) {
+        Set<String> terms = new HashSet<>(Tokenizer.tokenize(product.getName()));
+        terms.addAll(Tokenizer.tokenize(product.getDescription()));
+        terms.addAll(Tokenizer.tokenize(product.getCategory()));
+        return terms;
+    }
+
+    private static ProductResponse mapToProductResponse(Product product) {
+        ProductResponse response = new ProductResponse();
+        BeanUtils.copyProperties(product, response);
+        return response;
+    }
+
+    private record Entry(List<ProductResponse> items, Set<String> terms) {
+    }
+}
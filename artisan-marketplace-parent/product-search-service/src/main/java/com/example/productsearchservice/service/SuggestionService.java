@@ -0,0 +1,212 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.SuggestionResponse;
+import com.example.productsearchservice.index.SuggestionIndex;
+import com.example.productsearchservice.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Typeahead suggestions over product names, categories and popular search queries. Product names are weighted by
+// the read model's popularity count, so the products shown most often in results are suggested first.
+// Only names and categories are kept per product (loaded with a projection), so the prefix index can be
+// rebuilt from memory whenever products change or query counts move; it is swapped in atomically and a
+// suggest call never waits for a rebuild.
+@Service
+public class SuggestionService implements ProductChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SuggestionService.class);
+
+    static final String TYPE_QUERY = "query";
+    static final String TYPE_PRODUCT = "product";
+    static final String TYPE_CATEGORY = "category";
+    // Bounds the memory spent on query popularity; once full only already-known queries are counted.
+    private static final int MAX_TRACKED_QUERIES = 10_000;
+    // Popularity is read for the most popular products only; the rest weigh as if never shown.
+    private static final int MAX_POPULAR_PRODUCTS = 10_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final SearchProjectionService projection;
+    private final boolean enabled;
+    private final long rebuildIntervalSeconds;
+    private final Map<String, String[]> namesAndCategories = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> queryCounts = new ConcurrentHashMap<>();
+    private volatile Map<String, Long> productPopularity = Map.of();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile SuggestionIndex suggestions = SuggestionIndex.empty();
+    private ScheduledExecutorService scheduler;
+    // Set when the change feed cannot run; names and categories are then reloaded on every rebuild interval instead.
+    private boolean unfollowed;
+
+    @Autowired
+    public SuggestionService(MongoTemplate mongoTemplate, SearchProjectionService projection, ProductChangeFeed changeFeed,
+                             @Value("${search.suggest.enabled:true}") boolean enabled,
+                             @Value("${search.suggest.rebuild-interval-seconds:30}") long rebuildIntervalSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.projection = projection;
+        this.enabled = enabled;
+        this.rebuildIntervalSeconds = rebuildIntervalSeconds;
+        if (enabled) {
+            changeFeed.addListener(this);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "suggestion-index-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::reload);
+        scheduler.scheduleWithFixedDelay(() -> {
+            refreshPopularity();
+            if (dirty.getAndSet(false)) {
+                rebuild();
+            }
+        }, rebuildIntervalSeconds, rebuildIntervalSeconds, TimeUnit.SECONDS);
+        if (unfollowed) {
+            scheduleReloads();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public List<SuggestionResponse> suggest(String prefix, int limit) {
+        return suggestions.suggest(prefix, limit).stream()
+                .map(suggestion -> new SuggestionResponse(suggestion.getText(), suggestion.getType()))
+                .collect(Collectors.toList());
+    }
+
+    // Counts a search that returned results; its text becomes a suggestion weighted by how often it is searched.
+    public void recordQuery(String query) {
+        if (!enabled || !StringUtils.hasText(query)) {
+            return;
+        }
+        String normalized = String.join(" ", query.trim().toLowerCase(Locale.ROOT).split("\\s+"));
+        LongAdder count = queryCounts.get(normalized);
+        if (count == null && queryCounts.size() < MAX_TRACKED_QUERIES) {
+            count = queryCounts.computeIfAbsent(normalized, key -> new LongAdder());
+        }
+        if (count != null) {
+            count.increment();
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public void onProductUpserted(Product product) {
+        namesAndCategories.put(product.getId(), new String[]{product.getName(), product.getCategory()});
+        dirty.set(true);
+    }
+
+    @Override
+    public void onProductDeleted(String productId) {
+        if (namesAndCategories.remove(productId) != null) {
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public void onResync() {
+        if (scheduler != null) {
+            scheduler.execute(this::reload);
+        }
+    }
+
+    @Override
+    public synchronized void onFeedUnavailable() {
+        unfollowed = true;
+        if (scheduler != null) {
+            scheduleReloads();
+        }
+    }
+
+    private void scheduleReloads() {
+        scheduler.scheduleWithFixedDelay(this::reload, rebuildIntervalSeconds, rebuildIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Reloads names and categories from the products collection, fetching only those two fields.
+    void reload() {
+        try {
+            Query query = new Query();
+            query.fields().include("name").include("category");
+            Map<String, String[]> loaded = new ConcurrentHashMap<>();
+            try (Stream<Product> products = mongoTemplate.stream(query, Product.class, projection.readCollection())) {
+                products.forEach(product -> loaded.put(product.getId(), new String[]{product.getName(), product.getCategory()}));
+            }
+            namesAndCategories.keySet().retainAll(loaded.keySet());
+            namesAndCategories.putAll(loaded);
+            refreshPopularity();
+            rebuild();
+        } catch (RuntimeException e) {
+            log.error("Failed to load product names for suggestions", e);
+        }
+    }
+
+    // Reads the counts of the most popular products through the read model's popularity index; only the read model
+    // has them.
+    void refreshPopularity() {
+        if (!projection.isReady()) {
+            return;
+        }
+        try {
+            Query query = Query.query(Criteria.where("popularity").gt(0))
+                    .with(Sort.by(Sort.Direction.DESC, "popularity"))
+                    .limit(MAX_POPULAR_PRODUCTS);
+            query.fields().include("popularity");
+            Map<String, Long> loaded = new HashMap<>();
+            try (Stream<Product> products = mongoTemplate.stream(query, Product.class, projection.readCollection())) {
+                products.forEach(product -> loaded.put(product.getId(), product.getPopularity()));
+            }
+            if (!loaded.equals(productPopularity)) {
+                productPopularity = loaded;
+                dirty.set(true);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to load product popularity for suggestions", e);
+        }
+    }
+
+    void rebuild() {
+        SuggestionIndex.Builder builder = SuggestionIndex.builder();
+        queryCounts.forEach((query, count) -> builder.add(query, TYPE_QUERY, count.sum()));
+        Map<String, Long> popularity = productPopularity;
+        namesAndCategories.forEach((productId, nameAndCategory) -> {
+            builder.add(nameAndCategory[0], TYPE_PRODUCT, 1 + popularity.getOrDefault(productId, 0L));
+            builder.add(nameAndCategory[1], TYPE_CATEGORY, 1);
+        });
+        suggestions = builder.build();
+    }
+}
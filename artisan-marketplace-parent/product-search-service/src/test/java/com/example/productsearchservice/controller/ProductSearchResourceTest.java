@@ -54,9 +54,9 @@ public class ProductSearchResourceTest {
                 .param("query", "mug")
                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(1)))
-                .andExpect(jsonPath("$[0].id", is("prod1")))
-                .andExpect(jsonPath("$[0].name", is("Handmade Ceramic Mug")));
+                .andExpect(jsonPath("$.items", hasSize(1)))
+                .andExpect(jsonPath("$.items[0].id", is("prod1")))
+                .andExpect(jsonPath("$.items[0].name", is("Handmade Ceramic Mug")));
     }
 
     @Test
@@ -74,9 +74,9 @@ public class ProductSearchResourceTest {
                 .param("maxPrice", "100")
                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(2)))
-                .andExpect(jsonPath("$[0].category", is("Textiles")))
-                .andExpect(jsonPath("$[1].category", is("Textiles")));
+                .andExpect(jsonPath("$.items", hasSize(2)))
+                .andExpect(jsonPath("$.items[0].category", is("Textiles")))
+                .andExpect(jsonPath("$.items[1].category", is("Textiles")));
     }
     
     @Test
@@ -0,0 +1,149 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarCatalogTest {
+
+    private ColumnarCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        catalog = ColumnarCatalog.build(Stream.of(
+                product("p4", "Textiles", 75.0),
+                product("p1", "Pottery", 80.0),
+                product("p3", "Pottery", 25.0),
+                product("p2", "Jewelry", 10.0)));
+    }
+
+    @Test
+    void filter_appliesCategoryAndPriceInIdOrder() {
+        assertEquals(List.of("p1", "p2", "p3", "p4"), catalog.filter(query(null, null, null, null, 10)));
+        assertEquals(List.of("p1", "p3"), catalog.filter(query("Pottery", null, null, null, 10)));
+        assertEquals(List.of("p3", "p4"), catalog.filter(query(null, 25.0, 75.0, null, 10)));
+        assertEquals(List.of("p3"), catalog.filter(query("Pottery", null, 50.0, null, 10)));
+        assertTrue(catalog.filter(query("Glass", null, null, null, 10)).isEmpty());
+    }
+
+    @Test
+    void filter_pagesAfterCursor() {
+        assertEquals(List.of("p1", "p2"), catalog.filter(query(null, null, null, null, 2)));
+        assertEquals(List.of("p3", "p4"), catalog.filter(query(null, null, null, "p2", 2)));
+        assertEquals(List.of("p4"), catalog.filter(query(null, null, null, "p35", 2)));
+    }
+
+    @Test
+    void filter_mergesWritesWithTheBaseColumns() {
+        ColumnarCatalog updated = catalog
+                .withUpsert(product("p3", "Textiles", 30.0))
+                .withUpsert(product("p25", "Pottery", 5.0))
+                .withDelete("p1");
+
+        assertEquals(List.of("p2", "p25", "p3", "p4"), updated.filter(query(null, null, null, null, 10)));
+        assertEquals(List.of("p25"), updated.filter(query("Pottery", null, null, null, 10)));
+        assertEquals(4, updated.size());
+        assertEquals(List.of("p1", "p3"), catalog.filter(query("Pottery", null, null, null, 10))); // immutable
+        assertEquals(updated.filter(query(null, 5.0, 30.0, null, 10)), updated.compact().filter(query(null, 5.0, 30.0, null, 10)));
+    }
+
+    @Test
+    void filter_walksPriceAndIdOrdersForSorts() {
+        ColumnarCatalog updated = catalog.withUpsert(product("p5", "Pottery", 25.0)).withUpsert(product("p4", "Textiles", 5.0));
+
+        IndexQuery query = query(null, null, null, null, 10);
+        query.setSort(SortOrder.PRICE_ASC);
+        assertEquals(List.of("p4", "p2", "p3", "p5", "p1"), updated.filter(query));
+        query.setSort(SortOrder.PRICE_DESC);
+        assertEquals(List.of("p1", "p5", "p3", "p2", "p4"), updated.filter(query));
+        query.setSort(SortOrder.NEWEST);
+        assertEquals(List.of("p5", "p4", "p3", "p2", "p1"), updated.filter(query));
+
+        // Resume a price_desc walk in the middle of a price tie, with a price filter bounding the walk.
+        query = query(null, 10.0, 50.0, "p5", 10);
+        query.setSort(SortOrder.PRICE_DESC);
+        query.setAfterValue(25.0);
+        assertEquals(List.of("p3", "p2"), updated.filter(query));
+        query.setSort(SortOrder.PRICE_ASC);
+        query.setAfterId("p3");
+        assertEquals(List.of("p5"), updated.filter(query));
+    }
+
+    @Test
+    void filter_countsFacetsLikeTheInvertedIndex() {
+        ColumnarCatalog updated = catalog.withUpsert(product("p3", "Textiles", 30.0)).withDelete("p2");
+        InvertedIndex index = new InvertedIndex();
+        Stream.of(product("p4", "Textiles", 75.0), product("p1", "Pottery", 80.0), product("p3", "Textiles", 30.0))
+                .forEach(index::upsert);
+
+        for (IndexQuery columnar : List.of(query(null, null, null, null, 10), query("Textiles", 20.0, null, null, 10))) {
+            IndexQuery inverted = query(columnar.getCategory(), columnar.getMinPrice(), columnar.getMaxPrice(), null, 10);
+            columnar.setFacets(new FacetCounts(new double[]{0, 25, 50}));
+            inverted.setFacets(new FacetCounts(new double[]{0, 25, 50}));
+            List<String> ids = updated.filter(columnar);
+            List<String> expected = index.search(inverted).stream().map(hit -> hit.getProduct().getId()).collect(Collectors.toList());
+
+            assertEquals(expected, ids);
+            assertEquals(inverted.getFacets().getCategoryCounts(), columnar.getFacets().getCategoryCounts());
+            assertArrayEquals(inverted.getFacets().getBucketCounts(), columnar.getFacets().getBucketCounts());
+        }
+        assertEquals(Map.of("Textiles", 2L, "Pottery", 1L), facetsOf(updated).getCategoryCounts());
+    }
+
+    @Test
+    void open_mapsWhatWriteToPersisted(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("catalog.bin");
+        ColumnarCatalog updated = catalog.withUpsert(product("p5", "Glass", 40.0)).withDelete("p2");
+        updated.writeTo(file);
+
+        ColumnarCatalog reopened = ColumnarCatalog.open(file);
+
+        assertEquals(4, reopened.size());
+        assertEquals(List.of("p1", "p3", "p4", "p5"), reopened.filter(query(null, null, null, null, 10)));
+        assertEquals(List.of("p5"), reopened.filter(query("Glass", null, null, null, 10)));
+        assertEquals(List.of("p4", "p5"), reopened.filter(query(null, 30.0, 75.0, null, 10)));
+        assertEquals(List.of("p1", "p3", "p4", "p5", "p6"),
+                reopened.withUpsert(product("p6", "Glass", 1.0)).filter(query(null, null, null, null, 10)));
+
+        Files.write(file, new byte[]{1, 2, 3}, StandardOpenOption.TRUNCATE_EXISTING);
+        assertThrows(IllegalArgumentException.class, () -> ColumnarCatalog.open(file));
+    }
+
+    private static FacetCounts facetsOf(ColumnarCatalog catalog) {
+        IndexQuery query = query(null, null, null, null, 0);
+        query.setFacets(new FacetCounts(new double[]{0}));
+        catalog.filter(query);
+        return query.getFacets();
+    }
+
+    private static IndexQuery query(String category, Double minPrice, Double maxPrice, String afterId, int limit) {
+        IndexQuery query = new IndexQuery();
+        query.setCategory(category);
+        query.setMinPrice(minPrice);
+        query.setMaxPrice(maxPrice);
+        query.setAfterId(afterId);
+        query.setAfterValue(afterId == null ? null : 0.0);
+        query.setLimit(limit);
+        return query;
+    }
+
+    private static Product product(String id, String category, double price) {
+        Product product = new Product();
+        product.setId(id);
+        product.setCategory(category);
+        product.setPrice(price);
+        return product;
+    }
+}
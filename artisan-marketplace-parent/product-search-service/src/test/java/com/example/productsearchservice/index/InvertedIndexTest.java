@@ -0,0 +1,300 @@
+package com.example.productsearchservice.index;
+
+import com.example.productsearchservice.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvertedIndexTest {
+
+    private InvertedIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new InvertedIndex();
+        index.upsert(product("p1", "Ceramic Vase", "Hand thrown stoneware vase", "Pottery", 80.0));
+        index.upsert(product("p2", "Ceramic Mug", "A mug for your coffee", "Pottery", 25.0));
+        index.upsert(product("p3", "Silk Scarf", "Elegant scarf with a ceramic bead clasp", "Textiles", 75.0));
+    }
+
+    @Test
+    void search_ranksByBm25() {
+        List<SearchHit> hits = index.search(query("ceramic vases", null, null, null));
+
+        assertEquals(3, hits.size());
+        assertEquals("p1", hits.get(0).getProduct().getId());
+        assertEquals("p3", hits.get(2).getProduct().getId()); // description-only match ranks last
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+    }
+
+    @Test
+    void search_appliesCategoryAndPriceFilters() {
+        List<SearchHit> hits = index.search(query("ceramic", "Pottery", 20.0, 50.0));
+
+        assertEquals(1, hits.size());
+        assertEquals("p2", hits.get(0).getProduct().getId());
+    }
+
+    @Test
+    void search_withoutTextReturnsAllFilteredProducts() {
+        List<SearchHit> hits = index.search(query(null, "Pottery", null, null));
+
+        assertEquals(2, hits.size());
+    }
+
+    @Test
+    void upsertAndRemove_replacePreviousVersion() {
+        index.upsert(product("p2", "Enamel Mug", "A camping mug", "Metalwork", 20.0));
+        assertTrue(index.search(query("ceramic", "Pottery", null, null)).stream()
+                .noneMatch(hit -> hit.getProduct().getId().equals("p2")));
+        assertEquals(1, index.search(query("enamel", null, null, null)).size());
+
+        assertTrue(index.remove("p2"));
+        assertFalse(index.remove("p2"));
+        assertTrue(index.search(query("mug", null, null, null)).isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void repeatedUpdates_compactTombstonesWithoutLosingDocuments() {
+        for (int i = 0; i < 10_000; i++) {
+            index.upsert(product("p1", "Ceramic Vase " + i, "Hand thrown stoneware vase", "Pottery", 80.0));
+        }
+
+        assertEquals(3, index.size());
+        List<SearchHit> hits = index.search(query("9999", null, null, null));
+        assertEquals(1, hits.size());
+        assertEquals("p1", hits.get(0).getProduct().getId());
+        assertEquals(3, index.search(query("ceramic", null, null, null)).size());
+    }
+
+    @Test
+    void tokenizer_dropsStopWordsAndFoldsPlurals() {
+        assertEquals(List.of("handmade", "mug", "vase"), Tokenizer.tokenize("The Handmade MUGS, and vases!"));
+    }
+
+    @Test
+    void search_returnsOnlyTheRequestedWindowAfterTheCursor() {
+        List<SearchHit> all = index.search(query("ceramic", null, null, null));
+        IndexQuery query = query("ceramic", null, null, null);
+        query.setLimit(1);
+        List<SearchHit> first = index.search(query);
+        query.setAfterValue((double) first.get(0).getScore());
+        query.setAfterId(first.get(0).getProduct().getId());
+        List<SearchHit> second = index.search(query);
+
+        assertEquals(1, first.size());
+        assertEquals(all.get(0).getProduct().getId(), first.get(0).getProduct().getId());
+        assertEquals(1, second.size());
+        assertEquals(all.get(1).getProduct().getId(), second.get(0).getProduct().getId());
+    }
+
+    @Test
+    void search_breaksRelevanceTiesByPopularity() {
+        Product lessPopular = product("q1", "Linen Towel", "", "Linens", 12.0);
+        lessPopular.setPopularity(2);
+        Product morePopular = product("q2", "Linen Towel", "", "Linens", 12.0);
+        morePopular.setPopularity(9);
+        index.upsert(lessPopular);
+        index.upsert(morePopular);
+
+        IndexQuery query = query("linen towel", null, null, null);
+        assertEquals(List.of("q2", "q1"), ids(index.search(query)));
+        query.setLimit(1);
+        SearchHit first = index.search(query).get(0);
+        query.setAfterValue((double) first.getScore());
+        query.setAfterPopularity(first.getProduct().getPopularity());
+        query.setAfterId(first.getProduct().getId());
+        assertEquals(List.of("q1"), ids(index.search(query)));
+
+        // a change read from products carries no popularity and keeps the indexed count
+        index.upsert(product("q2", "Linen Towel", "Stonewashed", "Linens", 14.0));
+        assertEquals(9, index.get("q2").getPopularity());
+        // without query text there is no relevance to break ties in
+        assertEquals(List.of("q1", "q2"), ids(index.search(query(null, "Linens", null, null))));
+    }
+
+    @Test
+    void search_filtersAndCountsDetailsWithBitmaps() {
+        index.upsert(withDetails(product("p1", "Ceramic Vase", "Hand thrown stoneware vase", "Pottery", 80.0),
+                Map.of("material", "stoneware", "finish", "matte")));
+        index.upsert(withDetails(product("p2", "Ceramic Mug", "A mug for your coffee", "Pottery", 25.0),
+                Map.of("material", "porcelain", "finish", "glossy")));
+        index.upsert(withDetails(product("p4", "Ceramic Bowl", "Serving bowl", "Pottery", 40.0),
+                Map.of("material", "stoneware", "finish", "glossy")));
+
+        IndexQuery query = query(null, null, null, null);
+        query.setDetails(Map.of("material", List.of("stoneware", "porcelain"), "finish", List.of("glossy")));
+        query.setFacets(new FacetCounts(new double[]{0}, List.of("material", "finish")));
+        List<SearchHit> hits = index.search(query);
+
+        assertEquals(List.of("p2", "p4"), hits.stream().map(hit -> hit.getProduct().getId()).toList());
+        // Each attribute facet ignores its own filter: material counts glossy products, finish counts both materials.
+        assertEquals(Map.of("material", Map.of("porcelain", 1L, "stoneware", 1L), "finish", Map.of("glossy", 2L, "matte", 1L)),
+                query.getFacets().getDetailCounts());
+        assertEquals(Map.of("Pottery", 2L), query.getFacets().getCategoryCounts());
+
+        index.upsert(product("p4", "Ceramic Bowl", "Serving bowl", "Pottery", 40.0)); // details removed
+        query.setFacets(null);
+        assertEquals(1, index.search(query).size());
+        query.setText("ceramic");
+        assertEquals("p2", index.search(query).get(0).getProduct().getId());
+    }
+
+    @Test
+    void search_toleratesTyposWithinBudget() {
+        IndexQuery query = query("ceramc vase", null, null, null);
+        query.setFuzzy(true);
+        query.setFuzzyBudgetNanos(50_000_000);
+        List<SearchHit> hits = index.search(query);
+
+        assertEquals(3, hits.size());
+        assertEquals("p1", hits.get(0).getProduct().getId()); // exact "vase" plus near "ceramic"
+        assertEquals(Set.of("ceramc"), query.getExpandedTerms());
+
+        query.setText("silk scarff");
+        assertEquals("p3", index.search(query).get(0).getProduct().getId());
+
+        query.setText("ceramc");
+        query.setFuzzyBudgetNanos(0); // no time to look for spellings
+        assertTrue(index.search(query).isEmpty());
+        query.setFuzzy(false);
+        query.setFuzzyBudgetNanos(50_000_000);
+        assertTrue(index.search(query).isEmpty());
+    }
+
+    @Test
+    void search_sortsWithBoundedHeapAndResumesAfterCursor() {
+        IndexQuery query = query("ceramic", null, null, null);
+        query.setSort(SortOrder.PRICE_ASC);
+        assertEquals(List.of("p2", "p3", "p1"), ids(index.search(query)));
+
+        query.setSort(SortOrder.NEWEST);
+        query.setLimit(2);
+        List<SearchHit> first = index.search(query);
+        assertEquals(List.of("p3", "p2"), ids(first));
+        query.setAfterValue(SortOrder.NEWEST.valueOf(first.get(1).getProduct(), first.get(1).getScore()));
+        query.setAfterId("p2");
+        assertEquals(List.of("p1"), ids(index.search(query)));
+    }
+
+    @Test
+    void search_mergesParallelSegmentsIntoTheSequentialResult() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            InvertedIndex sequential = new InvertedIndex();
+            InvertedIndex segmented = new InvertedIndex(pool, 8);
+            for (int i = 0; i < 100; i++) {
+                Product product = withDetails(product(String.format("p%03d", i), i % 3 == 0 ? "Ceramic Vase" : "Ceramic Mug",
+                                "Glazed " + (i % 2 == 0 ? "stoneware" : "porcelain"), i % 4 == 0 ? "Pottery" : "Kitchen", i),
+                        Map.of("finish", i % 5 == 0 ? "matte" : "glossy"));
+                sequential.upsert(product);
+                segmented.upsert(product);
+            }
+            sequential.remove("p001");
+            segmented.remove("p001");
+
+            for (String text : new String[]{"ceramic vase stoneware", null}) {
+                IndexQuery sequentialQuery = query(text, null, 10.0, null);
+                sequentialQuery.setLimit(7);
+                sequentialQuery.setDetails(Map.of("finish", List.of("glossy")));
+                sequentialQuery.setFacets(new FacetCounts(new double[]{0, 50}, List.of("finish")));
+                IndexQuery segmentedQuery = query(text, null, 10.0, null);
+                segmentedQuery.setLimit(7);
+                segmentedQuery.setDetails(Map.of("finish", List.of("glossy")));
+                segmentedQuery.setFacets(new FacetCounts(new double[]{0, 50}, List.of("finish")));
+
+                List<SearchHit> expected = sequential.search(sequentialQuery);
+                List<SearchHit> actual = segmented.search(segmentedQuery);
+
+                assertEquals(ids(expected), ids(actual));
+                assertEquals(expected.get(0).getScore(), actual.get(0).getScore(), 1e-6);
+                assertEquals(sequentialQuery.getFacets().getCategoryCounts(), segmentedQuery.getFacets().getCategoryCounts());
+                assertArrayEquals(sequentialQuery.getFacets().getBucketCounts(), segmentedQuery.getFacets().getBucketCounts());
+                assertEquals(sequentialQuery.getFacets().getDetailCounts(), segmentedQuery.getFacets().getDetailCounts());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void search_stopsAtDeadlineAndMarksQueryPartial() {
+        for (int i = 0; i < 3000; i++) {
+            index.upsert(product("bulk" + i, "Ceramic Plate", "Dinner plate", "Pottery", 10.0));
+        }
+        IndexQuery query = query("ceramic", null, null, null);
+        query.setLimit(5000);
+        query.setDeadlineNanos(System.nanoTime() - 1);
+
+        List<SearchHit> hits = index.search(query);
+
+        assertTrue(query.isPartial());
+        assertTrue(hits.size() <= 1024); // stopped at the first clock check
+
+        IndexQuery unbounded = query("ceramic", null, null, null);
+        unbounded.setLimit(5000);
+        assertEquals(3003, index.search(unbounded).size());
+        assertFalse(unbounded.isPartial());
+    }
+
+    @Test
+    void similar_ranksByTfIdfCosineOverSharedTerms() {
+        index.upsert(product("p4", "Stoneware Vase", "Tall hand thrown vase", "Pottery", 60.0));
+        index.upsert(product("p5", "Wool Blanket", "Warm knitted blanket", "Textiles", 90.0));
+        index.upsert(product("p6", "Oak Board", "Cutting board", "Woodwork", 30.0));
+
+        List<SearchHit> hits = index.similar("p1", 10);
+
+        assertEquals("p4", hits.get(0).getProduct().getId()); // shares "vase", "stoneware", "hand", "thrown"
+        assertTrue(hits.get(0).getScore() > 0.5f && hits.get(0).getScore() <= 1.0001f);
+        assertFalse(ids(hits).contains("p1"));
+        assertFalse(ids(hits).contains("p5")); // nothing in common
+        assertFalse(ids(hits).contains("p6"));
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getScore() >= hits.get(i).getScore());
+        }
+
+        index.remove("p4");
+        assertFalse(ids(index.similar("p1", 10)).contains("p4"));
+        assertNull(index.similar("missing", 10));
+    }
+
+    @Test
+    void fuzzyTermMatcher_boundsEditDistance() {
+        assertEquals(1, FuzzyTermMatcher.distance("ceramc", "ceramic", 1));
+        assertEquals(1, FuzzyTermMatcher.distance("vsae", "vase", 1)); // transposition
+        assertEquals(2, FuzzyTermMatcher.distance("mug", "rugs", 1)); // gives up past the bound
+        assertEquals(0, FuzzyTermMatcher.maxDistance("mug"));
+        assertEquals(2, FuzzyTermMatcher.maxDistance("stoneware"));
+    }
+
+    private static IndexQuery query(String text, String category, Double minPrice, Double maxPrice) {
+        IndexQuery query = new IndexQuery();
+        query.setText(text);
+        query.setCategory(category);
+        query.setMinPrice(minPrice);
+        query.setMaxPrice(maxPrice);
+        query.setLimit(100);
+        return query;
+    }
+
+    private static List<String> ids(List<SearchHit> hits) {
+        return hits.stream().map(hit -> hit.getProduct().getId()).toList();
+    }
+
+    private static Product withDetails(Product product, Map<String, String> details) {
+        product.setDetails(details);
+        return product;
+    }
+
+    private static Product product(String id, String name, String description, String category, double price) {
+        return new Product(id, "artisan1", name, description, price, category, null, 1, null);
+    }
+}
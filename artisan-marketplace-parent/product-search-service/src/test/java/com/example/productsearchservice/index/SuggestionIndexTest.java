@@ -0,0 +1,65 @@
+package com.example.productsearchservice.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuggestionIndexTest {
+
+    @Test
+    void suggest_matchesWordPrefixesByPopularity() {
+        SuggestionIndex index = SuggestionIndex.builder()
+                .add("Handmade Ceramic Mug", "product", 1)
+                .add("Mug Rack", "product", 2)
+                .add("ceramic mug", "query", 7)
+                .add("Pottery", "category", 12)
+                .build();
+
+        assertEquals(List.of("ceramic mug", "Mug Rack", "Handmade Ceramic Mug"), texts(index.suggest("MU", 10)));
+        assertEquals(List.of("ceramic mug", "Handmade Ceramic Mug"), texts(index.suggest("cer", 10)));
+        assertEquals(List.of("Pottery"), texts(index.suggest("pot", 10)));
+        assertTrue(index.suggest("rug", 10).isEmpty());
+        assertTrue(index.suggest("ug", 10).isEmpty()); // only word starts match
+    }
+
+    @Test
+    void suggest_respectsLimitAndReturnsEachSuggestionOnce() {
+        SuggestionIndex.Builder builder = SuggestionIndex.builder();
+        for (int i = 0; i < 100; i++) {
+            builder.add("mug " + i, "product", i);
+        }
+        builder.add("mug mug mug", "query", 1000);
+        SuggestionIndex index = builder.build();
+
+        List<SuggestionIndex.Suggestion> suggestions = index.suggest("mug", 3);
+
+        assertEquals(List.of("mug mug mug", "mug 99", "mug 98"), texts(suggestions));
+    }
+
+    @Test
+    void builder_mergesTextsThatNormalizeAlike() {
+        SuggestionIndex index = SuggestionIndex.builder()
+                .add("Ceramic  Mug", "query", 3)
+                .add("ceramic mug ", "query", 4)
+                .add("Ceramic Bowl", "product", 5)
+                .build();
+
+        List<SuggestionIndex.Suggestion> suggestions = index.suggest("ceramic", 10);
+
+        assertEquals(2, index.size());
+        assertEquals("Ceramic  Mug", suggestions.get(0).getText());
+        assertEquals(7, suggestions.get(0).getWeight());
+    }
+
+    @Test
+    void suggest_onEmptyIndex() {
+        assertTrue(SuggestionIndex.empty().suggest("a", 5).isEmpty());
+    }
+
+    private static List<String> texts(List<SuggestionIndex.Suggestion> suggestions) {
+        return suggestions.stream().map(SuggestionIndex.Suggestion::getText).collect(Collectors.toList());
+    }
+}
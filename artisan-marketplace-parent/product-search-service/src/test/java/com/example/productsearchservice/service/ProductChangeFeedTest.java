@@ -0,0 +1,205 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.model.Product;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductChangeFeedTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> products;
+
+    @Mock
+    private ChangeStreamIterable<Document> stream;
+
+    @Mock
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+    private ProductChangeFeed feed;
+    private List<String> calls;
+
+    @BeforeEach
+    void setUp() {
+        feed = new ProductChangeFeed(mongoTemplate, true, 0);
+        calls = new CopyOnWriteArrayList<>();
+        lenient().when(mongoTemplate.getCollection("products")).thenReturn(products);
+        lenient().when(products.watch(anyList())).thenReturn(stream);
+        lenient().when(stream.fullDocument(FullDocument.UPDATE_LOOKUP)).thenReturn(stream);
+        lenient().when(stream.maxAwaitTime(anyLong(), any(TimeUnit.class))).thenReturn(stream);
+        lenient().when(stream.resumeAfter(any(BsonDocument.class))).thenReturn(stream);
+        lenient().when(mongoTemplate.getConverter())
+                .thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        feed.stop();
+    }
+
+    @Test
+    void start_dispatchesInListenerOrderAndCheckpointsTheResumeToken() {
+        ChangeStreamDocument<Document> upsert = event(OperationType.INSERT, new Document("_id", "p1").append("name", "Mug"));
+        ChangeStreamDocument<Document> delete = event(OperationType.DELETE, null);
+        when(delete.getDocumentKey()).thenReturn(new BsonDocument("_id", new BsonString("p2")));
+        when(stream.cursor()).thenReturn(cursor);
+        when(cursor.tryNext()).thenReturn(upsert, delete, null);
+        when(cursor.getResumeToken()).thenReturn(token("t1"), token("t2"), token("t3"));
+        // Added first, notified last: the index has to see a change before caches built on it are invalidated
+        feed.addListener(new RecordingListener("cache", calls));
+        feed.addListener(new IndexListener(calls));
+
+        feed.start();
+
+        ArgumentCaptor<Update> checkpoint = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, timeout(2000).atLeast(3))
+                .upsert(any(Query.class), checkpoint.capture(), eq(ProductChangeFeed.CHECKPOINT_COLLECTION));
+        feed.stop();
+        assertEquals(List.of("index upsert p1", "cache upsert p1", "index delete p2", "cache delete p2"),
+                calls.stream().filter(call -> !call.contains("checkpoint")).limit(4).toList());
+        assertTrue(calls.contains("index checkpoint t1"));
+        assertEquals("t1", checkpoint.getAllValues().get(0).getUpdateObject().get("$set", Document.class).get("resumeToken"));
+    }
+
+    @Test
+    void start_resumesAfterTheStoredCheckpoint() {
+        when(mongoTemplate.findById(ProductChangeFeed.CHECKPOINT_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION))
+                .thenReturn(new Document("resumeToken", "t7"));
+        when(stream.cursor()).thenReturn(cursor);
+
+        feed.start();
+
+        verify(stream, timeout(2000)).resumeAfter(token("t7"));
+    }
+
+    @Test
+    void start_prefersTheSnapshotTokenOverTheCheckpoint() {
+        when(stream.cursor()).thenReturn(cursor);
+        feed.resumeFrom("t3");
+
+        feed.start();
+
+        verify(stream, timeout(2000)).resumeAfter(token("t3"));
+        verify(mongoTemplate, never()).findById(any(), eq(Document.class), eq(ProductChangeFeed.CHECKPOINT_COLLECTION));
+    }
+
+    @Test
+    void start_asksListenersToResyncWhenTheStreamCannotBeResumed() {
+        when(stream.cursor()).thenThrow(commandFailure(286)).thenReturn(cursor);
+        ProductChangeListener listener = mock(ProductChangeListener.class);
+        feed.addListener(listener);
+
+        feed.start();
+
+        verify(listener, timeout(2000)).onResync();
+        verify(mongoTemplate).remove(any(Query.class), eq(ProductChangeFeed.CHECKPOINT_COLLECTION));
+        verify(listener, never()).onFeedUnavailable();
+    }
+
+    @Test
+    void start_tellsListenersWhenTheServerIsNotAReplicaSet() {
+        when(stream.cursor()).thenThrow(commandFailure(40573));
+        ProductChangeListener listener = mock(ProductChangeListener.class);
+        feed.addListener(listener);
+
+        feed.start();
+
+        verify(listener, timeout(2000)).onFeedUnavailable();
+        verify(listener, never()).onResync();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChangeStreamDocument<Document> event(OperationType type, Document fullDocument) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getOperationType()).thenReturn(type);
+        lenient().when(event.getFullDocument()).thenReturn(fullDocument);
+        return event;
+    }
+
+    private static BsonDocument token(String data) {
+        return new BsonDocument("_data", new BsonString(data));
+    }
+
+    private static MongoCommandException commandFailure(int code) {
+        return new MongoCommandException(new BsonDocument("ok", new BsonInt32(0)).append("code", new BsonInt32(code))
+                .append("errmsg", new BsonString("failed with " + code)), new ServerAddress());
+    }
+
+    private static class RecordingListener implements ProductChangeListener {
+
+        private final String name;
+        private final List<String> calls;
+
+        RecordingListener(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public void onProductUpserted(Product product) {
+            calls.add(name + " upsert " + product.getId());
+        }
+
+        @Override
+        public void onProductDeleted(String productId) {
+            calls.add(name + " delete " + productId);
+        }
+
+        @Override
+        public void onCheckpoint(String resumeToken) {
+            calls.add(name + " checkpoint " + resumeToken);
+        }
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    private static class IndexListener extends RecordingListener {
+
+        IndexListener(List<String> calls) {
+            super("index", calls);
+        }
+    }
+}
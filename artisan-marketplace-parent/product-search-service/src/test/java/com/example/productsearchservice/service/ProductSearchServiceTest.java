@@ -1,25 +1,47 @@
 package com.example.productsearchservice.service;
 
+import com.example.productsearchservice.dto.PriceBucket;
 import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.dto.ProductSearchPage;
+import com.example.productsearchservice.dto.ProductSearchRequest;
+import com.example.productsearchservice.index.ColumnarCatalog;
+import com.example.productsearchservice.index.IndexQuery;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.index.SortOrder;
 import com.example.productsearchservice.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import com.mongodb.MongoExecutionTimeoutException;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.data.mongodb.core.query.Query;
 
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,13 +50,33 @@ public class ProductSearchServiceTest {
     @Mock
     private MongoTemplate mongoTemplate;
 
-    @InjectMocks
+    @Mock
+    private SearchIndexService searchIndexService;
+
+    @Mock
+    private ColumnarCatalogService columnarCatalogService;
+
+    @Mock
+    private SearchProjectionService searchProjectionService;
+
+    @Mock
+    private SearchResultCache searchResultCache;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private ProductSearchService productSearchService;
 
     private Product product;
 
     @BeforeEach
     void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        lenient().when(searchProjectionService.readCollection()).thenReturn("products");
+        productSearchService = new ProductSearchService(mongoTemplate, searchIndexService, columnarCatalogService,
+                searchProjectionService, searchResultCache,
+                new SearchCoalescer(new SimpleMeterRegistry(), true), meterRegistry, 50, 500,
+                new double[]{0, 25, 50, 100}, true, 2000, 250, 500);
+
         product = new Product();
         product.setId("prod123");
         product.setName("Test Product");
@@ -48,7 +90,7 @@ public class ProductSearchServiceTest {
         when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
                 .thenReturn(Collections.singletonList(product));
 
-        List<ProductResponse> responses = productSearchService.searchProducts("test", null, null, null);
+        List<ProductResponse> responses = productSearchService.searchProducts(request("test", null, null, null)).getItems();
 
         assertFalse(responses.isEmpty());
         assertEquals(1, responses.size());
@@ -66,7 +108,7 @@ public class ProductSearchServiceTest {
         when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
                 .thenReturn(Collections.singletonList(product));
 
-        List<ProductResponse> responses = productSearchService.searchProducts(null, "Test Category", 20.0, 100.0);
+        List<ProductResponse> responses = productSearchService.searchProducts(request(null, "Test Category", 20.0, 100.0)).getItems();
 
         assertFalse(responses.isEmpty());
         assertEquals(1, responses.size());
@@ -93,8 +135,297 @@ public class ProductSearchServiceTest {
         when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
                 .thenReturn(Collections.emptyList());
         
-        List<ProductResponse> responses = productSearchService.searchProducts("nonexistent", null, null, null);
+        List<ProductResponse> responses = productSearchService.searchProducts(request("nonexistent", null, null, null)).getItems();
         
         assertTrue(responses.isEmpty());
     }
+
+    @Test
+    void searchProducts_servedFromIndexWhenReady() {
+        Product other = new Product("prod456", "artisan1", "Linen Scarf", "Woven by hand, not a test", 30.0, "Textiles", null, 5, null);
+        InvertedIndex index = new InvertedIndex();
+        index.upsert(other);
+        index.upsert(product);
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        List<ProductResponse> responses = productSearchService.searchProducts(request("test", null, null, null)).getItems();
+
+        assertEquals(2, responses.size());
+        assertEquals("prod123", responses.get(0).getId()); // name match outranks description match
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void searchProducts_pagesThroughIndexWithCursor() {
+        InvertedIndex index = new InvertedIndex();
+        for (int i = 0; i < 5; i++) {
+            index.upsert(new Product("prod" + i, "artisan1", "Mug " + i, "Stoneware mug", 10.0 + i, "Pottery", null, 1, null));
+        }
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        ProductSearchRequest request = request(null, "Pottery", null, null);
+        request.setLimit(2);
+        ProductSearchPage first = productSearchService.searchProducts(request);
+        request.setAfter(first.getNext());
+        ProductSearchPage second = productSearchService.searchProducts(request);
+        request.setAfter(second.getNext());
+        ProductSearchPage third = productSearchService.searchProducts(request);
+
+        assertEquals(List.of("prod0", "prod1"), first.getItems().stream().map(ProductResponse::getId).toList());
+        assertEquals(List.of("prod2", "prod3"), second.getItems().stream().map(ProductResponse::getId).toList());
+        assertEquals(List.of("prod4"), third.getItems().stream().map(ProductResponse::getId).toList());
+        assertNull(third.getNext());
+    }
+
+    @Test
+    void searchProducts_filterOnlyPicksIdsFromColumnarCatalogAndLoadsOnlyThePage() {
+        List<Product> catalogProducts = new java.util.ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            catalogProducts.add(new Product("prod" + i, null, null, null, 10.0 * i, i % 2 == 0 ? "Pottery" : "Textiles", null, 0, null));
+        }
+        when(columnarCatalogService.isReady()).thenReturn(true);
+        when(columnarCatalogService.getCatalog()).thenReturn(ColumnarCatalog.build(catalogProducts.stream()));
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
+                .thenReturn(List.of(catalogProducts.get(2), catalogProducts.get(4)));
+
+        ProductSearchRequest request = request(null, "Pottery", 5.0, null);
+        request.setLimit(1);
+        ProductSearchPage page = productSearchService.searchProducts(request);
+
+        assertEquals(List.of("prod2"), page.getItems().stream().map(ProductResponse::getId).toList());
+        assertNotNull(page.getNext());
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        // limit + 1 ids: prod2 and prod4 are the Pottery products priced 5 or more
+        assertEquals(new org.bson.Document("$in", List.of("prod2", "prod4")), queryCaptor.getValue().getQueryObject().get("id"));
+    }
+
+    @Test
+    void searchProducts_mongoFallbackPushesCursorAndLimitIntoQuery() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
+                .thenReturn(Collections.singletonList(product));
+        ProductSearchRequest request = request(null, "Test Category", null, null);
+        request.setLimit(1);
+        request.setAfter(new SearchCursor(SortOrder.RELEVANCE, 0, 0, "prod100").encode());
+
+        ProductSearchPage page = productSearchService.searchProducts(request);
+
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNext()); // a single product came back for a limit + 1 read
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        Query capturedQuery = queryCaptor.getValue();
+        assertEquals(2, capturedQuery.getLimit());
+        assertEquals(1, capturedQuery.getSortObject().getInteger("id"));
+        @SuppressWarnings("unchecked")
+        List<org.bson.Document> andClauses = (List<org.bson.Document>) capturedQuery.getQueryObject().get("$and");
+        assertTrue(andClauses.stream().anyMatch(doc -> doc.containsKey("id")
+                && "prod100".equals(doc.get("id", org.bson.Document.class).get("$gt"))));
+    }
+
+    @Test
+    void searchProducts_mongoFallbackFiltersOnDetailsAndRejectsUnsafeKeys() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
+                .thenReturn(Collections.singletonList(product));
+        ProductSearchRequest request = request(null, null, null, null);
+        request.setDetails(java.util.Map.of("material", List.of("oak", "ash")));
+
+        productSearchService.searchProducts(request);
+
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        @SuppressWarnings("unchecked")
+        List<org.bson.Document> andClauses = (List<org.bson.Document>) queryCaptor.getValue().getQueryObject().get("$and");
+        assertEquals(new org.bson.Document("$in", List.of("oak", "ash")), andClauses.get(0).get("details.material"));
+
+        request.setDetails(java.util.Map.of("$where", List.of("1")));
+        assertThrows(IllegalArgumentException.class, () -> productSearchService.searchProducts(request));
+    }
+
+    @Test
+    void searchProducts_sortsByPriceWithCursorTiedToTheSort() {
+        InvertedIndex index = new InvertedIndex();
+        for (int i = 0; i < 5; i++) {
+            index.upsert(new Product("prod" + i, "artisan1", "Mug " + i, "Stoneware mug", 10.0 * ((i * 3) % 5), "Pottery", null, 1, null));
+        }
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        ProductSearchRequest request = request("mug", null, null, null);
+        request.setSort("price_desc");
+        request.setLimit(3);
+        ProductSearchPage first = productSearchService.searchProducts(request);
+        request.setAfter(first.getNext());
+        ProductSearchPage second = productSearchService.searchProducts(request);
+
+        assertEquals(List.of(40.0, 30.0, 20.0), first.getItems().stream().map(ProductResponse::getPrice).toList());
+        assertEquals(List.of(10.0, 0.0), second.getItems().stream().map(ProductResponse::getPrice).toList());
+        request.setSort("newest");
+        assertThrows(IllegalArgumentException.class, () -> productSearchService.searchProducts(request));
+        request.setSort("cheapest");
+        assertThrows(IllegalArgumentException.class, () -> productSearchService.searchProducts(request));
+    }
+
+    @Test
+    void searchProducts_mongoFallbackPagesByPriceThenId() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
+                .thenReturn(Collections.singletonList(product));
+        ProductSearchRequest request = request(null, null, null, null);
+        request.setSort("price_asc");
+        request.setAfter(new SearchCursor(SortOrder.PRICE_ASC, 25.0, 0, "prod100").encode());
+
+        productSearchService.searchProducts(request);
+
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        Query capturedQuery = queryCaptor.getValue();
+        assertEquals(new org.bson.Document("price", 1).append("id", 1), capturedQuery.getSortObject());
+        assertTrue(capturedQuery.getQueryObject().toJson().contains("\"$or\""));
+    }
+
+    @Test
+    void searchProducts_mongoFallbackReadsOnlyTheSelectedFields() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products")))
+                .thenReturn(Collections.singletonList(product));
+        ProductSearchRequest request = request("test", null, null, null);
+        request.setSort("price_desc");
+        request.setFields("name,images");
+
+        productSearchService.searchProducts(request);
+
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        assertEquals(new org.bson.Document("id", 1).append("name", 1).append("images", 1).append("price", 1),
+                queryCaptor.getValue().getFieldsObject());
+        request.setFields("name,colour");
+        assertThrows(IllegalArgumentException.class, () -> productSearchService.searchProducts(request));
+    }
+
+    @Test
+    void searchProducts_mongoFallbackMatchesTokensFacetsAndCentsOfTheReadModel() {
+        when(searchProjectionService.readCollection()).thenReturn("search_products");
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("search_products")))
+                .thenReturn(Collections.singletonList(product));
+        ProductSearchRequest request = request("Blue vases", null, 10.0, 19.99);
+        request.setDetails(Map.of("color", List.of("blue", "navy")));
+
+        productSearchService.searchProducts(request);
+
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("search_products"));
+        org.bson.Document filter = queryCaptor.getValue().getQueryObject();
+        assertEquals(new org.bson.Document("$in", List.of("blue", "vase")), filter.get("tokens")); // stemmed like the index
+        assertFalse(filter.containsKey("$text"));
+        assertTrue(filter.toJson().contains("\"facets\": {\"$in\": [\"color=blue\", \"color=navy\"]}"));
+        assertTrue(filter.toJson().contains("\"priceCents\": {\"$gte\": 1000, \"$lte\": 1999}")); // 19.99 * 100 < 1999
+    }
+
+    @Test
+    void searchProducts_rejectsMalformedCursor() {
+        ProductSearchRequest request = request("test", null, null, null);
+        request.setAfter("not-a-cursor");
+
+        assertThrows(IllegalArgumentException.class, () -> productSearchService.searchProducts(request));
+    }
+
+    @Test
+    void streamProducts_walksTheIndexOneChunkAtATime() {
+        InvertedIndex index = spy(new InvertedIndex());
+        for (int i = 0; i < 1200; i++) {
+            index.upsert(new Product(String.format("prod%04d", i), "artisan1", "Mug", "Stoneware mug", 10.0, "Pottery", null, 1, null));
+        }
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        List<String> ids = productSearchService.streamProducts(request("mug", null, null, null))
+                .map(ProductResponse::getId).toList();
+
+        assertEquals(1200, ids.size());
+        assertEquals("prod0000", ids.get(0));
+        assertEquals("prod1199", ids.get(1199));
+        assertEquals(1200, ids.stream().distinct().count());
+        verify(index, times(3)).search(any(IndexQuery.class)); // chunks of 500, 500 and 200
+    }
+
+    @Test
+    void searchProducts_countsFacetsOverAllMatchesInTheSamePass() {
+        InvertedIndex index = new InvertedIndex();
+        index.upsert(new Product("prod1", "artisan1", "Ceramic Mug", "Stoneware mug", 20.0, "Pottery", null, 1, null));
+        index.upsert(new Product("prod2", "artisan1", "Ceramic Vase", "Tall vase", 80.0, "Pottery", null, 1, null));
+        index.upsert(new Product("prod3", "artisan1", "Ceramic Beads", "Bead necklace", 30.0, "Jewelry", null, 1, null));
+        index.upsert(new Product("prod4", "artisan1", "Wool Scarf", "Knitted scarf", 30.0, "Textiles", null, 1, null));
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        ProductSearchRequest request = request("ceramic", "Pottery", null, 50.0);
+        request.setFacets(true);
+        request.setLimit(1);
+        ProductSearchPage page = productSearchService.searchProducts(request);
+
+        assertEquals(List.of("prod1"), page.getItems().stream().map(ProductResponse::getId).toList());
+        // categories ignore the category filter, prices ignore the price filter
+        assertEquals(1L, page.getFacets().getCategories().get("Pottery"));
+        assertEquals(1L, page.getFacets().getCategories().get("Jewelry"));
+        assertNull(page.getFacets().getCategories().get("Textiles"));
+        assertEquals(List.of(1L, 0L, 1L, 0L), page.getFacets().getPrices().stream().map(PriceBucket::getCount).toList());
+        assertNull(page.getFacets().getPrices().get(3).getTo());
+    }
+
+    @Test
+    void searchProducts_mongoFallbackUsesSingleFacetAggregation() {
+        org.bson.Document output = new org.bson.Document("results", List.of(new org.bson.Document("_id", "prod123").append("name", "Test Product")))
+                .append("categories", List.of(new org.bson.Document("_id", "Test Category").append("count", 3)))
+                .append("prices", List.of(new org.bson.Document("_id", 25.0).append("count", 2),
+                        new org.bson.Document("_id", "other").append("count", 1)));
+        when(mongoTemplate.aggregate(any(TypedAggregation.class), eq("products"), eq(org.bson.Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(output), new org.bson.Document()));
+        when(mongoTemplate.getConverter())
+                .thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+
+        ProductSearchRequest request = request("test", "Test Category", null, null);
+        request.setFacets(true);
+        ProductSearchPage page = productSearchService.searchProducts(request);
+
+        assertEquals("prod123", page.getItems().get(0).getId());
+        assertEquals(3L, page.getFacets().getCategories().get("Test Category"));
+        assertEquals(List.of(0L, 2L, 0L, 0L), page.getFacets().getPrices().stream().map(PriceBucket::getCount).toList());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<TypedAggregation<Product>> aggregationCaptor = ArgumentCaptor.forClass(TypedAggregation.class);
+        verify(mongoTemplate).aggregate(aggregationCaptor.capture(), eq("products"), eq(org.bson.Document.class));
+        List<org.bson.Document> pipeline = aggregationCaptor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(2, pipeline.size());
+        assertNotNull(pipeline.get(0).get("$match", org.bson.Document.class).get("$text"));
+        org.bson.Document facet = pipeline.get(1).get("$facet", org.bson.Document.class);
+        assertTrue(facet.keySet().containsAll(List.of("results", "categories", "prices")));
+    }
+
+    @Test
+    void searchProducts_mongoTimeoutReturnsPartialPageAndCountsShape() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class), eq("products"))).thenThrow(
+                new UncategorizedMongoDbException("timeout", new MongoExecutionTimeoutException(50, "operation exceeded time limit")));
+
+        ProductSearchPage page = productSearchService.searchProducts(request("mug", null, null, null));
+
+        assertTrue(page.isPartial());
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNext());
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(queryCaptor.capture(), eq(Product.class), eq("products"));
+        Long maxTime = queryCaptor.getValue().getMeta().getMaxTimeMsec();
+        assertTrue(maxTime != null && maxTime > 0 && maxTime <= 250);
+        assertEquals(1.0, meterRegistry.counter("search.timeouts", "backend", "mongo", "shape", "text", "sort", "relevance").count());
+        verify(searchResultCache, never()).put(any(), any(), anyLong());
+    }
+
+    private static ProductSearchRequest request(String query, String category, Double minPrice, Double maxPrice) {
+        ProductSearchRequest request = new ProductSearchRequest();
+        request.setQuery(query);
+        request.setCategory(category);
+        request.setMinPrice(minPrice);
+        request.setMaxPrice(maxPrice);
+        return request;
+    }
 }
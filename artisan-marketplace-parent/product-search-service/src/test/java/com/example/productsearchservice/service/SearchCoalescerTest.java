@@ -0,0 +1,106 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductSearchPage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchCoalescerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SearchCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new SearchCoalescer(meterRegistry, true);
+    }
+
+    @Test
+    void execute_sharesOneSearchAmongConcurrentIdenticalRequests() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger searches = new AtomicInteger();
+        ProductSearchPage page = new ProductSearchPage();
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            Future<ProductSearchPage> leader = callers.submit(() -> coalescer.execute("mug", () -> {
+                searches.incrementAndGet();
+                started.countDown();
+                await(release);
+                return page;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            List<Future<ProductSearchPage>> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(callers.submit(() -> coalescer.execute("mug", () -> {
+                    searches.incrementAndGet();
+                    return new ProductSearchPage();
+                })));
+            }
+            while (meterRegistry.counter("search.coalescing.requests", "result", "shared").count() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertSame(page, leader.get(5, TimeUnit.SECONDS));
+            for (Future<ProductSearchPage> follower : followers) {
+                assertSame(page, follower.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, searches.get());
+            assertEquals(0.75, coalescer.coalescingRatio());
+        } finally {
+            callers.shutdownNow();
+        }
+
+        // Finished searches are not reused.
+        assertNotSame(page, coalescer.execute("mug", ProductSearchPage::new));
+        assertEquals(2.0, meterRegistry.counter("search.coalescing.requests", "result", "executed").count());
+    }
+
+    @Test
+    void execute_propagatesTheSharedFailureAndForgetsIt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<ProductSearchPage> leader = callers.submit(() -> coalescer.execute("bad", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalArgumentException("Invalid cursor");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<ProductSearchPage> follower = callers.submit(() -> coalescer.execute("bad", ProductSearchPage::new));
+            while (meterRegistry.counter("search.coalescing.requests", "result", "shared").count() < 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            Exception failure = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+            assertInstanceOf(IllegalArgumentException.class, assertThrows(Exception.class, leader::get).getCause());
+        } finally {
+            callers.shutdownNow();
+        }
+        assertNotNull(coalescer.execute("bad", ProductSearchPage::new));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchProjectionServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ProductChangeFeed changeFeed;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Test
+    void projection_setsTheFieldsSearchMatchesOn() {
+        Product product = new Product();
+        product.setId("p1");
+        product.setName("Ceramic Vase");
+        product.setDescription("A handmade vase");
+        product.setCategory("Pottery");
+        product.setPrice(19.99);
+        product.setDetails(Map.of("material", "clay", "color", "blue"));
+
+        Document update = SearchProjectionService.projection(product, "run-1").getUpdateObject();
+        Document set = update.get("$set", Document.class);
+
+        assertEquals("Ceramic Vase", set.get("name"));
+        assertEquals(List.of("ceramic", "handmade", "pottery", "vase"), set.get("tokens"));
+        assertEquals(List.of("category=Pottery", "color=blue", "material=clay"), set.get("facets"));
+        assertEquals("run-1", set.get("projectionRun"));
+        assertEquals(1999L, set.get("priceCents"));
+        assertFalse(set.containsKey("popularity")); // counted impressions survive re-projection
+        assertEquals(0L, update.get("$setOnInsert", Document.class).get("popularity"));
+    }
+
+    @Test
+    void recordImpressions_areAddedToPopularityInOneBatch() {
+        SearchProjectionService service = new SearchProjectionService(mongoTemplate, changeFeed, new SimpleMeterRegistry(),
+                true, true, "search_products", 30);
+        when(mongoTemplate.findById(SearchProjectionService.MARKER_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION))
+                .thenReturn(new Document("collection", "search_products").append("run", "run-1"));
+        when(mongoTemplate.findById(ProductChangeFeed.CHECKPOINT_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION))
+                .thenReturn(new Document("resumeToken", "t1"));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class, "search_products")).thenReturn(bulkOperations);
+        service.start();
+
+        service.recordImpressions(List.of(response("p1"), response("p2")));
+        service.recordImpressions(List.of(response("p1")));
+        service.stop(); // flushes what has not been written yet
+
+        ArgumentCaptor<Update> increments = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).updateOne(any(Query.class), increments.capture());
+        verify(bulkOperations).execute();
+        assertEquals(List.of(new Document("popularity", 2L), new Document("popularity", 1L)), increments.getAllValues().stream()
+                .map(update -> update.getUpdateObject().get("$inc", Document.class))
+                .sorted(Comparator.comparing(inc -> -inc.getLong("popularity")))
+                .toList());
+    }
+
+    @Test
+    void rebuild_appliesChangesQueuedDuringAFailedRebuild() {
+        SearchProjectionService service = new SearchProjectionService(mongoTemplate, changeFeed, new SimpleMeterRegistry(),
+                true, true, "search_products", 30);
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class), eq("products"))).thenAnswer(invocation -> {
+            service.onProductDeleted("p9"); // arrives while the rebuild is scanning products
+            throw new DataAccessResourceFailureException("connection lost");
+        });
+
+        service.rebuild();
+
+        verify(mongoTemplate).remove(any(Query.class), eq(Product.class), eq("search_products"));
+        assertFalse(service.isReady());
+    }
+
+    @Test
+    void readCollection_isProductsUntilTheReadModelIsBuilt() {
+        SearchProjectionService service = new SearchProjectionService(mongoTemplate, changeFeed, new SimpleMeterRegistry(),
+                true, true, "search_products", 30);
+
+        assertFalse(service.isReady());
+        assertEquals("products", service.readCollection());
+    }
+
+    @Test
+    void readCollection_isProductsWhenTheChangeFeedCannotRun() {
+        SearchProjectionService service = new SearchProjectionService(mongoTemplate, changeFeed, new SimpleMeterRegistry(),
+                true, true, "search_products", 30);
+        when(mongoTemplate.findById(SearchProjectionService.MARKER_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION))
+                .thenReturn(new Document("collection", "search_products").append("run", "run-1"));
+        when(mongoTemplate.findById(ProductChangeFeed.CHECKPOINT_ID, Document.class, ProductChangeFeed.CHECKPOINT_COLLECTION))
+                .thenReturn(new Document("resumeToken", "t1"));
+        service.start();
+        assertTrue(service.isReady());
+
+        service.onFeedUnavailable();
+        service.rebuild();
+
+        assertFalse(service.isReady());
+        assertEquals("products", service.readCollection());
+        service.stop();
+    }
+
+    private static ProductResponse response(String id) {
+        ProductResponse response = new ProductResponse();
+        response.setId(id);
+        return response;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.dto.ProductSearchPage;
+import com.example.productsearchservice.dto.ProductSearchRequest;
+import com.example.productsearchservice.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchResultCacheTest {
+
+    @Mock
+    private ProductChangeFeed changeFeed;
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong clock;
+    private SearchResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new AtomicLong();
+        cache = new SearchResultCache(changeFeed, meterRegistry, true, 2, 60, clock::get);
+    }
+
+    @Test
+    void get_hitsOnNormalizedQuery() {
+        cache.put(request("Ceramic MUGS", null), page("prod1"), cache.generation());
+
+        assertNotNull(cache.get(request("mug ceramic", null)));
+        assertNull(cache.get(request("mug", null)));
+        assertEquals(1.0, meterRegistry.counter("search.cache.requests", "result", "hit").count());
+        assertEquals(1.0, meterRegistry.counter("search.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    void entries_expireAfterTtl() {
+        cache.put(request("mug", null), page("prod1"), cache.generation());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(61));
+
+        assertNull(cache.get(request("mug", null)));
+        assertEquals(1.0, meterRegistry.counter("search.cache.evictions", "cause", "expired").count());
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsedBeyondCapacity() {
+        cache.put(request("mug", null), page("prod1"), cache.generation());
+        cache.put(request("vase", null), page("prod2"), cache.generation());
+        cache.get(request("mug", null));
+        cache.put(request("scarf", null), page("prod3"), cache.generation());
+
+        assertNotNull(cache.get(request("mug", null)));
+        assertNull(cache.get(request("vase", null)));
+        assertEquals(1.0, meterRegistry.counter("search.cache.evictions", "cause", "size").count());
+    }
+
+    @Test
+    void writes_invalidateOnlyAffectedEntries() {
+        cache.put(request("mug", "Pottery"), page("prod1"), cache.generation());
+        cache.put(request("scarf", "Textiles"), page("prod2"), cache.generation());
+
+        cache.onProductDeleted("prod1");
+        assertNull(cache.get(request("mug", "Pottery")));
+        assertNotNull(cache.get(request("scarf", "Textiles")));
+
+        // a new product that matches the query invalidates the entry even though it was not on the page
+        cache.onProductUpserted(new Product("prod9", "artisan1", "Silk Scarf", "", 40.0, "Textiles", null, 1, null));
+        assertNull(cache.get(request("scarf", "Textiles")));
+    }
+
+    @Test
+    void writes_invalidateEntriesServedThroughNearSpellings() {
+        ProductSearchPage typo = page("prod1");
+        typo.setExpandedTerms(Set.of("ceramc"));
+        cache.put(request("ceramc", null), typo, cache.generation());
+        cache.put(request("vase", null), page("prod2"), cache.generation());
+
+        // not on either page and not an exact query term, but a near spelling the "ceramc" page was searched with
+        cache.onProductUpserted(new Product("prod9", "artisan1", "Ceramic Bowl", "", 25.0, "Pottery", null, 1, null));
+
+        assertNull(cache.get(request("ceramc", null)));
+        assertNotNull(cache.get(request("vase", null)));
+    }
+
+    @Test
+    void put_discardsPagesComputedBeforeAnInvalidation() {
+        long generation = cache.generation();
+        cache.onProductDeleted("prod1");
+        cache.put(request("mug", null), page("prod1"), generation);
+
+        assertEquals(0, cache.size());
+    }
+
+    private static ProductSearchRequest request(String query, String category) {
+        ProductSearchRequest request = new ProductSearchRequest();
+        request.setQuery(query);
+        request.setCategory(category);
+        return request;
+    }
+
+    private static ProductSearchPage page(String... ids) {
+        ProductSearchPage page = new ProductSearchPage();
+        page.setItems(Arrays.stream(ids).map(id -> {
+            ProductResponse response = new ProductResponse();
+            response.setId(id);
+            return response;
+        }).toList());
+        return page;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.index.ColumnarCatalog;
+import com.example.productsearchservice.index.IndexQuery;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.index.SearchHit;
+import com.example.productsearchservice.model.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchSnapshotServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ProductChangeFeed changeFeed;
+
+    @Mock
+    private SearchIndexService searchIndexService;
+
+    @Mock
+    private ColumnarCatalogService columnarCatalogService;
+
+    @TempDir
+    Path directory;
+
+    private SearchSnapshotService snapshots;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(mongoTemplate.getConverter())
+                .thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        lenient().when(searchIndexService.isEnabled()).thenReturn(true);
+        lenient().when(columnarCatalogService.isEnabled()).thenReturn(true);
+        snapshots = snapshotService();
+    }
+
+    @AfterEach
+    void tearDown() {
+        snapshots.stop();
+    }
+
+    @Test
+    void restore_readsBackTheSnapshotTakenAtACheckpoint() throws Exception {
+        List<Product> products = List.of(
+                new Product("p1", "artisan1", "Ceramic Vase", "Hand thrown", 45.0, "Pottery", List.of("vase.jpg"), 3,
+                        Map.of("color", "blue")),
+                new Product("p2", "artisan2", "Silk Scarf", "Hand dyed", 30.0, "Textiles", null, 1, null));
+        InvertedIndex index = new InvertedIndex();
+        products.forEach(index::upsert);
+        when(searchIndexService.getIndex()).thenReturn(index);
+        when(columnarCatalogService.getCatalog()).thenReturn(ColumnarCatalog.build(products.stream()));
+
+        snapshots.onCheckpoint("t5");
+        awaitManifest();
+
+        SearchSnapshotService restarted = snapshotService();
+        when(searchIndexService.newIndex()).thenReturn(new InvertedIndex());
+        restarted.restore();
+        restarted.stop();
+
+        ArgumentCaptor<InvertedIndex> restoredIndex = ArgumentCaptor.forClass(InvertedIndex.class);
+        ArgumentCaptor<ColumnarCatalog> restoredCatalog = ArgumentCaptor.forClass(ColumnarCatalog.class);
+        verify(searchIndexService).install(restoredIndex.capture());
+        verify(columnarCatalogService).install(restoredCatalog.capture());
+        verify(changeFeed).resumeFrom("t5");
+
+        IndexQuery text = new IndexQuery();
+        text.setText("vase");
+        text.setLimit(10);
+        List<SearchHit> hits = restoredIndex.getValue().search(text);
+        assertEquals(1, hits.size());
+        assertEquals(products.get(0), hits.get(0).getProduct());
+        assertEquals(2, restoredIndex.getValue().liveDocuments().size());
+
+        IndexQuery filter = new IndexQuery();
+        filter.setCategory("Textiles");
+        filter.setLimit(10);
+        assertEquals(List.of("p2"), restoredCatalog.getValue().filter(filter));
+    }
+
+    @Test
+    void restore_leavesTheStructuresToBeBuiltWhenThereIsNoSnapshot() {
+        snapshots.restore();
+
+        verify(searchIndexService, never()).install(any());
+        verify(columnarCatalogService, never()).install(any());
+        verify(changeFeed, never()).resumeFrom(any());
+    }
+
+    private SearchSnapshotService snapshotService() {
+        return new SearchSnapshotService(mongoTemplate, changeFeed, searchIndexService, columnarCatalogService,
+                true, true, directory.toString(), 0);
+    }
+
+    private void awaitManifest() throws Exception {
+        for (int i = 0; i < 200 && !Files.exists(directory.resolve(SearchSnapshotService.MANIFEST)); i++) {
+            Thread.sleep(10);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count()); // manifest, catalog and documents
+        }
+    }
+}
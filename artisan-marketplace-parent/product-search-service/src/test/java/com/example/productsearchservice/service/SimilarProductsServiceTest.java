@@ -0,0 +1,89 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.ProductResponse;
+import com.example.productsearchservice.index.InvertedIndex;
+import com.example.productsearchservice.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SimilarProductsServiceTest {
+
+    @Mock
+    private SearchIndexService searchIndexService;
+
+    @Mock
+    private ProductChangeFeed changeFeed;
+
+    private InvertedIndex index;
+    private SimilarProductsService service;
+
+    @BeforeEach
+    void setUp() {
+        index = new InvertedIndex();
+        index.upsert(product("p1", "Ceramic Vase", "Hand thrown stoneware vase", "Pottery"));
+        index.upsert(product("p2", "Stoneware Vase", "Tall hand thrown vase", "Pottery"));
+        index.upsert(product("p3", "Wool Blanket", "Warm knitted blanket", "Textiles"));
+        index.upsert(product("p4", "Oak Board", "Cutting board", "Woodwork"));
+        index.upsert(product("p6", "Silver Ring", "Engraved silver ring", "Jewelry"));
+        index.upsert(product("p7", "Leather Wallet", "Stitched leather wallet", "Leather"));
+        index.upsert(product("p8", "Beeswax Candle", "Rolled beeswax candle", "Home"));
+        service = new SimilarProductsService(searchIndexService, changeFeed, 100);
+    }
+
+    @Test
+    void similar_isCachedPerProductAndCutToTheLimit() {
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+
+        assertEquals(List.of("p2"), ids(service.similar("p1", 1)));
+        assertEquals(1, service.size());
+        index.upsert(product("p5", "Glass Vase", "Blown glass vase", "Glass")); // not reported to the service
+        assertEquals(List.of("p2"), ids(service.similar("p1", 5))); // served from the cache
+
+        assertNull(service.similar("missing", 5));
+        assertThrows(IllegalArgumentException.class, () -> service.similar("p1", 0));
+    }
+
+    @Test
+    void changes_dropListsTheyCanAffect() {
+        when(searchIndexService.isReady()).thenReturn(true);
+        when(searchIndexService.getIndex()).thenReturn(index);
+        service.similar("p1", 5);
+        service.similar("p3", 5);
+        assertEquals(2, service.size());
+
+        Product glassVase = product("p5", "Glass Vase", "Blown glass vase", "Glass");
+        index.upsert(glassVase);
+        service.onProductUpserted(glassVase); // shares "vase" with p1, nothing with p3
+        assertEquals(1, service.size());
+        assertTrue(ids(service.similar("p1", 5)).contains("p5"));
+
+        index.remove("p2");
+        service.onProductDeleted("p2"); // listed for p1
+        assertFalse(ids(service.similar("p1", 5)).contains("p2"));
+    }
+
+    @Test
+    void similar_requiresTheIndex() {
+        when(searchIndexService.isReady()).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> service.similar("p1", 5));
+    }
+
+    private static List<String> ids(List<ProductResponse> products) {
+        return products.stream().map(ProductResponse::getId).toList();
+    }
+
+    private static Product product(String id, String name, String description, String category) {
+        return new Product(id, "artisan1", name, description, 20.0, category, null, 1, null);
+    }
+}
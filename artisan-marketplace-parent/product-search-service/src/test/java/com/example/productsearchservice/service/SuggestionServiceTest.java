@@ -0,0 +1,76 @@
+package com.example.productsearchservice.service;
+
+import com.example.productsearchservice.dto.SuggestionResponse;
+import com.example.productsearchservice.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SuggestionServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private SearchProjectionService projection;
+
+    @Mock
+    private ProductChangeFeed changeFeed;
+
+    private SuggestionService suggestionService;
+
+    @BeforeEach
+    void setUp() {
+        suggestionService = new SuggestionService(mongoTemplate, projection, changeFeed, true, 30);
+        when(projection.readCollection()).thenReturn("search_products");
+    }
+
+    @Test
+    void reload_ranksProductNamesByPopularity() {
+        when(projection.isReady()).thenReturn(true);
+        Product popular = product("p2", "Mug Rack", 0);
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class), eq("search_products"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            if (query.getQueryObject().containsKey("popularity")) {
+                return Stream.of(product("p2", null, 40));
+            }
+            return Stream.of(product("p1", "Mug Cozy", 0), popular, product("p3", "Mug Tree", 0));
+        });
+
+        suggestionService.reload();
+
+        assertEquals("Mug Rack", suggestionService.suggest("mu", 3).get(0).getText());
+    }
+
+    @Test
+    void refreshPopularity_needsTheReadModel() {
+        when(projection.isReady()).thenReturn(false);
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class), eq("search_products")))
+                .thenReturn(Stream.of(product("p1", "Mug Cozy", 0), product("p2", "Mug Rack", 0)));
+
+        suggestionService.reload();
+
+        List<SuggestionResponse> suggestions = suggestionService.suggest("mug", 2);
+        assertEquals(2, suggestions.size());
+        assertEquals(SuggestionService.TYPE_PRODUCT, suggestions.get(0).getType());
+    }
+
+    private static Product product(String id, String name, long popularity) {
+        Product product = new Product(id, "artisan1", name, "", 10.0, "Kitchen", null, 1, null);
+        product.setPopularity(popularity);
+        return product;
+    }
+}
@@ -1,15 +1,38 @@
 package com.example.productservice.controller;
 
+import com.example.productservice.dto.ProductBatchRequest;
+import com.example.productservice.dto.ProductBatchResponse;
+import com.example.productservice.dto.ProductChangesPage;
 import com.example.productservice.dto.ProductCreateRequest;
+import com.example.productservice.dto.ProductImportReport;
+import com.example.productservice.dto.ProductPage;
 import com.example.productservice.dto.ProductResponse;
 import com.example.productservice.dto.ProductUpdateRequest;
+import com.example.productservice.dto.StockReservationRequest;
+import com.example.productservice.dto.StockReservationResponse;
+import com.example.productservice.service.ProductCache;
+import com.example.productservice.service.ProductChangeLog;
+import com.example.productservice.service.ProductExportService;
+import com.example.productservice.service.ProductFields;
+import com.example.productservice.service.ProductImportService;
 import com.example.productservice.service.ProductService;
+import com.example.productservice.service.StockReservationService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 
 @Component
@@ -19,10 +42,28 @@ import java.util.List;
 public class ProductResource {
 
     private final ProductService productService;
+    private final StockReservationService stockReservationService;
+    private final ProductImportService productImportService;
+    private final ProductExportService productExportService;
+    private final ProductChangeLog productChangeLog;
+    private final ProductFieldFilter productFieldFilter;
+    private final Counter notModified;
+    private final Counter modified;
 
     @Autowired
-    public ProductResource(ProductService productService) {
+    public ProductResource(ProductService productService, StockReservationService stockReservationService,
+                           ProductImportService productImportService, ProductExportService productExportService,
+                           ProductChangeLog productChangeLog, ProductFieldFilter productFieldFilter,
+                           MeterRegistry meterRegistry) {
         this.productService = productService;
+        this.stockReservationService = stockReservationService;
+        this.productImportService = productImportService;
+        this.productExportService = productExportService;
+        this.productChangeLog = productChangeLog;
+        this.productFieldFilter = productFieldFilter;
+        // Conditional GETs of a product, by whether the client's copy was still current (a 304).
+        this.notModified = meterRegistry.counter("product.conditional.requests", "result", "not-modified");
+        this.modified = meterRegistry.counter("product.conditional.requests", "result", "modified");
     }
 
     @POST
@@ -35,12 +76,77 @@ public class ProductResource {
         }
     }
 
+    // Bulk onboarding: an NDJSON (one product per line) or CSV upload, read as a stream and inserted in batches.
+    // Rows that fail validation or insertion are listed in the report; the rest are imported.
+    @POST
+    @Path("/import")
+    @Consumes({ProductImportService.NDJSON, ProductImportService.CSV})
+    public Response importProducts(InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                   @QueryParam("batchSize") Integer batchSize,
+                                   @QueryParam("ordered") @DefaultValue("false") boolean ordered) {
+        try {
+            MediaType mediaType = MediaType.valueOf(contentType);
+            String format = mediaType.getType() + "/" + mediaType.getSubtype();
+            ProductImportReport report = productImportService.importProducts(body, format, batchSize, ordered);
+            return Response.ok(report).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IOException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Could not read the upload: " + e.getMessage()).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        }
+    }
+
+    // Catalog feed: every product (after the given id, to resume) as NDJSON or gzip-compressed CSV.
+    @GET
+    @Path("/export")
+    @Produces({ProductImportService.NDJSON, "application/gzip"})
+    public Response exportProducts(@QueryParam("format") @DefaultValue(ProductExportService.NDJSON) String format,
+                                   @QueryParam("fields") String fields, @QueryParam("after") String after) {
+        List<String> selected;
+        try {
+            ProductExportService.checkFormat(format);
+            selected = ProductFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+        }
+        StreamingOutput body = out -> productExportService.export(out, format, selected, after);
+        if (ProductExportService.CSV.equals(format)) {
+            return Response.ok(body, "application/gzip")
+                    .header("Content-Disposition", "attachment; filename=\"products.csv.gz\"").build();
+        }
+        return Response.ok(body, ProductImportService.NDJSON).build();
+    }
+
+    // Delta sync: upserts and deletions after the since token, in order, with the token to continue from.
+    @GET
+    @Path("/changes")
+    public Response getChanges(@QueryParam("since") String since, @QueryParam("limit") @DefaultValue("100") int limit) {
+        try {
+            ProductChangesPage page = productChangeLog.changesSince(since, limit);
+            return Response.ok(page).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.GONE).entity(e.getMessage()).build(); // the consumer must resync
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        }
+    }
+
     @PUT
     @Path("/{productId}")
-    public Response updateProduct(@PathParam("productId") String productId, ProductUpdateRequest updateRequest) {
+    public Response updateProduct(@PathParam("productId") String productId, ProductUpdateRequest updateRequest,
+                                  @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch) {
         try {
+            if (ifMatch != null && !ifMatch.trim().equals("*")) {
+                updateRequest.setVersion(versionOf(ifMatch));
+            }
             ProductResponse productResponse = productService.updateProduct(productId, updateRequest);
-            return Response.ok(productResponse).build();
+            return Response.ok(productResponse).tag(new EntityTag(Long.toString(productResponse.getVersion()))).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity(e.getMessage()).build();
         } catch (RuntimeException e) {
             if (e.getMessage().contains("not found")) {
                 return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).build();
@@ -49,12 +155,67 @@ public class ProductResource {
         }
     }
 
+    // If-Match carries the ETag of GET /products/{productId}, which is the product's version.
+    private static long versionOf(String ifMatch) {
+        try {
+            return Long.parseLong(EntityTag.valueOf(ifMatch.trim()).getValue());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("If-Match must be an ETag of this product: " + ifMatch);
+        }
+    }
+
+    // Batch hydration for carts, orders and result pages: GET /products?ids=a,b,c
+    @GET
+    public Response getProductsByIds(@QueryParam("ids") String ids, @QueryParam("fields") String fields) {
+        if (ids == null || ids.isBlank()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("The ids query parameter is required").build();
+        }
+        return productsByIds(Arrays.asList(ids.split(",")), fields);
+    }
+
+    // Same as the GET for id sets too large for a query string.
+    @POST
+    @Path("/batch")
+    public Response getProductsByIds(ProductBatchRequest batchRequest, @QueryParam("fields") String fields) {
+        return productsByIds(batchRequest == null ? null : batchRequest.getIds(), fields);
+    }
+
+    private Response productsByIds(List<String> ids, String fields) {
+        try {
+            List<String> selected = ProductFields.parse(fields);
+            ProductBatchResponse batchResponse = productService.getProductsByIds(ids, selected);
+            return Response.ok(productFieldFilter.select(batchResponse, selected)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        }
+    }
+
     @GET
     @Path("/{productId}")
-    public Response getProductById(@PathParam("productId") String productId) {
+    public Response getProductById(@PathParam("productId") String productId, @Context Request request,
+                                   @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                   @QueryParam("fields") String fields) {
+        List<String> selected;
         try {
-            ProductResponse productResponse = productService.getProductById(productId);
-            return Response.ok(productResponse).build();
+            selected = ProductFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        try {
+            ProductCache.Entry entry = productService.getCachedProduct(productId);
+            EntityTag etag = new EntityTag(entry.etag());
+            if (ifNoneMatch != null) {
+                Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag);
+                if (unchanged != null) {
+                    notModified.increment();
+                    return unchanged.build(); // 304 with the ETag and no body
+                }
+                modified.increment();
+            }
+            // Served whole from the near cache; the selection only trims what is written.
+            return Response.ok(productFieldFilter.select(entry.product(), selected)).tag(etag).build();
         } catch (RuntimeException e) {
             return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).build();
         }
@@ -74,12 +235,64 @@ public class ProductResource {
         }
     }
 
+    // Takes stock for a checkout until it is committed, released or its TTL runs out.
+    @POST
+    @Path("/{productId}/reservations")
+    public Response reserveStock(@PathParam("productId") String productId, StockReservationRequest reservationRequest) {
+        try {
+            StockReservationResponse reservation = stockReservationService.reserve(productId, reservationRequest);
+            return Response.status(Response.Status.CREATED).entity(reservation).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build(); // not enough stock
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (RuntimeException e) {
+            return reservationFailure(e);
+        }
+    }
+
+    @POST
+    @Path("/{productId}/reservations/{reservationId}/commit")
+    public Response commitReservation(@PathParam("productId") String productId,
+                                      @PathParam("reservationId") String reservationId) {
+        try {
+            stockReservationService.commit(productId, reservationId);
+            return Response.noContent().build();
+        } catch (RuntimeException e) {
+            return reservationFailure(e);
+        }
+    }
+
+    @DELETE
+    @Path("/{productId}/reservations/{reservationId}")
+    public Response releaseReservation(@PathParam("productId") String productId,
+                                       @PathParam("reservationId") String reservationId) {
+        try {
+            stockReservationService.release(productId, reservationId);
+            return Response.noContent().build();
+        } catch (RuntimeException e) {
+            return reservationFailure(e);
+        }
+    }
+
+    private static Response reservationFailure(RuntimeException e) {
+        if (e.getMessage() != null && e.getMessage().contains("not found")) {
+            return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).build();
+        }
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+    }
+
     @GET
     @Path("/artisan/{artisanId}")
-    public Response getProductsByArtisan(@PathParam("artisanId") String artisanId) {
+    public Response getProductsByArtisan(@PathParam("artisanId") String artisanId, @QueryParam("sort") String sort,
+                                         @QueryParam("limit") Integer limit, @QueryParam("after") String after,
+                                         @QueryParam("fields") String fields) {
         try {
-            List<ProductResponse> products = productService.getProductsByArtisan(artisanId);
-            return Response.ok(products).build();
+            List<String> selected = ProductFields.parse(fields, ProductService.LISTING_FIELDS);
+            ProductPage page = productService.getProductsByArtisan(artisanId, sort, limit, after, selected);
+            return Response.ok(productFieldFilter.select(page, selected)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) { // General exception handling
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
         }
@@ -0,0 +1,9 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class ProductBatchRequest {
+    private List<String> ids;
+}
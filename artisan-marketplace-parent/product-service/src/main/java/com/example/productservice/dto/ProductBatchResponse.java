@@ -0,0 +1,11 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ProductBatchResponse {
+    private List<ProductResponse> items = new ArrayList<>(); // in the order the ids were requested
+    private List<String> missing = new ArrayList<>(); // requested ids with no product
+}
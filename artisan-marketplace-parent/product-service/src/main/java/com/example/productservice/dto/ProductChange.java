@@ -0,0 +1,16 @@
+package com.example.productservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductChange {
+    public static final String UPSERT = "upsert";
+    public static final String DELETE = "delete";
+
+    private long seq;
+    private String type; // upsert or delete (a tombstone, without product)
+    private String productId;
+    private ProductResponse product; // the product as it is now
+}
@@ -0,0 +1,12 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ProductChangesPage {
+    private List<ProductChange> changes = new ArrayList<>(); // in sequence order
+    private String next; // pass as since= to continue; the same token when nothing has changed
+    private boolean hasMore; // more changes are available right away
+}
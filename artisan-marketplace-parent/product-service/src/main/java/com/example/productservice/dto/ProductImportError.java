@@ -0,0 +1,13 @@
+package com.example.productservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportError {
+    private long row; // 1-based position of the record in the upload (a CSV header is not counted)
+    private String message;
+}
@@ -0,0 +1,15 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ProductImportReport {
+    private long received; // records read from the upload
+    private long imported;
+    private long failed;
+    private boolean complete = true; // false when an ordered import stopped at a failed write
+    private boolean errorsTruncated; // more rows failed than are listed in errors
+    private List<ProductImportError> errors = new ArrayList<>();
+}
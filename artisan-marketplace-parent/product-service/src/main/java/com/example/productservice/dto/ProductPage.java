@@ -0,0 +1,10 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class ProductPage {
+    private List<ProductResponse> items;
+    private String next; // Cursor for the following page, null on the last page
+}
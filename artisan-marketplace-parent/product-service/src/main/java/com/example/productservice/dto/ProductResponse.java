@@ -15,4 +15,5 @@ public class ProductResponse {
     private List<String> images;
     private int stockQuantity;
     private Map<String, String> details;
+    private long version;
 }
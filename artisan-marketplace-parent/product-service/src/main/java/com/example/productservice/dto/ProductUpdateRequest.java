@@ -15,4 +15,5 @@ public class ProductUpdateRequest {
     private Integer stockQuantity; // Use Integer object type to allow null
     private Map<String, String> details;
     // artisanId is typically not updatable for a product
+    private Long version; // optional precondition: the version this edit was based on (also taken from If-Match)
 }
@@ -0,0 +1,9 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+
+@Data
+public class StockReservationRequest {
+    private int quantity;
+    private Long ttlSeconds; // optional, defaults to product.reservation.ttl-seconds
+}
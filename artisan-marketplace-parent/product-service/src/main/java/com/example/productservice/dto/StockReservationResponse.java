@@ -0,0 +1,12 @@
+package com.example.productservice.dto;
+
+import lombok.Data;
+import java.util.Date;
+
+@Data
+public class StockReservationResponse {
+    private String id;
+    private String productId;
+    private int quantity;
+    private Date expiresAt;
+}
@@ -4,8 +4,11 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +16,12 @@ import java.util.Map;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "products")
+// Keyset pages of an artisan's products, one index per ArtisanProductSort (NEWEST walks artisan_id backwards)
+@CompoundIndexes({
+        @CompoundIndex(name = "artisan_id", def = "{'artisanId': 1, '_id': 1}"),
+        @CompoundIndex(name = "artisan_name", def = "{'artisanId': 1, 'name': 1, '_id': 1}"),
+        @CompoundIndex(name = "artisan_price", def = "{'artisanId': 1, 'price': 1, '_id': 1}")
+})
 public class Product {
 
     @Id
@@ -26,4 +35,6 @@ public class Product {
     private List<String> images; // URLs to images
     private int stockQuantity;
     private Map<String, String> details; // e.g., material, dimensions, weight
+    private long version; // bumped by every write; products saved before versioning read as 0
+    private Date changedAt; // server time of the last write; its changeSeq timestamp is read by ProductChangeLog only
 }
@@ -0,0 +1,26 @@
+package com.example.productservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+// A reservation's hold: stock taken out of a product's stockQuantity for a checkout that has not been committed or
+// released yet. Kept in a collection of its own, so a hot product's document does not grow with its open holds.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "stock_holds")
+public class StockHold {
+
+    @Id
+    private String reservationId;
+
+    private String productId;
+    private int quantity;
+    private Date expiresAt;
+    private Date createdAt;
+}
@@ -0,0 +1,56 @@
+package com.example.productservice.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Opaque keyset cursor of an artisan's product listing: the sort it was issued for and the (sort value, id) of
+// the last product returned, so the next page is a range scan of the matching index rather than a skip.
+final class ArtisanProductCursor {
+
+    private static final String VERSION = "1";
+
+    private final ArtisanProductSort sort;
+    private final String productId;
+    private final String value;
+
+    ArtisanProductCursor(ArtisanProductSort sort, String productId, String value) {
+        this.sort = sort;
+        this.productId = productId;
+        this.value = value;
+    }
+
+    ArtisanProductSort getSort() {
+        return sort;
+    }
+
+    String getProductId() {
+        return productId;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    // The value goes last, as names may contain the separator; a null value is left out with its separator, so it
+    // stays distinct from an empty one.
+    String encode() {
+        String raw = VERSION + ":" + sort.name() + ":" + productId + (value == null ? "" : ":" + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ArtisanProductCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 4);
+            if (parts.length >= 3 && VERSION.equals(parts[0]) && !parts[2].isEmpty()) {
+                ArtisanProductSort sort = ArtisanProductSort.valueOf(parts[1]);
+                String value = parts.length == 4 ? parts[3] : null;
+                sort.parseValue(value); // rejects a malformed price
+                return new ArtisanProductCursor(sort, parts[2], value);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + token);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.productservice.service;
+
+import com.example.productservice.model.Product;
+import org.springframework.data.domain.Sort;
+
+import java.util.Locale;
+
+// Orders of an artisan's product listing. Each is total, with ties broken by id, so (sort value, id) keyset
+// cursors are stable; each is served by one of the (artisanId, sort key, _id) indexes declared on Product.
+// NEWEST relies on product ids being ObjectIds, which order by creation time.
+public enum ArtisanProductSort {
+
+    NEWEST(null, Sort.Direction.DESC),        // id descending
+    NAME("name", Sort.Direction.ASC),         // name ascending, then id ascending
+    PRICE_ASC("price", Sort.Direction.ASC),   // price ascending, then id ascending
+    PRICE_DESC("price", Sort.Direction.DESC); // price descending, then id descending
+
+    private final String field;
+    private final Sort.Direction direction;
+
+    ArtisanProductSort(String field, Sort.Direction direction) {
+        this.field = field;
+        this.direction = direction;
+    }
+
+    public static ArtisanProductSort parse(String sort) {
+        if (sort == null || sort.isBlank()) {
+            return NEWEST;
+        }
+        try {
+            return valueOf(sort.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("sort must be one of newest, name, price_asc, price_desc");
+        }
+    }
+
+    // The sorted field before the id tie-break, null when the order is by id alone.
+    public String field() {
+        return field;
+    }
+
+    public Sort.Direction direction() {
+        return direction;
+    }
+
+    public Sort toSort() {
+        return field == null ? Sort.by(direction, "id") : Sort.by(direction, field).and(Sort.by(direction, "id"));
+    }
+
+    // The sort value of a product as a cursor stores it; null when the product has none (or the order is by id).
+    String valueOf(Product product) {
+        return switch (this) {
+            case NEWEST -> null;
+            case NAME -> product.getName();
+            case PRICE_ASC, PRICE_DESC -> Double.toString(product.getPrice());
+        };
+    }
+
+    Object parseValue(String value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (this) {
+            case NEWEST -> null;
+            case NAME -> value;
+            case PRICE_ASC, PRICE_DESC -> Double.parseDouble(value);
+        };
+    }
+}
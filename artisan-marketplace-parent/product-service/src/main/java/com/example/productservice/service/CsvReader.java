@@ -0,0 +1,85 @@
+package com.example.productservice.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads RFC 4180 CSV one record at a time: fields separated by commas, optionally in double quotes, where a quoted
+// field may contain commas, line breaks and doubled quotes. Only the current record is held in memory.
+class CsvReader {
+
+    private final Reader reader;
+    private int peeked = -2;
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    // The fields of the next record, or null at the end of the input. Blank lines are skipped.
+    List<String> next() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean sawAny = false;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (quoted) {
+                    throw new IllegalArgumentException("Unterminated quoted field at the end of the CSV");
+                }
+                if (!sawAny) {
+                    return null;
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                sawAny = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                sawAny = true;
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (sawAny) {
+                    fields.add(field.toString());
+                    return fields;
+                }
+            } else {
+                field.append((char) c);
+                sawAny = true;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.productservice.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The lists and maps inside a CSV field: images are "a|b", details are "key=value;key=value". A separator or
+// backslash inside a value is escaped with a backslash, so any value survives an export and import.
+final class CsvValues {
+
+    private static final char ESCAPE = '\\';
+    private static final char ITEM = '|';
+    private static final char PAIR = ';';
+    private static final char KEY_VALUE = '=';
+
+    private CsvValues() {
+    }
+
+    static String joinList(List<?> values) {
+        StringBuilder field = new StringBuilder();
+        for (Object value : values) {
+            if (field.length() > 0) {
+                field.append(ITEM);
+            }
+            escape(field, String.valueOf(value));
+        }
+        return field.toString();
+    }
+
+    static List<String> splitList(String field) {
+        return split(field, ITEM);
+    }
+
+    static String joinMap(Map<?, ?> values) {
+        StringBuilder field = new StringBuilder();
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            if (field.length() > 0) {
+                field.append(PAIR);
+            }
+            escape(field, String.valueOf(entry.getKey()));
+            field.append(KEY_VALUE);
+            escape(field, String.valueOf(entry.getValue()));
+        }
+        return field.toString();
+    }
+
+    // Throws IllegalArgumentException for a pair without a key.
+    static Map<String, String> splitMap(String field) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String pair : withoutTrailingEmpties(splitRaw(field, PAIR))) {
+            List<String> keyValue = splitRaw(pair, KEY_VALUE);
+            String key = unescape(keyValue.get(0)).trim();
+            if (keyValue.size() < 2 || key.isEmpty()) {
+                throw new IllegalArgumentException("details must be key=value pairs separated by ';': " + field);
+            }
+            // Only the first unescaped "=" separates, so an unescaped one in the value is kept.
+            String value = pair.substring(keyValue.get(0).length() + 1);
+            values.put(key, unescape(value).trim());
+        }
+        return values;
+    }
+
+    private static List<String> split(String field, char separator) {
+        List<String> parts = new ArrayList<>();
+        for (String part : withoutTrailingEmpties(splitRaw(field, separator))) {
+            parts.add(unescape(part));
+        }
+        return parts;
+    }
+
+    // As String.split does, so "a|" is still the one image it always was.
+    private static List<String> withoutTrailingEmpties(List<String> parts) {
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return parts.subList(0, size);
+    }
+
+    // Splits at unescaped separators and leaves the escapes in the parts for the next level to see.
+    private static List<String> splitRaw(String field, char separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ESCAPE) {
+                i++;
+            } else if (c == separator) {
+                parts.add(field.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(field.substring(start));
+        return parts;
+    }
+
+    private static void escape(StringBuilder field, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || c == ITEM || c == PAIR || c == KEY_VALUE) {
+                field.append(ESCAPE);
+            }
+            field.append(c);
+        }
+    }
+
+    // A trailing lone backslash is kept as is.
+    private static String unescape(String part) {
+        if (part.indexOf(ESCAPE) < 0) {
+            return part;
+        }
+        StringBuilder value = new StringBuilder(part.length());
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            if (c == ESCAPE && i + 1 < part.length()) {
+                c = part.charAt(++i);
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+}
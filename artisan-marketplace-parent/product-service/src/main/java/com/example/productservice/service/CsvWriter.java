@@ -0,0 +1,43 @@
+package com.example.productservice.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+// Writes RFC 4180 CSV records, quoting the fields that contain commas, quotes or line breaks; CsvReader reads them.
+class CsvWriter {
+
+    private final Writer writer;
+
+    CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    void write(List<String> fields) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(fields.get(i));
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeField(String field) throws IOException {
+        if (field == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        writer.write(field.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.productservice.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Creates the indexes the services register from their constructors. They are built once the application is ready,
+// on a thread of its own so an unreachable server cannot hold up startup; the thread ends once they are done. A
+// failure is logged and leaves the other indexes to be built.
+@Component
+public class MongoIndexes {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoIndexes.class);
+
+    private final Map<String, Runnable> tasks = new LinkedHashMap<>();
+    private ExecutorService builder;
+
+    // Throws IllegalStateException once the indexes are being built.
+    public synchronized void register(String indexes, Runnable task) {
+        if (builder != null) {
+            throw new IllegalStateException("Indexes must be registered before the application is ready: " + indexes);
+        }
+        tasks.put(indexes, task);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (builder != null) {
+            return;
+        }
+        builder = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mongo-indexes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Runnable> registered = new LinkedHashMap<>(tasks);
+        builder.execute(() -> registered.forEach(this::build));
+        builder.shutdown();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (builder != null) {
+            builder.shutdownNow();
+        }
+    }
+
+    private void build(String indexes, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.warn("Could not create the {} indexes", indexes, e);
+        }
+    }
+}
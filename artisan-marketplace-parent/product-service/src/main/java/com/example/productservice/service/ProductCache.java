@@ -0,0 +1,115 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Bounded LRU near cache of product responses, with their ETags, for getProductById.
+// Writes through ProductService evict the product at once; the TTL bounds how long a write made by another
+// instance of the service can go unseen.
+@Service
+public class ProductCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Timestamped> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped on every invalidation so a product loaded before a write can never be stored after it.
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expirations;
+    private final Counter invalidations;
+
+    @Autowired
+    public ProductCache(MeterRegistry meterRegistry,
+                        @Value("${product.cache.enabled:true}") boolean enabled,
+                        @Value("${product.cache.max-entries:10000}") int maxEntries,
+                        @Value("${product.cache.ttl-seconds:300}") long ttlSeconds) {
+        this(meterRegistry, enabled, maxEntries, ttlSeconds, System::nanoTime);
+    }
+
+    ProductCache(MeterRegistry meterRegistry, boolean enabled, int maxEntries, long ttlSeconds, LongSupplier clock) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.clock = clock;
+        this.hits = meterRegistry.counter("product.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("product.cache.requests", "result", "miss");
+        this.sizeEvictions = meterRegistry.counter("product.cache.evictions", "cause", "size");
+        this.expirations = meterRegistry.counter("product.cache.evictions", "cause", "expired");
+        this.invalidations = meterRegistry.counter("product.cache.evictions", "cause", "invalidated");
+        Gauge.builder("product.cache.size", this, ProductCache::size).register(meterRegistry);
+        Gauge.builder("product.cache.hit-ratio", this, ProductCache::hitRatio).register(meterRegistry);
+    }
+
+    public synchronized Entry get(String productId) {
+        if (!enabled) {
+            return null;
+        }
+        Timestamped timestamped = entries.get(productId);
+        if (timestamped != null && clock.getAsLong() - timestamped.createdAt > ttlNanos) {
+            entries.remove(productId);
+            expirations.increment();
+            timestamped = null;
+        }
+        if (timestamped == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return timestamped.entry;
+    }
+
+    // Token to pass back to put(); identifies the cache state the product is about to be loaded against.
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void put(Entry entry, long loadedAtGeneration) {
+        if (!enabled || loadedAtGeneration != generation) {
+            return;
+        }
+        entries.put(entry.product().getId(), new Timestamped(entry, clock.getAsLong()));
+        while (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+            sizeEvictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(String productId) {
+        generation++;
+        if (entries.remove(productId) != null) {
+            invalidations.increment();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Share of lookups answered from the cache since startup.
+    public double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    // A product response with the ETag that identifies its content.
+    public record Entry(ProductResponse product, String etag) {
+    }
+
+    private record Timestamped(Entry entry, long createdAt) {
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductChange;
+import com.example.productservice.dto.ProductChangesPage;
+import com.example.productservice.dto.ProductResponse;
+import com.example.productservice.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The product change sequence behind delta sync. Every write through ProductService (and the bulk import) has the
+// server stamp the product with the next timestamp of its clock as changeSeq, in the write itself, so the sequence
+// costs no extra round trip and a write that does not apply takes no number; a delete leaves a tombstone stamped
+// the same way. changesSince reads both in sequence order, so a consumer catches up in proportion to what changed.
+// Stock-only changes from reservations are not stamped, to keep the checkout path light.
+@Service
+public class ProductChangeLog {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductChangeLog.class);
+
+    static final String SEQUENCE_FIELD = "changeSeq";
+    static final String SEQUENCES = "product_sequences";
+    static final String TOMBSTONES = "product_tombstones";
+    static final String SEQUENCE_ID = "products";
+    public static final int MAX_LIMIT = 1000;
+    private static final int BACKFILL_BATCH = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final long settleMillis;
+    private final long tombstoneRetentionMillis;
+    private ScheduledExecutorService maintenance;
+
+    @Autowired
+    public ProductChangeLog(MongoTemplate mongoTemplate, MongoIndexes mongoIndexes,
+                            @Value("${product.changes.settle-ms:1000}") long settleMillis,
+                            @Value("${product.changes.tombstone-retention-days:30}") long tombstoneRetentionDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.settleMillis = settleMillis;
+        this.tombstoneRetentionMillis = TimeUnit.DAYS.toMillis(tombstoneRetentionDays);
+        mongoIndexes.register("change sequence", this::ensureIndexes);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (maintenance != null) {
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-change-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.execute(this::backfill);
+        maintenance.scheduleWithFixedDelay(this::purgeTombstones, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+    }
+
+    // Stamps a write with its place in the change sequence; the server fills both fields when the write applies.
+    public static Update stamp(Update update) {
+        return update.currentTimestamp(SEQUENCE_FIELD).currentDate("changedAt");
+    }
+
+    // The product as a document to insert. Its changeSeq is an empty timestamp, which the server replaces with the
+    // next timestamp of its clock as it inserts the document, so an insert is stamped in the write itself as well.
+    public Document insertOf(Product product) {
+        product.setChangedAt(new Date());
+        Document document = new Document();
+        mongoTemplate.getConverter().write(product, document);
+        document.put(SEQUENCE_FIELD, new BsonTimestamp(0, 0));
+        return document;
+    }
+
+    public void recordDeletion(String productId) {
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(productId)),
+                new Update().currentTimestamp(SEQUENCE_FIELD).currentDate("deletedAt"), TOMBSTONES);
+    }
+
+    // Changes after the since token (from the start when null), oldest first. Throws IllegalArgumentException for
+    // a malformed token and IllegalStateException when tombstones after it have been purged (full resync needed).
+    public ProductChangesPage changesSince(String since, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        long after = parseToken(since);
+        // A sync from the start reads the products themselves, so it does not need the purged tombstones.
+        if (since != null && !since.isBlank()) {
+            Document counter = mongoTemplate.findById(SEQUENCE_ID, Document.class, SEQUENCES);
+            long purgedThrough = counter != null && counter.get("purgedThrough") instanceof Number n ? n.longValue() : 0;
+            if (after < purgedThrough) {
+                throw new IllegalStateException("Changes before " + purgedThrough + " are no longer retained; resync from an export");
+            }
+        }
+
+        // A timestamp is taken as its write applies and becomes visible when the write commits, so a change stamped
+        // less than settleMillis ago (by the server's clock, which stamped it; the timestamp's seconds say when) may
+        // still have an uncommitted predecessor; the page stops there and picks it up on the next call. A write that takes longer than that
+        // to commit can still be passed over. Timestamps are only ordered per server, so products must not be sharded.
+        long settled = serverTime() - settleMillis;
+        Query upserts = Query.query(Criteria.where(SEQUENCE_FIELD).gt(new BsonTimestamp(after)))
+                .with(Sort.by(Sort.Direction.ASC, SEQUENCE_FIELD)).limit(limit + 1);
+        List<Document> products = mongoTemplate.find(upserts, Document.class, mongoTemplate.getCollectionName(Product.class));
+        Query deletes = Query.query(Criteria.where(SEQUENCE_FIELD).gt(new BsonTimestamp(after)))
+                .with(Sort.by(Sort.Direction.ASC, SEQUENCE_FIELD)).limit(limit + 1);
+        List<Document> tombstones = mongoTemplate.find(deletes, Document.class, TOMBSTONES);
+
+        ProductChangesPage page = new ProductChangesPage();
+        int p = 0;
+        int t = 0;
+        while (page.getChanges().size() < limit && (p < products.size() || t < tombstones.size())) {
+            boolean takeProduct = t >= tombstones.size()
+                    || (p < products.size() && seqOf(products.get(p)) < seqOf(tombstones.get(t)));
+            ProductChange change = new ProductChange();
+            Document document;
+            if (takeProduct) {
+                document = products.get(p++);
+                Product product = mongoTemplate.getConverter().read(Product.class, document);
+                change.setSeq(seqOf(document));
+                change.setType(ProductChange.UPSERT);
+                change.setProductId(product.getId());
+                ProductResponse response = new ProductResponse();
+                BeanUtils.copyProperties(product, response);
+                change.setProduct(response);
+            } else {
+                document = tombstones.get(t++);
+                change.setSeq(seqOf(document));
+                change.setType(ProductChange.DELETE);
+                change.setProductId(String.valueOf(document.get("_id")));
+            }
+            if (stampedBefore(document) > settled) {
+                break;
+            }
+            page.getChanges().add(change);
+        }
+        List<ProductChange> changes = page.getChanges();
+        page.setHasMore(changes.size() == limit && (p < products.size() || t < tombstones.size()));
+        page.setNext(Long.toString(changes.isEmpty() ? after : changes.get(changes.size() - 1).getSeq()));
+        return page;
+    }
+
+    // The since token of a stamped product or tombstone: its timestamp as one number.
+    private static long seqOf(Document document) {
+        return document.get(SEQUENCE_FIELD, BsonTimestamp.class).getValue();
+    }
+
+    // The end of the second the document was stamped in, which is as close as its timestamp tells.
+    private static long stampedBefore(Document document) {
+        return TimeUnit.SECONDS.toMillis(document.get(SEQUENCE_FIELD, BsonTimestamp.class).getTime() + 1L);
+    }
+
+    private long serverTime() {
+        return mongoTemplate.executeCommand(new Document("hello", 1)).getDate("localTime").getTime();
+    }
+
+    private static long parseToken(String since) {
+        if (since == null || since.isBlank()) {
+            return 0;
+        }
+        try {
+            long after = Long.parseLong(since.trim());
+            if (after < 0) {
+                throw new NumberFormatException();
+            }
+            return after;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid since token: " + since);
+        }
+    }
+
+    private void ensureIndexes() {
+        mongoTemplate.indexOps(Product.class).ensureIndex(new Index().on(SEQUENCE_FIELD, Sort.Direction.ASC));
+        mongoTemplate.indexOps(TOMBSTONES).ensureIndex(new Index().on(SEQUENCE_FIELD, Sort.Direction.ASC));
+    }
+
+    // Products written before the sequence existed (or numbered by the former counter) are stamped now, one update
+    // each so each gets a timestamp of its own, and an initial sync sees them.
+    private void backfill() {
+        try {
+            long count = 0;
+            while (true) {
+                Query query = Query.query(unstamped()).limit(BACKFILL_BATCH);
+                query.fields().include("id");
+                List<Product> batch = mongoTemplate.find(query, Product.class);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+                for (Product product : batch) {
+                    bulk.updateOne(Query.query(Criteria.where("id").is(product.getId()).andOperator(unstamped())),
+                            stamp(new Update()));
+                }
+                bulk.execute();
+                count += batch.size();
+            }
+            if (count > 0) {
+                log.info("Assigned change sequence numbers to {} existing products", count);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to assign change sequence numbers to existing products", e);
+        }
+    }
+
+    private static Criteria unstamped() {
+        return Criteria.where(SEQUENCE_FIELD).not().type(JsonSchemaObject.Type.TIMESTAMP);
+    }
+
+    // Tombstones are kept for the retention period; since tokens from before the newest purged one are refused.
+    private void purgeTombstones() {
+        try {
+            Query expired = Query.query(Criteria.where("deletedAt").lt(new Date(System.currentTimeMillis() - tombstoneRetentionMillis)))
+                    .with(Sort.by(Sort.Direction.DESC, "changeSeq")).limit(1);
+            Document newest = mongoTemplate.findOne(expired, Document.class, TOMBSTONES);
+            if (newest == null) {
+                return;
+            }
+            long purgedThrough = seqOf(newest);
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(SEQUENCE_ID)),
+                    new Update().max("purgedThrough", purgedThrough), SEQUENCES);
+            mongoTemplate.remove(Query.query(Criteria.where(SEQUENCE_FIELD).lte(new BsonTimestamp(purgedThrough))), TOMBSTONES);
+        } catch (RuntimeException e) {
+            log.warn("Failed to purge product tombstones", e);
+        }
+    }
+}
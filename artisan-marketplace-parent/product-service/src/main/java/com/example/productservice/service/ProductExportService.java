@@ -0,0 +1,133 @@
+package com.example.productservice.service;
+
+import com.example.productservice.model.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+// Full-catalog export for feeds, streamed from a MongoDB cursor straight into the response: memory use does not
+// depend on the catalog size. Products come in id order and every row starts with the id, so an interrupted
+// export resumes with after=<last id received>. CSV uses the columns and encodings the bulk import reads.
+@Service
+public class ProductExportService {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final int cursorBatchSize;
+    private final Counter exportedRows;
+
+    @Autowired
+    public ProductExportService(MongoTemplate mongoTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                @Value("${product.export.cursor-batch-size:1000}") int cursorBatchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.cursorBatchSize = cursorBatchSize;
+        this.exportedRows = meterRegistry.counter("product.export.rows");
+    }
+
+    // Checked before the response starts, so a bad request still gets a 400.
+    public static void checkFormat(String format) {
+        if (!NDJSON.equals(format) && !CSV.equals(format)) {
+            throw new IllegalArgumentException("format must be " + NDJSON + " or " + CSV);
+        }
+    }
+
+    // Writes the products after the given id (all when null) with the given fields; CSV is gzip-compressed.
+    public void export(OutputStream out, String format, List<String> fields, String after) throws IOException {
+        checkFormat(format);
+        Query query = new Query().with(Sort.by(Sort.Direction.ASC, "id")).cursorBatchSize(cursorBatchSize);
+        if (after != null && !after.isBlank()) {
+            query.addCriteria(Criteria.where("id").gt(after));
+        }
+        // Only the selected fields leave MongoDB.
+        fields.forEach(field -> query.fields().include(field));
+
+        boolean csv = CSV.equals(format);
+        GZIPOutputStream gzip = csv ? new GZIPOutputStream(out, 64 * 1024) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(csv ? gzip : out, StandardCharsets.UTF_8), 64 * 1024);
+        CsvWriter csvWriter = csv ? new CsvWriter(writer) : null;
+        if (csv) {
+            csvWriter.write(fields);
+        }
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                if (csv) {
+                    csvWriter.write(csvRow(product, fields));
+                } else {
+                    writer.write(objectMapper.writeValueAsString(jsonRow(product, fields)));
+                    writer.write('\n');
+                }
+                exportedRows.increment();
+            }
+        }
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+    }
+
+    static Map<String, Object> jsonRow(Product product, List<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, valueOf(product, field));
+        }
+        return row;
+    }
+
+    static List<String> csvRow(Product product, List<String> fields) {
+        List<String> row = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            Object value = valueOf(product, field);
+            if (value instanceof List<?> list) {
+                row.add(CsvValues.joinList(list));
+            } else if (value instanceof Map<?, ?> map) {
+                row.add(CsvValues.joinMap(map));
+            } else {
+                row.add(value == null ? null : String.valueOf(value));
+            }
+        }
+        return row;
+    }
+
+    private static Object valueOf(Product product, String field) {
+        return switch (field) {
+            case "id" -> product.getId();
+            case "artisanId" -> product.getArtisanId();
+            case "name" -> product.getName();
+            case "description" -> product.getDescription();
+            case "price" -> product.getPrice();
+            case "category" -> product.getCategory();
+            case "images" -> product.getImages();
+            case "stockQuantity" -> product.getStockQuantity();
+            case "details" -> product.getDetails();
+            case "version" -> product.getVersion();
+            default -> throw new IllegalArgumentException("Unknown product field: " + field);
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.productservice.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// The product fields a client can select, e.g. with ?fields=name,price. The id is always included.
+public final class ProductFields {
+
+    public static final List<String> ALL = List.of(
+            "id", "artisanId", "name", "description", "price", "category", "images", "stockQuantity", "details", "version");
+
+    private ProductFields() {
+    }
+
+    // The selected fields in canonical order, id first; every field when the selection is empty.
+    // Throws IllegalArgumentException for a field a product does not have.
+    public static List<String> parse(String fields) {
+        return parse(fields, ALL);
+    }
+
+    // Same, with the fields to use when the selection is empty.
+    public static List<String> parse(String fields, List<String> defaults) {
+        if (fields == null || fields.isBlank()) {
+            return defaults;
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!ALL.contains(name)) {
+                throw new IllegalArgumentException("Unknown product field: " + name + " (expected some of " + ALL + ")");
+            }
+            selected.add(name);
+        }
+        List<String> ordered = new ArrayList<>();
+        for (String name : ALL) {
+            if (name.equals("id") || selected.contains(name)) {
+                ordered.add(name);
+            }
+        }
+        return ordered;
+    }
+
+    public static boolean isAll(List<String> fields) {
+        return fields.size() == ALL.size();
+    }
+}
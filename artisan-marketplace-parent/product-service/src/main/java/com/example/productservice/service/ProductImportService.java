@@ -0,0 +1,295 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductCreateRequest;
+import com.example.productservice.dto.ProductImportError;
+import com.example.productservice.dto.ProductImportReport;
+import com.example.productservice.model.Product;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+// Bulk product import from an NDJSON or CSV upload. The upload is read as a stream and written in insert batches;
+// the next batch is only read once the previous one is written, so the request body is consumed at the pace
+// MongoDB accepts it and at most one batch is ever held in memory. Invalid rows are skipped and reported.
+// Gzip-compressed uploads are inflated, so a CSV export can be imported as downloaded.
+@Service
+public class ProductImportService {
+
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String CSV = "text/csv";
+    static final int MAX_REPORTED_ERRORS = 1000;
+    // CSV columns, in the names of the JSON fields. images are separated by "|", details are "key=value;key=value",
+    // with a backslash before any of those characters (or a backslash) inside a value; see CsvValues.
+    static final List<String> CSV_COLUMNS = List.of(
+            "artisanId", "name", "description", "price", "category", "images", "stockQuantity", "details");
+    // Columns an export writes that an import has no use for: imported rows are new products with their own id.
+    static final List<String> IGNORED_CSV_COLUMNS = List.of("id", "version");
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final ProductChangeLog changeLog;
+    private final int defaultBatchSize;
+    private final int maxBatchSize;
+    private final Counter importedRows;
+    private final Counter failedRows;
+
+    @Autowired
+    public ProductImportService(MongoTemplate mongoTemplate, ObjectMapper objectMapper, ProductChangeLog changeLog,
+                                MeterRegistry meterRegistry,
+                                @Value("${product.import.batch-size:500}") int defaultBatchSize,
+                                @Value("${product.import.max-batch-size:5000}") int maxBatchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.changeLog = changeLog;
+        this.defaultBatchSize = defaultBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.importedRows = meterRegistry.counter("product.import.rows", "result", "imported");
+        this.failedRows = meterRegistry.counter("product.import.rows", "result", "failed");
+    }
+
+    // Ordered imports stop at the first row MongoDB rejects; unordered ones write every valid row they can.
+    // Throws IllegalArgumentException for an unusable upload (unknown format, CSV header, batch size).
+    public ProductImportReport importProducts(InputStream body, String format, Integer batchSize, boolean ordered)
+            throws IOException {
+        int size = batchSize == null ? defaultBatchSize : batchSize;
+        if (size < 1 || size > maxBatchSize) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + maxBatchSize);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(decompressed(body), StandardCharsets.UTF_8), 64 * 1024);
+        RowSource rows;
+        if (CSV.equals(format)) {
+            rows = new CsvRows(new CsvReader(reader));
+        } else if (NDJSON.equals(format)) {
+            rows = new NdjsonRows(reader);
+        } else {
+            throw new IllegalArgumentException("Unsupported import format: " + format);
+        }
+
+        ProductImportReport report = new ProductImportReport();
+        List<Product> batch = new ArrayList<>(size);
+        List<Long> batchRows = new ArrayList<>(size);
+        while (true) {
+            ProductCreateRequest request;
+            try {
+                request = rows.next();
+                if (request == null) {
+                    break;
+                }
+                validate(request);
+            } catch (IllegalArgumentException e) {
+                reject(report, rows.row(), e.getMessage());
+                continue;
+            } finally {
+                report.setReceived(rows.row());
+            }
+            Product product = new Product();
+            BeanUtils.copyProperties(request, product);
+            batch.add(product);
+            batchRows.add(rows.row());
+            if (batch.size() == size && !write(batch, batchRows, ordered, report)) {
+                return report;
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch, batchRows, ordered, report);
+        }
+        return report;
+    }
+
+    // The upload as is, or inflated when it is gzip-compressed (as a CSV export is).
+    private static InputStream decompressed(InputStream body) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(body);
+        in.mark(2);
+        int magic = in.read() | (in.read() << 8);
+        in.reset();
+        return magic == GZIP_MAGIC ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+
+    // False when an ordered import has to stop.
+    private boolean write(List<Product> batch, List<Long> batchRows, boolean ordered, ProductImportReport report) {
+        try {
+            // The server stamps each document with its change sequence as it inserts it.
+            mongoTemplate.bulkOps(ordered ? BulkOperations.BulkMode.ORDERED : BulkOperations.BulkMode.UNORDERED, Product.class)
+                    .insert(batch.stream().map(changeLog::insertOf).toList())
+                    .execute();
+            imported(report, batch.size());
+            return true;
+        } catch (BulkOperationException e) {
+            imported(report, e.getResult().getInsertedCount());
+            for (BulkWriteError error : e.getErrors()) {
+                reject(report, batchRows.get(error.getIndex()), error.getMessage());
+            }
+            if (ordered) {
+                report.setComplete(false);
+                return false;
+            }
+            return true;
+        } finally {
+            batch.clear();
+            batchRows.clear();
+        }
+    }
+
+    private void imported(ProductImportReport report, long count) {
+        report.setImported(report.getImported() + count);
+        importedRows.increment(count);
+    }
+
+    private void reject(ProductImportReport report, long row, String message) {
+        report.setFailed(report.getFailed() + 1);
+        failedRows.increment();
+        if (report.getErrors().size() < MAX_REPORTED_ERRORS) {
+            report.getErrors().add(new ProductImportError(row, message));
+        } else {
+            report.setErrorsTruncated(true);
+        }
+    }
+
+    // The same rules a product must meet to be listed; createProduct's callers are trusted to apply them.
+    static void validate(ProductCreateRequest request) {
+        if (!StringUtils.hasText(request.getArtisanId())) {
+            throw new IllegalArgumentException("artisanId is required");
+        }
+        if (!StringUtils.hasText(request.getName())) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (request.getPrice() < 0) {
+            throw new IllegalArgumentException("price must not be negative");
+        }
+        if (request.getStockQuantity() < 0) {
+            throw new IllegalArgumentException("stockQuantity must not be negative");
+        }
+    }
+
+    private interface RowSource {
+
+        // The next row, or null at the end; IllegalArgumentException for a row that cannot be read (and is skipped).
+        ProductCreateRequest next() throws IOException;
+
+        // Position of the row last returned or rejected by next().
+        long row();
+    }
+
+    private class NdjsonRows implements RowSource {
+
+        private final BufferedReader reader;
+        private long row;
+
+        NdjsonRows(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ProductCreateRequest next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+            row++;
+            try {
+                return objectMapper.readValue(line, ProductCreateRequest.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+
+        @Override
+        public long row() {
+            return row;
+        }
+    }
+
+    private static class CsvRows implements RowSource {
+
+        private final CsvReader reader;
+        private final List<String> header;
+        private long row;
+
+        // Reads the header row, which names the columns of every record after it.
+        CsvRows(CsvReader reader) throws IOException {
+            this.reader = reader;
+            List<String> columns = reader.next();
+            this.header = columns == null ? List.of() : columns;
+            for (String column : header) {
+                if (!CSV_COLUMNS.contains(column.trim()) && !IGNORED_CSV_COLUMNS.contains(column.trim())) {
+                    throw new IllegalArgumentException("Unknown CSV column: " + column + " (expected some of " + CSV_COLUMNS + ")");
+                }
+            }
+        }
+
+        @Override
+        public ProductCreateRequest next() throws IOException {
+            List<String> fields = reader.next();
+            if (fields == null) {
+                return null;
+            }
+            row++;
+            if (fields.size() != header.size()) {
+                throw new IllegalArgumentException("Expected " + header.size() + " fields but found " + fields.size());
+            }
+            ProductCreateRequest request = new ProductCreateRequest();
+            for (int i = 0; i < fields.size(); i++) {
+                set(request, header.get(i).trim(), fields.get(i).trim());
+            }
+            return request;
+        }
+
+        @Override
+        public long row() {
+            return row;
+        }
+
+        private static void set(ProductCreateRequest request, String column, String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            if (IGNORED_CSV_COLUMNS.contains(column)) {
+                return;
+            }
+            switch (column) {
+                case "artisanId" -> request.setArtisanId(value);
+                case "name" -> request.setName(value);
+                case "description" -> request.setDescription(value);
+                case "price" -> request.setPrice(number(column, value, Double::parseDouble));
+                case "category" -> request.setCategory(value);
+                case "images" -> request.setImages(CsvValues.splitList(value));
+                case "stockQuantity" -> request.setStockQuantity(number(column, value, Integer::parseInt));
+                case "details" -> request.setDetails(CsvValues.splitMap(value));
+                default -> throw new IllegalArgumentException("Unknown CSV column: " + column);
+            }
+        }
+
+        private static <T> T number(String column, String value, Function<String, T> parser) {
+            try {
+                return parser.apply(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(column + " is not a number: " + value);
+            }
+        }
+    }
+}
@@ -1,27 +1,67 @@
 package com.example.productservice.service;
 
+import com.example.productservice.dto.ProductBatchResponse;
 import com.example.productservice.dto.ProductCreateRequest;
+import com.example.productservice.dto.ProductPage;
 import com.example.productservice.dto.ProductResponse;
 import com.example.productservice.dto.ProductUpdateRequest;
 import com.example.productservice.model.Product;
 import com.example.productservice.repository.ProductRepository;
+import org.bson.types.ObjectId;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class ProductService {
 
+    // Upper bound on the ids of one multi-get, so a single request cannot turn into an unbounded $in query.
+    public static final int MAX_BATCH_IDS = 500;
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+    // Fields of a listing when the client does not select any: everything but the bulky images and details.
+    public static final List<String> LISTING_FIELDS = ProductFields.ALL.stream()
+            .filter(field -> !field.equals("images") && !field.equals("details"))
+            .toList();
+
     private final ProductRepository productRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ProductCache productCache;
+    private final ProductChangeLog changeLog;
 
     @Autowired
-    public ProductService(ProductRepository productRepository) {
+    public ProductService(ProductRepository productRepository, MongoTemplate mongoTemplate, ProductCache productCache,
+                          ProductChangeLog changeLog, MongoIndexes mongoIndexes) {
         this.productRepository = productRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.productCache = productCache;
+        this.changeLog = changeLog;
+        mongoIndexes.register("artisan listing", this::ensureIndexes);
+    }
+
+    // The (artisanId, sort key, _id) indexes declared on Product, which artisan listings are range scans of.
+    private void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps(Product.class);
+        new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(Product.class).forEach(indexOps::ensureIndex);
     }
 
     public ProductResponse createProduct(ProductCreateRequest request) {
@@ -30,60 +70,215 @@ public class ProductService {
         // Any specific logic for conversion, e.g. if artisanId needs type conversion
         // or if there are default values to set.
 
-        Product savedProduct = productRepository.save(product);
-        return mapToProductResponse(savedProduct);
+        // Inserted with an empty change sequence timestamp, which the server fills in the same write.
+        product.setId(new ObjectId().toHexString());
+        mongoTemplate.insert(changeLog.insertOf(product), mongoTemplate.getCollectionName(Product.class));
+        return mapToProductResponse(product);
     }
 
+    // One findAndModify that $sets only the supplied fields, so concurrent edits of different fields both survive.
+    // When the request names the version it was based on, the update applies only if the product is still at it.
     public ProductResponse updateProduct(String productId, ProductUpdateRequest request) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId)); // Consider custom exception
-
+        Update update = new Update();
         // Update fields only if they are provided in the request
         if (StringUtils.hasText(request.getName())) {
-            product.setName(request.getName());
+            update.set("name", request.getName());
         }
         if (StringUtils.hasText(request.getDescription())) {
-            product.setDescription(request.getDescription());
+            update.set("description", request.getDescription());
         }
         if (request.getPrice() != null) {
-            product.setPrice(request.getPrice());
+            update.set("price", request.getPrice());
         }
         if (StringUtils.hasText(request.getCategory())) {
-            product.setCategory(request.getCategory());
+            update.set("category", request.getCategory());
         }
         if (request.getImages() != null && !request.getImages().isEmpty()) {
-            product.setImages(request.getImages());
+            update.set("images", request.getImages());
         }
         if (request.getStockQuantity() != null) {
-            product.setStockQuantity(request.getStockQuantity());
+            update.set("stockQuantity", request.getStockQuantity());
         }
         if (request.getDetails() != null && !request.getDetails().isEmpty()) {
             // For map, decide if you want to merge or replace. This replaces.
-            product.setDetails(request.getDetails());
+            update.set("details", request.getDetails());
+        }
+        if (update.getUpdateObject().isEmpty()) {
+            ProductResponse current = getProductById(productId);
+            checkVersion(productId, request.getVersion(), current.getVersion());
+            return current;
         }
+        update.inc("version", 1);
+        ProductChangeLog.stamp(update);
 
-        Product updatedProduct = productRepository.save(product);
+        Criteria criteria = Criteria.where("id").is(productId);
+        if (request.getVersion() != null) {
+            criteria = criteria.andOperator(versionIs(request.getVersion()));
+        }
+        Product updatedProduct = mongoTemplate.findAndModify(Query.query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        productCache.invalidate(productId);
+        if (updatedProduct == null) {
+            // Only the failure path pays for a second round trip, to tell a missing product from a stale version.
+            Product current = productRepository.findById(productId)
+                    .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId)); // Consider custom exception
+            throw versionConflict(productId, request.getVersion(), current.getVersion());
+        }
         return mapToProductResponse(updatedProduct);
     }
 
     public ProductResponse getProductById(String productId) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId)); // Consider custom exception
-        return mapToProductResponse(product);
+        return getCachedProduct(productId).product();
+    }
+
+    // The product with its ETag, from the near cache when it is there.
+    public ProductCache.Entry getCachedProduct(String productId) {
+        ProductCache.Entry entry = productCache.get(productId);
+        if (entry == null) {
+            long generation = productCache.generation();
+            Product product = productRepository.findById(productId)
+                    .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId)); // Consider custom exception
+            ProductResponse response = mapToProductResponse(product);
+            entry = new ProductCache.Entry(response, etagOf(response));
+            productCache.put(entry, generation);
+        }
+        return entry;
     }
 
+    // Loads several products with one $in query. Items come back in the order the ids were requested (each id
+    // once); ids without a product are listed as missing instead of failing the batch.
+    public ProductBatchResponse getProductsByIds(List<String> ids) {
+        return getProductsByIds(ids, ProductFields.ALL);
+    }
+
+    // Same, reading only the given fields (see ProductFields) from MongoDB.
+    public ProductBatchResponse getProductsByIds(List<String> ids, List<String> fields) {
+        if (ids == null || ids.isEmpty()) {
+            throw new IllegalArgumentException("At least one product id is required");
+        }
+        Set<String> requested = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (StringUtils.hasText(id)) {
+                requested.add(id.trim());
+            }
+        }
+        if (requested.isEmpty()) {
+            throw new IllegalArgumentException("At least one product id is required");
+        }
+        if (requested.size() > MAX_BATCH_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_IDS + " product ids can be requested at once");
+        }
+        Map<String, Product> found = new HashMap<>();
+        Iterable<Product> products;
+        if (ProductFields.isAll(fields)) {
+            products = productRepository.findAllById(requested);
+        } else {
+            Query query = Query.query(Criteria.where("id").in(requested));
+            fields.forEach(field -> query.fields().include(field));
+            products = mongoTemplate.find(query, Product.class);
+        }
+        for (Product product : products) {
+            found.put(product.getId(), product);
+        }
+        ProductBatchResponse response = new ProductBatchResponse();
+        for (String id : requested) {
+            Product product = found.get(id);
+            if (product != null) {
+                response.getItems().add(mapToProductResponse(product));
+            } else {
+                response.getMissing().add(id);
+            }
+        }
+        return response;
+    }
+
+    // The tombstone goes first: a delete that fails after it is only an extra delete for consumers to apply, while
+    // a tombstone lost after the delete would leave them holding the product.
     public void deleteProduct(String productId) {
-        if (!productRepository.existsById(productId)) {
+        changeLog.recordDeletion(productId);
+        if (mongoTemplate.remove(Query.query(Criteria.where("id").is(productId)), Product.class).getDeletedCount() == 0) {
             throw new RuntimeException("Product not found with id: " + productId); // Consider custom exception
         }
-        productRepository.deleteById(productId);
+        productCache.invalidate(productId);
+    }
+
+    // One page of an artisan's products: a range scan of the (artisanId, sort key, _id) index that starts after
+    // the cursor, fetching only the selected fields (by default everything but images and details).
+    public ProductPage getProductsByArtisan(String artisanId, String sort, Integer limit, String after, List<String> fields) {
+        ArtisanProductSort order = ArtisanProductSort.parse(sort);
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        List<String> selected = fields == null ? LISTING_FIELDS : fields;
+
+        Criteria criteria = Criteria.where("artisanId").is(artisanId);
+        if (after != null) {
+            ArtisanProductCursor cursor = ArtisanProductCursor.decode(after);
+            if (cursor.getSort() != order) {
+                throw new IllegalArgumentException("The cursor was issued for sort " + cursor.getSort().name().toLowerCase(Locale.ROOT));
+            }
+            criteria = criteria.andOperator(pastCursor(order, cursor));
+        }
+        Query query = Query.query(criteria).with(order.toSort()).limit(size + 1);
+        selected.forEach(field -> query.fields().include(field));
+        if (order.field() != null) {
+            query.fields().include(order.field()); // the next cursor is built from it
+        }
+        List<Product> products = mongoTemplate.find(query, Product.class);
+
+        ProductPage page = new ProductPage();
+        boolean more = products.size() > size;
+        List<Product> items = more ? products.subList(0, size) : products;
+        page.setItems(items.stream().map(this::mapToProductResponse).collect(Collectors.toList()));
+        if (more) {
+            Product last = items.get(items.size() - 1);
+            page.setNext(new ArtisanProductCursor(order, last.getId(), order.valueOf(last)).encode());
+        }
+        return page;
+    }
+
+    // Everything after (value, id) in the given order. Products without the field sort before every value, so they
+    // come first in ascending orders and last in descending ones.
+    private static Criteria pastCursor(ArtisanProductSort order, ArtisanProductCursor cursor) {
+        boolean ascending = order.direction() == Sort.Direction.ASC;
+        Criteria idPast = ascending ? Criteria.where("id").gt(cursor.getProductId()) : Criteria.where("id").lt(cursor.getProductId());
+        if (order.field() == null) {
+            return idPast;
+        }
+        Object value = order.parseValue(cursor.getValue());
+        Criteria tied = new Criteria().andOperator(Criteria.where(order.field()).is(value), idPast);
+        if (value == null) {
+            return ascending ? new Criteria().orOperator(tied, Criteria.where(order.field()).ne(null)) : tied;
+        }
+        if (ascending) {
+            return new Criteria().orOperator(Criteria.where(order.field()).gt(value), tied);
+        }
+        return new Criteria().orOperator(Criteria.where(order.field()).lt(value), tied, Criteria.where(order.field()).is(null));
+    }
+
+    // Every write bumps the version, so it identifies the content and can be checked inside an update's query.
+    static String etagOf(ProductResponse response) {
+        return Long.toString(response.getVersion());
+    }
+
+    // Products written before versioning have no version field and count as version 0.
+    private static Criteria versionIs(long version) {
+        if (version == 0) {
+            return new Criteria().orOperator(Criteria.where("version").is(0L), Criteria.where("version").exists(false));
+        }
+        return Criteria.where("version").is(version);
+    }
+
+    private static void checkVersion(String productId, Long expected, long current) {
+        if (expected != null && expected != current) {
+            throw versionConflict(productId, expected, current);
+        }
     }
 
-    public List<ProductResponse> getProductsByArtisan(String artisanId) {
-        List<Product> products = productRepository.findByArtisanId(artisanId);
-        return products.stream()
-                .map(this::mapToProductResponse)
-                .collect(Collectors.toList());
+    private static IllegalStateException versionConflict(String productId, Long expected, long current) {
+        return new IllegalStateException("Product " + productId + " was modified: expected version " + expected
+                + " but it is at version " + current);
     }
 
     private ProductResponse mapToProductResponse(Product product) {
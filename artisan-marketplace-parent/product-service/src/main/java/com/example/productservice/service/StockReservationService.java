@@ -0,0 +1,234 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.StockReservationRequest;
+import com.example.productservice.dto.StockReservationResponse;
+import com.example.productservice.model.Product;
+import com.example.productservice.model.StockHold;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Stock reservations for checkouts: reserve takes stock with a TTL, commit makes the sale final, release (or
+// expiry) puts the stock back. Taking stock is one conditional increment of the product, so stock can never go
+// negative; the hold is then recorded in stock_holds, outside the product document. Commit, release and expiry each
+// claim the hold by removing it, so no hold's stock is returned twice.
+@Service
+public class StockReservationService {
+
+    private static final Logger log = LoggerFactory.getLogger(StockReservationService.class);
+
+    static final long MAX_TTL_SECONDS = 24 * 60 * 60;
+    private static final int SWEEP_BATCH = 1000;
+    // MongoDB drops holds this long after they expired; the sweeper settles them long before, so this only clears
+    // what it never could, e.g. the holds of a deleted product.
+    private static final Duration EXPIRED_HOLD_RETENTION = Duration.ofDays(1);
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductCache productCache;
+    private final long defaultTtlSeconds;
+    private final long sweepSeconds;
+    private ScheduledExecutorService sweeper;
+
+    private final Counter reserved;
+    private final Counter rejected;
+    private final Counter committed;
+    private final Counter released;
+    private final Counter expired;
+
+    @Autowired
+    public StockReservationService(MongoTemplate mongoTemplate, ProductCache productCache, MeterRegistry meterRegistry,
+                                   MongoIndexes mongoIndexes,
+                                   @Value("${product.reservation.ttl-seconds:900}") long defaultTtlSeconds,
+                                   @Value("${product.reservation.sweep-seconds:30}") long sweepSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.productCache = productCache;
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        this.sweepSeconds = sweepSeconds;
+        this.reserved = meterRegistry.counter("product.reservations", "outcome", "reserved");
+        this.rejected = meterRegistry.counter("product.reservations", "outcome", "rejected");
+        this.committed = meterRegistry.counter("product.reservations", "outcome", "committed");
+        this.released = meterRegistry.counter("product.reservations", "outcome", "released");
+        this.expired = meterRegistry.counter("product.reservations", "outcome", "expired");
+        mongoIndexes.register("stock hold", this::ensureIndexes);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-hold-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::releaseExpiredHolds, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    private void ensureIndexes() {
+        IndexOperations indexes = mongoTemplate.indexOps(StockHold.class);
+        indexes.ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(EXPIRED_HOLD_RETENTION));
+        indexes.ensureIndex(new Index().on("productId", Sort.Direction.ASC).on("expiresAt", Sort.Direction.ASC));
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    // Throws IllegalStateException when there is not enough unreserved stock.
+    public StockReservationResponse reserve(String productId, StockReservationRequest request) {
+        if (request == null || request.getQuantity() < 1) {
+            throw new IllegalArgumentException("quantity must be at least 1");
+        }
+        long ttlSeconds = request.getTtlSeconds() == null ? defaultTtlSeconds : request.getTtlSeconds();
+        if (ttlSeconds < 1 || ttlSeconds > MAX_TTL_SECONDS) {
+            throw new IllegalArgumentException("ttlSeconds must be between 1 and " + MAX_TTL_SECONDS);
+        }
+        long now = System.currentTimeMillis();
+        StockHold hold = new StockHold(UUID.randomUUID().toString(), productId, request.getQuantity(),
+                new Date(now + TimeUnit.SECONDS.toMillis(ttlSeconds)), new Date(now));
+        // Holds that have run out may be all that stands in the way, so those are released before giving up.
+        if (!takeStock(productId, hold.getQuantity())
+                && (releaseExpired(productId) == 0 || !takeStock(productId, hold.getQuantity()))) {
+            if (!mongoTemplate.exists(byId(productId), Product.class)) {
+                throw new RuntimeException("Product not found with id: " + productId);
+            }
+            rejected.increment();
+            throw new IllegalStateException("Not enough stock of product " + productId + " to reserve " + request.getQuantity());
+        }
+        try {
+            mongoTemplate.insert(hold);
+        } catch (RuntimeException e) {
+            abandon(hold);
+            throw e;
+        }
+        reserved.increment();
+        productCache.invalidate(productId);
+
+        StockReservationResponse response = new StockReservationResponse();
+        response.setId(hold.getReservationId());
+        response.setProductId(productId);
+        response.setQuantity(hold.getQuantity());
+        response.setExpiresAt(hold.getExpiresAt());
+        return response;
+    }
+
+    // The reserved stock stays taken; only a hold that has not expired can be committed.
+    public void commit(String productId, String reservationId) {
+        Query query = byReservation(productId, reservationId);
+        query.addCriteria(Criteria.where("expiresAt").gt(new Date()));
+        if (mongoTemplate.remove(query, StockHold.class).getDeletedCount() == 0) {
+            throw new RuntimeException("Reservation not found or expired: " + reservationId);
+        }
+        committed.increment();
+    }
+
+    public void release(String productId, String reservationId) {
+        StockHold hold = mongoTemplate.findAndRemove(byReservation(productId, reservationId), StockHold.class);
+        if (hold == null) {
+            throw new RuntimeException("Reservation not found or expired: " + reservationId);
+        }
+        returnStock(hold);
+        released.increment();
+    }
+
+    // Settles up to SWEEP_BATCH expired holds per run.
+    void releaseExpiredHolds() {
+        try {
+            Query query = Query.query(Criteria.where("expiresAt").lt(new Date())).limit(SWEEP_BATCH);
+            for (StockHold hold : mongoTemplate.find(query, StockHold.class)) {
+                settleExpired(hold);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to release expired stock holds", e);
+        }
+    }
+
+    int releaseExpired(String productId) {
+        Query query = Query.query(Criteria.where("productId").is(productId).and("expiresAt").lt(new Date()));
+        int count = 0;
+        for (StockHold hold : mongoTemplate.find(query, StockHold.class)) {
+            if (settleExpired(hold)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean takeStock(String productId, int quantity) {
+        Query query = Query.query(Criteria.where("id").is(productId).and("stockQuantity").gte(quantity));
+        Update update = new Update()
+                .inc("stockQuantity", -quantity)
+                .inc("version", 1);
+        return mongoTemplate.updateFirst(query, update, Product.class).getModifiedCount() == 1;
+    }
+
+    // Whoever removes the hold returns its stock, so a sweeper racing a release (or another sweeper) cannot
+    // return it a second time.
+    private boolean settleExpired(StockHold hold) {
+        Query query = Query.query(Criteria.where("reservationId").is(hold.getReservationId()).and("expiresAt").lt(new Date()));
+        if (mongoTemplate.remove(query, StockHold.class).getDeletedCount() == 0) {
+            return false;
+        }
+        returnStock(hold);
+        expired.increment();
+        return true;
+    }
+
+    private void returnStock(StockHold hold) {
+        Update update = new Update()
+                .inc("stockQuantity", hold.getQuantity())
+                .inc("version", 1);
+        mongoTemplate.updateFirst(byId(hold.getProductId()), update, Product.class);
+        productCache.invalidate(hold.getProductId());
+    }
+
+    // The stock was taken but the hold may not have been recorded (or may have been, if only the reply was lost).
+    // It is written again as already expired, which is the same whether or not the first write landed, so the
+    // sweeper returns the stock exactly once; if even that fails the stock stays taken rather than oversold.
+    private void abandon(StockHold hold) {
+        try {
+            Update update = new Update()
+                    .set("productId", hold.getProductId())
+                    .set("quantity", hold.getQuantity())
+                    .set("createdAt", hold.getCreatedAt())
+                    .set("expiresAt", new Date());
+            mongoTemplate.upsert(Query.query(Criteria.where("reservationId").is(hold.getReservationId())), update, StockHold.class);
+        } catch (RuntimeException e) {
+            log.error("Could not record hold {} of {} units of product {}; the stock stays reserved",
+                    hold.getReservationId(), hold.getQuantity(), hold.getProductId(), e);
+        }
+    }
+
+    private static Query byReservation(String productId, String reservationId) {
+        return Query.query(Criteria.where("reservationId").is(reservationId).and("productId").is(productId));
+    }
+
+    private static Query byId(String productId) {
+        return Query.query(Criteria.where("id").is(productId));
+    }
+}
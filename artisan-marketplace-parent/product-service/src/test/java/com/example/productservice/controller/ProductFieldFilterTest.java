@@ -0,0 +1,57 @@
+package com.example.productservice.controller;
+
+import com.example.productservice.dto.ProductPage;
+import com.example.productservice.dto.ProductResponse;
+import com.example.productservice.service.ProductFields;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductFieldFilterTest {
+
+    private final ProductFieldFilter filter = new ProductFieldFilter(new ObjectMapper());
+
+    @Test
+    void select_writesOnlyTheSelectedProductFields() throws Exception {
+        ProductPage page = new ProductPage();
+        page.setItems(Collections.singletonList(product()));
+        page.setNext("cursor");
+
+        String json = write(filter.select(page, ProductFields.parse("name,price")));
+
+        assertEquals("{\"items\":[{\"id\":\"p1\",\"name\":\"Mug\",\"price\":12.5}],\"next\":\"cursor\"}", json);
+    }
+
+    @Test
+    void select_leavesTheEntityAloneWhenEveryFieldIsSelected() {
+        ProductResponse product = product();
+
+        assertSame(product, filter.select(product, ProductFields.parse(null)));
+        assertThrows(IllegalArgumentException.class, () -> ProductFields.parse("name,colour"));
+    }
+
+    private static ProductResponse product() {
+        ProductResponse product = new ProductResponse();
+        product.setId("p1");
+        product.setName("Mug");
+        product.setPrice(12.5);
+        product.setStockQuantity(3);
+        product.setImages(List.of("mug.jpg"));
+        product.setDetails(Map.of("material", "clay"));
+        return product;
+    }
+
+    private static String write(Object entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) entity).write(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -85,7 +85,7 @@ public class ProductResourceTest {
 
     @Test
     void getProductById_success() throws Exception {
-        Product product = new Product("prod123", "artisanX", "Cool Product", "Very cool", 50.0, "Gadgets", null, 20, null);
+        Product product = new Product("prod123", "artisanX", "Cool Product", "Very cool", 50.0, "Gadgets", null, 20, null, 0L, null);
         when(productRepository.findById("prod123")).thenReturn(java.util.Optional.of(product));
 
         mockMvc.perform(get("/api/products/prod123")
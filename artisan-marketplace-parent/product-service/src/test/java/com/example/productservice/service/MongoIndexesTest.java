@@ -0,0 +1,48 @@
+package com.example.productservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MongoIndexesTest {
+
+    private final MongoIndexes mongoIndexes = new MongoIndexes();
+
+    @AfterEach
+    void tearDown() {
+        mongoIndexes.stop();
+    }
+
+    @Test
+    void start_buildsEveryRegisteredIndexOffTheCallingThread() throws Exception {
+        List<String> built = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        mongoIndexes.register("failing", () -> {
+            throw new IllegalStateException("server unreachable");
+        });
+        mongoIndexes.register("listing", () -> built.add(Thread.currentThread() == caller ? "caller" : "listing"));
+        mongoIndexes.register("holds", () -> {
+            built.add("holds");
+            done.countDown();
+        });
+
+        mongoIndexes.start();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of("listing", "holds"), built);
+    }
+
+    @Test
+    void register_isRefusedOnceTheIndexesAreBeingBuilt() {
+        mongoIndexes.start();
+
+        assertThrows(IllegalStateException.class, () -> mongoIndexes.register("late", () -> { }));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong clock;
+    private ProductCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new AtomicLong();
+        cache = new ProductCache(meterRegistry, true, 2, 60, clock::get);
+    }
+
+    @Test
+    void get_countsHitsAndMisses() {
+        cache.put(entry("prod1"), cache.generation());
+
+        assertNotNull(cache.get("prod1"));
+        assertNull(cache.get("prod2"));
+        assertEquals(1.0, meterRegistry.counter("product.cache.requests", "result", "hit").count());
+        assertEquals(1.0, meterRegistry.counter("product.cache.requests", "result", "miss").count());
+        assertEquals(0.5, cache.hitRatio());
+    }
+
+    @Test
+    void entries_expireAfterTtl() {
+        cache.put(entry("prod1"), cache.generation());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(61));
+
+        assertNull(cache.get("prod1"));
+        assertEquals(1.0, meterRegistry.counter("product.cache.evictions", "cause", "expired").count());
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsedBeyondCapacity() {
+        cache.put(entry("prod1"), cache.generation());
+        cache.put(entry("prod2"), cache.generation());
+        cache.get("prod1");
+        cache.put(entry("prod3"), cache.generation());
+
+        assertNotNull(cache.get("prod1"));
+        assertNull(cache.get("prod2"));
+        assertEquals(1.0, meterRegistry.counter("product.cache.evictions", "cause", "size").count());
+    }
+
+    @Test
+    void put_ignoresProductsLoadedBeforeAnInvalidation() {
+        long generation = cache.generation();
+        cache.invalidate("prod1");
+        cache.put(entry("prod1"), generation);
+
+        assertNull(cache.get("prod1"));
+    }
+
+    private static ProductCache.Entry entry(String id) {
+        ProductResponse response = new ProductResponse();
+        response.setId(id);
+        return new ProductCache.Entry(response, ProductService.etagOf(response));
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductChange;
+import com.example.productservice.dto.ProductChangesPage;
+import com.example.productservice.model.Product;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductChangeLogTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ProductChangeLog changeLog;
+    private Date serverNow;
+    private Date settled;
+
+    @BeforeEach
+    void setUp() {
+        changeLog = new ProductChangeLog(mongoTemplate, new MongoIndexes(), 1000, 30);
+        // The server's clock runs an hour behind this one; only the server's is used
+        serverNow = new Date(System.currentTimeMillis() - 3_600_000);
+        settled = new Date(serverNow.getTime() - 60_000);
+    }
+
+    @Test
+    void insertOf_leavesTheChangeSequenceForTheServerToFill() {
+        when(mongoTemplate.getConverter()).thenReturn(converter());
+        Product product = new Product();
+        product.setName("Mug");
+        product.setPrice(12.5);
+
+        Document inserted = changeLog.insertOf(product);
+
+        assertEquals("Mug", inserted.get("name"));
+        assertEquals(12.5, inserted.get("price"));
+        assertFalse(inserted.containsKey("_id"));
+        assertNotNull(inserted.get("changedAt"));
+        assertEquals(new BsonTimestamp(0, 0), inserted.get("changeSeq"));
+    }
+
+    @Test
+    void changesSince_mergesUpsertsAndTombstonesInSequenceOrder() {
+        stubReads(Arrays.asList(product("p1", seq(11)), product("p3", seq(14))),
+                Collections.singletonList(new Document("_id", "p2").append("changeSeq", seq(12)).append("deletedAt", settled)));
+
+        ProductChangesPage page = changeLog.changesSince(Long.toString(seq(10).getValue()), 2);
+
+        assertEquals(Arrays.asList(seq(11).getValue(), seq(12).getValue()),
+                page.getChanges().stream().map(ProductChange::getSeq).toList());
+        assertEquals(ProductChange.UPSERT, page.getChanges().get(0).getType());
+        assertEquals("p1", page.getChanges().get(0).getProduct().getId());
+        assertEquals(ProductChange.DELETE, page.getChanges().get(1).getType());
+        assertNull(page.getChanges().get(1).getProduct());
+        assertEquals(Long.toString(seq(12).getValue()), page.getNext());
+        assertTrue(page.isHasMore());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Document.class), eq("products"));
+        assertEquals(new Document("changeSeq", new Document("$gt", seq(10))), query.getValue().getQueryObject());
+    }
+
+    @Test
+    void changesSince_stopsBeforeAChangeThatHasNotSettledByTheServersClock() {
+        // Stamped in the second the server is in now, by the timestamp; the client-set changedAt plays no part
+        Document unsettled = product("p2", new BsonTimestamp((int) (serverNow.getTime() / 1000), 1)).append("changedAt", settled);
+        stubReads(Arrays.asList(product("p1", seq(11)), unsettled), Collections.emptyList());
+
+        ProductChangesPage page = changeLog.changesSince(Long.toString(seq(10).getValue()), 100);
+
+        assertEquals(1, page.getChanges().size());
+        assertEquals(Long.toString(seq(11).getValue()), page.getNext());
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void changesSince_refusesTokensOlderThanPurgedTombstones() {
+        when(mongoTemplate.findById(ProductChangeLog.SEQUENCE_ID, Document.class, ProductChangeLog.SEQUENCES))
+                .thenReturn(new Document("value", 500L).append("purgedThrough", 200L));
+
+        assertThrows(IllegalStateException.class, () -> changeLog.changesSince("150", 100));
+        assertThrows(IllegalArgumentException.class, () -> changeLog.changesSince("abc", 100));
+    }
+
+    @Test
+    void changesSince_startsASyncFromTheBeginningAfterTombstonesWerePurged() {
+        lenient().when(mongoTemplate.findById(ProductChangeLog.SEQUENCE_ID, Document.class, ProductChangeLog.SEQUENCES))
+                .thenReturn(new Document("purgedThrough", seq(5).getValue()));
+        stubReads(Collections.singletonList(product("p1", seq(11))), Collections.emptyList());
+
+        ProductChangesPage page = changeLog.changesSince(null, 100);
+
+        assertEquals(1, page.getChanges().size());
+        assertEquals(Long.toString(seq(11).getValue()), page.getNext());
+        verify(mongoTemplate, never()).findById(ProductChangeLog.SEQUENCE_ID, Document.class, ProductChangeLog.SEQUENCES);
+    }
+
+    private void stubReads(List<Document> products, List<Document> tombstones) {
+        when(mongoTemplate.executeCommand(new Document("hello", 1))).thenReturn(new Document("localTime", serverNow));
+        when(mongoTemplate.getCollectionName(Product.class)).thenReturn("products");
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("products"))).thenReturn(products);
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ProductChangeLog.TOMBSTONES))).thenReturn(tombstones);
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter());
+    }
+
+    private static MappingMongoConverter converter() {
+        return new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    }
+
+    // Stamped a minute before the server's clock, long enough ago to have settled.
+    private BsonTimestamp seq(int increment) {
+        return new BsonTimestamp((int) (settled.getTime() / 1000), increment);
+    }
+
+    private static Document product(String id, BsonTimestamp changeSeq) {
+        return new Document("_id", id).append("name", "Product " + id).append("changeSeq", changeSeq);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.productservice.service;
+
+import com.example.productservice.model.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductExportServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ProductExportService productExportService;
+    private Product mug;
+    private Product bowl;
+
+    @BeforeEach
+    void setUp() {
+        productExportService = new ProductExportService(mongoTemplate, new ObjectMapper(), new SimpleMeterRegistry(), 1000);
+        mug = new Product();
+        mug.setId("p1");
+        mug.setName("Mug");
+        mug.setDescription("Glazed, \"speckled\"");
+        mug.setPrice(12.5);
+        mug.setImages(Arrays.asList("m1.jpg", "m2.jpg"));
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("material", "clay");
+        details.put("color", "blue");
+        mug.setDetails(details);
+        bowl = new Product();
+        bowl.setId("p2");
+        bowl.setName("Bowl");
+        bowl.setPrice(20);
+    }
+
+    @Test
+    void export_streamsProjectedNdjsonAfterTheResumeId() throws Exception {
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenReturn(Stream.of(mug, bowl));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        productExportService.export(out, ProductExportService.NDJSON, ProductFields.parse("price,name"), "p0");
+
+        assertEquals("{\"id\":\"p1\",\"name\":\"Mug\",\"price\":12.5}\n{\"id\":\"p2\",\"name\":\"Bowl\",\"price\":20.0}\n",
+                out.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(Product.class));
+        assertEquals(new Document("id", new Document("$gt", "p0")), query.getValue().getQueryObject());
+        assertEquals(new Document("id", 1).append("name", 1).append("price", 1), query.getValue().getFieldsObject());
+        assertEquals(new Document("id", 1), query.getValue().getSortObject());
+    }
+
+    @Test
+    void export_writesGzippedCsvWithTheSelectedColumns() throws Exception {
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenReturn(Stream.of(mug));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        productExportService.export(out, ProductExportService.CSV, ProductFields.parse("name,description,images,details"), null);
+
+        CsvReader reader = new CsvReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8));
+        assertEquals(List.of("id", "name", "description", "images", "details"), reader.next());
+        assertEquals(List.of("p1", "Mug", "Glazed, \"speckled\"", "m1.jpg|m2.jpg", "material=clay;color=blue"), reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void fields_rejectUnknownNames() {
+        assertThrows(IllegalArgumentException.class, () -> ProductFields.parse("name,colour"));
+        assertEquals(ProductFields.ALL, ProductFields.parse(null));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.ProductImportReport;
+import com.example.productservice.model.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductImportServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Mock
+    private ProductChangeLog changeLog;
+
+    private ProductImportService productImportService;
+    private List<List<Product>> batches;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        productImportService = new ProductImportService(mongoTemplate, new ObjectMapper(), changeLog,
+                new SimpleMeterRegistry(), 500, 5000);
+        batches = new ArrayList<>();
+        Map<Document, Product> inserts = new IdentityHashMap<>();
+        lenient().when(changeLog.insertOf(any(Product.class))).thenAnswer(invocation -> {
+            Document document = new Document();
+            inserts.put(document, invocation.getArgument(0));
+            return document;
+        });
+        lenient().when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class))).thenReturn(bulkOperations);
+        lenient().when(bulkOperations.insert(anyList())).thenAnswer(invocation -> {
+            batches.add(((List<Document>) invocation.getArgument(0)).stream().map(inserts::get).toList());
+            return bulkOperations;
+        });
+    }
+
+    @Test
+    void importProducts_insertsNdjsonInBatchesAndReportsBadRows() throws Exception {
+        String ndjson = """
+                {"artisanId":"a1","name":"Mug","price":12.5,"stockQuantity":3}
+                {"artisanId":"a1","name":"Bowl","price":20}
+                not json
+
+                {"artisanId":"a1","price":5}
+                {"artisanId":"a2","name":"Vase","price":40}
+                """;
+
+        ProductImportReport report = productImportService.importProducts(stream(ndjson), ProductImportService.NDJSON, 2, false);
+
+        assertEquals(5, report.getReceived());
+        assertEquals(3, report.getImported());
+        assertEquals(2, report.getFailed());
+        assertEquals(Arrays.asList(3L, 4L), report.getErrors().stream().map(error -> error.getRow()).toList());
+        assertEquals("name is required", report.getErrors().get(1).getMessage());
+        assertEquals(Arrays.asList(2, 1), batches.stream().map(List::size).toList());
+        assertEquals("Mug", batches.get(0).get(0).getName());
+        assertEquals(3, batches.get(0).get(0).getStockQuantity());
+    }
+
+    @Test
+    void importProducts_readsQuotedCsvFieldsImagesAndDetails() throws Exception {
+        String csv = "name,artisanId,price,description,images,details\r\n"
+                + "Mug,a1,12.50,\"Glazed, \"\"speckled\"\"\nstoneware\",m1.jpg|m2.jpg,material=clay;color=blue\r\n"
+                + "Bowl,a1,abc,,,\r\n";
+
+        ProductImportReport report = productImportService.importProducts(stream(csv), ProductImportService.CSV, null, false);
+
+        assertEquals(2, report.getReceived());
+        assertEquals(1, report.getImported());
+        assertEquals("price is not a number: abc", report.getErrors().get(0).getMessage());
+        Product mug = batches.get(0).get(0);
+        assertEquals("Glazed, \"speckled\"\nstoneware", mug.getDescription());
+        assertEquals(12.5, mug.getPrice());
+        assertEquals(Arrays.asList("m1.jpg", "m2.jpg"), mug.getImages());
+        assertEquals(Map.of("material", "clay", "color", "blue"), mug.getDetails());
+    }
+
+    @Test
+    void importProducts_rejectsUnknownCsvColumnsBeforeWriting() {
+        assertThrows(IllegalArgumentException.class, () ->
+                productImportService.importProducts(stream("name,colour\nMug,red\n"), ProductImportService.CSV, null, false));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void importProducts_readsBackAProductExport() throws Exception {
+        Product exported = new Product();
+        exported.setId("p1");
+        exported.setVersion(3);
+        exported.setArtisanId("a1");
+        exported.setName("Mug");
+        exported.setDescription("Glazed, \"speckled\"");
+        exported.setPrice(12.5);
+        exported.setImages(Arrays.asList("m1.jpg", "m2.jpg"));
+        exported.setStockQuantity(4);
+        exported.setDetails(Map.of("material", "clay"));
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenReturn(Stream.of(exported));
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        new ProductExportService(mongoTemplate, new ObjectMapper(), new SimpleMeterRegistry(), 1000)
+                .export(export, ProductExportService.CSV, ProductFields.ALL, null);
+
+        ProductImportReport report = productImportService.importProducts(
+                new ByteArrayInputStream(export.toByteArray()), ProductImportService.CSV, null, false);
+
+        assertEquals(1, report.getImported());
+        assertEquals(0, report.getFailed());
+        Product imported = batches.get(0).get(0);
+        assertNull(imported.getId());
+        assertEquals(0, imported.getVersion());
+        assertEquals("a1", imported.getArtisanId());
+        assertEquals("Mug", imported.getName());
+        assertEquals("Glazed, \"speckled\"", imported.getDescription());
+        assertEquals(12.5, imported.getPrice());
+        assertEquals(Arrays.asList("m1.jpg", "m2.jpg"), imported.getImages());
+        assertEquals(4, imported.getStockQuantity());
+        assertEquals(Map.of("material", "clay"), imported.getDetails());
+    }
+
+    @Test
+    void importProducts_readsBackSeparatorsInsideImagesAndDetails() throws Exception {
+        Product exported = new Product();
+        exported.setId("p1");
+        exported.setArtisanId("a1");
+        exported.setName("Mug");
+        exported.setPrice(12.5);
+        exported.setImages(Arrays.asList("mugs|front.jpg", "C:\\mugs\\back.jpg", "a=b;c.jpg"));
+        exported.setStockQuantity(4);
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("size=cm", "10;12");
+        details.put("glaze|finish", "matte\\gloss");
+        details.put("note", "a=b");
+        exported.setDetails(details);
+        when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenReturn(Stream.of(exported));
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        new ProductExportService(mongoTemplate, new ObjectMapper(), new SimpleMeterRegistry(), 1000)
+                .export(export, ProductExportService.CSV, ProductFields.ALL, null);
+
+        ProductImportReport report = productImportService.importProducts(
+                new ByteArrayInputStream(export.toByteArray()), ProductImportService.CSV, null, false);
+
+        assertEquals(1, report.getImported());
+        Product imported = batches.get(0).get(0);
+        assertEquals(exported.getImages(), imported.getImages());
+        assertEquals(details, imported.getDetails());
+    }
+
+    @Test
+    void importProducts_readsUnescapedDetailValuesUpToTheFirstEquals() throws Exception {
+        String csv = "artisanId,name,price,images,stockQuantity,details\n"
+                + "a1,Mug,12.5,m1.jpg|m2.jpg|,4,formula=a=b;size=10\n";
+
+        productImportService.importProducts(stream(csv), ProductImportService.CSV, null, false);
+
+        Product imported = batches.get(0).get(0);
+        assertEquals(Arrays.asList("m1.jpg", "m2.jpg"), imported.getImages());
+        assertEquals(Map.of("formula", "a=b", "size", "10"), imported.getDetails());
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,24 +1,46 @@
 package com.example.productservice.service;
 
+import com.example.productservice.dto.ProductBatchResponse;
 import com.example.productservice.dto.ProductCreateRequest;
+import com.example.productservice.dto.ProductPage;
 import com.example.productservice.dto.ProductResponse;
+import com.example.productservice.dto.ProductUpdateRequest;
 import com.example.productservice.model.Product;
 import com.example.productservice.repository.ProductRepository;
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.BeanUtils;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -28,6 +50,18 @@ public class ProductServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ProductChangeLog changeLog;
+
+    @Mock
+    private MongoIndexes mongoIndexes;
+
+    @Spy
+    private ProductCache productCache = new ProductCache(new SimpleMeterRegistry(), true, 100, 300);
+
     @InjectMocks
     private ProductService productService;
 
@@ -53,15 +87,22 @@ public class ProductServiceTest {
 
     @Test
     void createProduct_success() {
-        when(productRepository.save(any(Product.class))).thenReturn(product);
+        Document insert = new Document();
+        when(changeLog.insertOf(any(Product.class))).thenReturn(insert);
+        when(mongoTemplate.getCollectionName(Product.class)).thenReturn("products");
 
         ProductResponse response = productService.createProduct(createRequest);
 
         assertNotNull(response);
-        assertEquals(product.getId(), response.getId());
         assertEquals(createRequest.getName(), response.getName());
         assertEquals(createRequest.getArtisanId(), response.getArtisanId());
-        verify(productRepository).save(any(Product.class));
+        ArgumentCaptor<Product> inserted = ArgumentCaptor.forClass(Product.class);
+        verify(changeLog).insertOf(inserted.capture());
+        assertTrue(ObjectId.isValid(inserted.getValue().getId()));
+        assertEquals(inserted.getValue().getId(), response.getId());
+        assertEquals(createRequest.getName(), inserted.getValue().getName());
+        verify(mongoTemplate).insert(insert, "products");
+        verify(productRepository, never()).save(any(Product.class));
     }
 
     @Test
@@ -75,6 +116,21 @@ public class ProductServiceTest {
         assertEquals(product.getName(), response.getName());
     }
 
+    @Test
+    void getProductById_servedFromCacheUntilTheProductIsWritten() {
+        when(productRepository.findById("prod123")).thenReturn(Optional.of(product));
+        when(mongoTemplate.remove(any(Query.class), eq(Product.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        ProductCache.Entry first = productService.getCachedProduct("prod123");
+        ProductCache.Entry second = productService.getCachedProduct("prod123");
+        productService.deleteProduct("prod123");
+        productService.getCachedProduct("prod123");
+
+        assertSame(first, second);
+        assertEquals(ProductService.etagOf(first.product()), first.etag());
+        verify(productRepository, times(2)).findById("prod123");
+    }
+
     @Test
     void getProductById_notFound() {
         when(productRepository.findById("unknownId")).thenReturn(Optional.empty());
@@ -87,35 +143,182 @@ public class ProductServiceTest {
 
     @Test
     void getProductsByArtisan_success() {
-        when(productRepository.findByArtisanId("artisan123")).thenReturn(Collections.singletonList(product));
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(Collections.singletonList(product));
 
-        List<ProductResponse> responses = productService.getProductsByArtisan("artisan123");
+        ProductPage page = productService.getProductsByArtisan("artisan123", null, null, null, null);
 
+        List<ProductResponse> responses = page.getItems();
         assertNotNull(responses);
         assertFalse(responses.isEmpty());
         assertEquals(1, responses.size());
         assertEquals(product.getId(), responses.get(0).getId());
+        assertNull(page.getNext());
+    }
+
+    @Test
+    void getProductsByArtisan_pagesByKeysetWithoutImagesOrDetails() {
+        Product cheaper = new Product();
+        cheaper.setId("prod100");
+        cheaper.setPrice(10);
+        when(mongoTemplate.find(any(Query.class), eq(Product.class)))
+                .thenReturn(Arrays.asList(cheaper, product), Collections.singletonList(product));
+
+        ProductPage first = productService.getProductsByArtisan("artisan123", "price_asc", 1, null, null);
+        ProductPage second = productService.getProductsByArtisan("artisan123", "price_asc", 1, first.getNext(), null);
+
+        assertEquals(Collections.singletonList("prod100"), first.getItems().stream().map(ProductResponse::getId).toList());
+        assertNotNull(first.getNext());
+        assertNull(second.getNext());
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(Product.class));
+        Query firstQuery = queries.getAllValues().get(0);
+        assertEquals(2, firstQuery.getLimit());
+        assertEquals(new Document("price", 1).append("id", 1), firstQuery.getSortObject());
+        assertFalse(firstQuery.getFieldsObject().containsKey("images"));
+        assertFalse(firstQuery.getFieldsObject().containsKey("details"));
+        assertEquals(new Document("artisanId", "artisan123").append("$and", Collections.singletonList(
+                new Document("$or", Arrays.asList(new Document("price", new Document("$gt", 10.0)),
+                        new Document("$and", Arrays.asList(new Document("price", 10.0),
+                                new Document("id", new Document("$gt", "prod100")))))))),
+                queries.getAllValues().get(1).getQueryObject());
+        assertThrows(IllegalArgumentException.class,
+                () -> productService.getProductsByArtisan("artisan123", "name", 1, first.getNext(), null));
+    }
+
+    @Test
+    void getProductsByArtisan_pagesPastProductsWithoutAName() {
+        Product nameless = new Product();
+        nameless.setId("prod050");
+        when(mongoTemplate.find(any(Query.class), eq(Product.class)))
+                .thenReturn(Arrays.asList(nameless, product), Collections.singletonList(product));
+
+        ProductPage first = productService.getProductsByArtisan("artisan123", "name", 1, null, null);
+        productService.getProductsByArtisan("artisan123", "name", 1, first.getNext(), null);
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(Product.class));
+        // The remaining nameless products come before every named one
+        assertEquals(new Document("artisanId", "artisan123").append("$and", Collections.singletonList(
+                new Document("$or", Arrays.asList(
+                        new Document("$and", Arrays.asList(new Document("name", null),
+                                new Document("id", new Document("$gt", "prod050")))),
+                        new Document("name", new Document("$ne", null)))))),
+                queries.getAllValues().get(1).getQueryObject());
+        Exception exception = assertThrows(IllegalArgumentException.class,
+                () -> productService.getProductsByArtisan("artisan123", "price_desc", 1, first.getNext(), null));
+        assertEquals("The cursor was issued for sort name", exception.getMessage());
+    }
+
+    @Test
+    void getProductsByIds_keepsRequestedOrderAndReportsMissingIds() {
+        Product other = new Product();
+        other.setId("prod456");
+        other.setName("Woven Basket");
+        when(productRepository.findAllById(any())).thenReturn(Arrays.asList(product, other));
+
+        ProductBatchResponse response = productService.getProductsByIds(Arrays.asList("prod456", "unknownId", "prod123", "prod456"));
+
+        assertEquals(Arrays.asList("prod456", "prod123"), response.getItems().stream().map(ProductResponse::getId).toList());
+        assertEquals(Collections.singletonList("unknownId"), response.getMissing());
+        verify(productRepository).findAllById(new LinkedHashSet<>(Arrays.asList("prod456", "unknownId", "prod123")));
+    }
+
+    @Test
+    void getProductsByIds_projectsTheSelectedFields() {
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(Collections.singletonList(product));
+
+        productService.getProductsByIds(Arrays.asList("prod123", "prod456"), ProductFields.parse("name,price"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Product.class));
+        assertEquals(new Document("id", 1).append("name", 1).append("price", 1), query.getValue().getFieldsObject());
+        verify(productRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void getProductsByIds_rejectsTooManyIds() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i <= ProductService.MAX_BATCH_IDS; i++) {
+            ids.add("id" + i);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> productService.getProductsByIds(ids));
+        assertThrows(IllegalArgumentException.class, () -> productService.getProductsByIds(Collections.emptyList()));
     }
 
     @Test
     void deleteProduct_success() {
-        when(productRepository.existsById("prod123")).thenReturn(true);
-        // No need to mock deleteById as it's a void method, just verify it's called
-        
+        when(mongoTemplate.remove(any(Query.class), eq(Product.class))).thenReturn(DeleteResult.acknowledged(1));
+
         productService.deleteProduct("prod123");
-        
-        verify(productRepository).deleteById("prod123");
+
+        InOrder order = inOrder(changeLog, mongoTemplate);
+        order.verify(changeLog).recordDeletion("prod123");
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        order.verify(mongoTemplate).remove(removed.capture(), eq(Product.class));
+        assertEquals(new Document("id", "prod123"), removed.getValue().getQueryObject());
+        verify(productRepository, never()).existsById(any());
     }
 
     @Test
     void deleteProduct_notFound() {
-        when(productRepository.existsById("unknownId")).thenReturn(false);
-        
+        when(mongoTemplate.remove(any(Query.class), eq(Product.class))).thenReturn(DeleteResult.acknowledged(0));
+
         Exception exception = assertThrows(RuntimeException.class, () -> {
             productService.deleteProduct("unknownId");
         });
         assertEquals("Product not found with id: unknownId", exception.getMessage());
     }
 
-    // TODO: Add tests for updateProduct
+    @Test
+    void updateProduct_setsOnlySuppliedFieldsInOneFindAndModify() {
+        ProductUpdateRequest request = new ProductUpdateRequest();
+        request.setPrice(29.99);
+        request.setName("Glazed Mug");
+        product.setVersion(4);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(product);
+
+        ProductResponse response = productService.updateProduct("prod123", request);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class), eq(Product.class));
+        assertEquals(new Document("id", "prod123"), query.getValue().getQueryObject());
+        Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+        assertEquals(Set.of("name", "price"), set.keySet());
+        assertEquals("Glazed Mug", set.get("name"));
+        assertEquals(29.99, set.get("price"));
+        assertEquals(new Document("changeSeq", new Document("$type", "timestamp")).append("changedAt", true),
+                update.getValue().getUpdateObject().get("$currentDate", Document.class));
+        assertEquals(new Document("version", 1), update.getValue().getUpdateObject().get("$inc", Document.class));
+        assertEquals(4, response.getVersion());
+        verify(productRepository, never()).save(any(Product.class));
+    }
+
+    @Test
+    void updateProduct_failsWhenTheExpectedVersionIsStale() {
+        ProductUpdateRequest request = new ProductUpdateRequest();
+        request.setPrice(29.99);
+        request.setVersion(2L);
+        product.setVersion(3);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(null);
+        when(productRepository.findById("prod123")).thenReturn(Optional.of(product));
+
+        Exception exception = assertThrows(IllegalStateException.class, () -> productService.updateProduct("prod123", request));
+
+        assertEquals("Product prod123 was modified: expected version 2 but it is at version 3", exception.getMessage());
+    }
+
+    @Test
+    void updateProduct_notFound() {
+        ProductUpdateRequest request = new ProductUpdateRequest();
+        request.setPrice(29.99);
+        when(productRepository.findById("unknownId")).thenReturn(Optional.empty());
+
+        Exception exception = assertThrows(RuntimeException.class, () -> productService.updateProduct("unknownId", request));
+
+        assertEquals("Product not found with id: unknownId", exception.getMessage());
+    }
 }
@@ -0,0 +1,85 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.StockReservationRequest;
+import com.example.productservice.model.Product;
+import com.example.productservice.model.StockHold;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput of reservations on a single hot product under many concurrent reservers, against a real MongoDB.
+// Not part of the unit tests: run main with [mongodb uri] [reservers] [stock], e.g. from the IDE.
+// Every reserver takes one unit at a time until the stock is gone; the run checks that exactly the stock was
+// reserved (no overselling) and reports reservations and rejections per second.
+public class StockReservationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        int reservers = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int stock = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        try (MongoClient client = MongoClients.create(uri)) {
+            MongoTemplate mongoTemplate = new MongoTemplate(client, "product_reservation_benchmark");
+            mongoTemplate.dropCollection(Product.class);
+            mongoTemplate.dropCollection(StockHold.class);
+            Product product = new Product();
+            product.setName("Hot SKU");
+            product.setStockQuantity(stock);
+            String productId = mongoTemplate.insert(product).getId();
+
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            StockReservationService service = new StockReservationService(mongoTemplate,
+                    new ProductCache(meterRegistry, false, 0, 0), meterRegistry, new MongoIndexes(), 900, 30);
+            StockReservationRequest request = new StockReservationRequest();
+            request.setQuantity(1);
+
+            AtomicLong reserved = new AtomicLong();
+            AtomicLong rejected = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(reservers);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < reservers; i++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    while (true) {
+                        try {
+                            service.reserve(productId, request);
+                            reserved.incrementAndGet();
+                        } catch (IllegalStateException e) {
+                            rejected.incrementAndGet();
+                            return null; // sold out
+                        }
+                    }
+                }));
+            }
+            long began = System.nanoTime();
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            double seconds = (System.nanoTime() - began) / 1e9;
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+
+            Product after = mongoTemplate.findById(productId, Product.class);
+            long holds = mongoTemplate.count(Query.query(Criteria.where("productId").is(productId)), StockHold.class);
+            System.out.printf("%d reservers, %d units: %d reserved, %d rejected in %.2f s (%.0f reservations/s)%n",
+                    reservers, stock, reserved.get(), rejected.get(), seconds, reserved.get() / seconds);
+            System.out.printf("stock left %d, open holds %d -> %s%n", after.getStockQuantity(), holds,
+                    reserved.get() == stock && after.getStockQuantity() == 0 && holds == stock ? "OK" : "OVERSOLD OR LOST");
+            mongoTemplate.getDb().drop();
+        }
+    }
+}
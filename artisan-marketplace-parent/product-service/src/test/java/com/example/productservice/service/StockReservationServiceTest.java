@@ -0,0 +1,151 @@
+package com.example.productservice.service;
+
+import com.example.productservice.dto.StockReservationRequest;
+import com.example.productservice.dto.StockReservationResponse;
+import com.example.productservice.model.Product;
+import com.example.productservice.model.StockHold;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class StockReservationServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private StockReservationService stockReservationService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stockReservationService = new StockReservationService(mongoTemplate,
+                new ProductCache(meterRegistry, true, 100, 300), meterRegistry, new MongoIndexes(), 900, 30);
+    }
+
+    @Test
+    void reserve_takesStockWithAConditionalIncrementAndRecordsTheHold() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Product.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        StockReservationRequest request = new StockReservationRequest();
+        request.setQuantity(3);
+
+        StockReservationResponse reservation = stockReservationService.reserve("prod123", request);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(Product.class));
+        assertEquals(new Document("id", "prod123").append("stockQuantity", new Document("$gte", 3)),
+                query.getValue().getQueryObject());
+        assertEquals(new Document("$inc", new Document("stockQuantity", -3).append("version", 1)),
+                update.getValue().getUpdateObject()); // the product carries no ledger
+        ArgumentCaptor<StockHold> hold = ArgumentCaptor.forClass(StockHold.class);
+        verify(mongoTemplate).insert(hold.capture());
+        assertEquals(reservation.getId(), hold.getValue().getReservationId());
+        assertEquals("prod123", hold.getValue().getProductId());
+        assertEquals(3, reservation.getQuantity());
+        assertTrue(reservation.getExpiresAt().after(new Date()));
+    }
+
+    @Test
+    void reserve_rejectsWhenStockIsShort() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Product.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(mongoTemplate.find(any(Query.class), eq(StockHold.class))).thenReturn(List.of());
+        when(mongoTemplate.exists(any(Query.class), eq(Product.class))).thenReturn(true);
+        StockReservationRequest request = new StockReservationRequest();
+        request.setQuantity(3);
+
+        assertThrows(IllegalStateException.class, () -> stockReservationService.reserve("prod123", request));
+        assertEquals(1.0, meterRegistry.counter("product.reservations", "outcome", "rejected").count());
+        verify(mongoTemplate, never()).insert(any(StockHold.class));
+    }
+
+    @Test
+    void reserve_leavesAHoldThatCouldNotBeRecordedToTheSweeper() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Product.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.insert(any(StockHold.class))).thenThrow(new DataAccessResourceFailureException("timed out"));
+        StockReservationRequest request = new StockReservationRequest();
+        request.setQuantity(2);
+
+        assertThrows(DataAccessResourceFailureException.class, () -> stockReservationService.reserve("prod123", request));
+
+        ArgumentCaptor<Update> expiredHold = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), expiredHold.capture(), eq(StockHold.class));
+        Document set = expiredHold.getValue().getUpdateObject().get("$set", Document.class);
+        assertEquals("prod123", set.get("productId"));
+        assertEquals(2, set.get("quantity"));
+        assertFalse(set.get("expiresAt", Date.class).after(new Date()));
+        assertEquals(0.0, meterRegistry.counter("product.reservations", "outcome", "reserved").count());
+    }
+
+    @Test
+    void release_returnsTheHeldStockOnlyOnce() {
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(StockHold.class)))
+                .thenReturn(new StockHold("res1", "prod123", 2, new Date(), new Date()), (StockHold) null);
+
+        stockReservationService.release("prod123", "res1");
+        assertThrows(RuntimeException.class, () -> stockReservationService.release("prod123", "res1"));
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(Product.class));
+        assertEquals(new Document("stockQuantity", 2).append("version", 1),
+                update.getValue().getUpdateObject().get("$inc", Document.class));
+        assertEquals(1.0, meterRegistry.counter("product.reservations", "outcome", "released").count());
+    }
+
+    @Test
+    void commit_removesOnlyAHoldThatHasNotExpired() {
+        when(mongoTemplate.remove(any(Query.class), eq(StockHold.class)))
+                .thenReturn(DeleteResult.acknowledged(1), DeleteResult.acknowledged(0));
+
+        stockReservationService.commit("prod123", "res1");
+        assertThrows(RuntimeException.class, () -> stockReservationService.commit("prod123", "res1"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).remove(query.capture(), eq(StockHold.class));
+        assertTrue(query.getValue().getQueryObject().get("expiresAt", Document.class).containsKey("$gt"));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Product.class));
+        assertEquals(1.0, meterRegistry.counter("product.reservations", "outcome", "committed").count());
+    }
+
+    @Test
+    void releaseExpiredHolds_returnsTheStockOfHoldsItClaims() {
+        StockHold claimed = new StockHold("res1", "prod1", 2, new Date(0), new Date(0));
+        StockHold settledElsewhere = new StockHold("res2", "prod2", 5, new Date(0), new Date(0));
+        when(mongoTemplate.find(any(Query.class), eq(StockHold.class))).thenReturn(List.of(claimed, settledElsewhere));
+        when(mongoTemplate.remove(any(Query.class), eq(StockHold.class)))
+                .thenReturn(DeleteResult.acknowledged(1), DeleteResult.acknowledged(0));
+
+        stockReservationService.releaseExpiredHolds();
+
+        ArgumentCaptor<Query> product = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(product.capture(), any(Update.class), eq(Product.class));
+        assertEquals(new Document("id", "prod1"), product.getValue().getQueryObject());
+        assertEquals(1.0, meterRegistry.counter("product.reservations", "outcome", "expired").count());
+    }
+}